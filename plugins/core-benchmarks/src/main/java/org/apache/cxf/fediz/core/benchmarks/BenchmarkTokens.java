@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.benchmarks;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.common.STSUtil;
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler;
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.KeystoreCallbackHandler;
+import org.apache.cxf.fediz.core.config.FedizConfigurator;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.samlsso.DeflateCodec;
+import org.apache.cxf.fediz.core.samlsso.SAML2PResponseComponentBuilder;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.saml.bean.AudienceRestrictionBean;
+import org.apache.wss4j.common.saml.bean.ConditionsBean;
+import org.apache.wss4j.common.saml.bean.SubjectConfirmationDataBean;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.joda.time.DateTime;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+
+/**
+ * Creates the tokens and contexts used by the benchmarks, in the same way as the functional tests of the core
+ * module do. The tokens are valid for a day, so that they do not expire during a benchmark run.
+ */
+final class BenchmarkTokens {
+
+    static final String TEST_USER = "alice";
+    static final String TEST_RSTR_ISSUER = "FedizSTSIssuer";
+    static final String TEST_AUDIENCE = "https://localhost/fedizhelloworld";
+    static final String TEST_REQUEST_URL = "https://localhost/fedizhelloworld/";
+    static final String TEST_IDP_ISSUER = "http://url_to_the_issuer";
+    static final String TEST_CLIENT_ADDRESS = "https://127.0.0.1";
+
+    static final String SIGNING_ALIAS = "mystskey";
+
+    private static final int TOKEN_PERIOD_MINUTES = 24 * 60;
+
+    static {
+        OpenSAMLUtil.initSamlEngine();
+    }
+
+    private BenchmarkTokens() {
+    }
+
+    /**
+     * Load a context of one of the test configurations from the classpath. Replay detection is disabled, as the
+     * benchmarks process the same token over and over again.
+     */
+    static FedizContext loadContext(String configFile, String contextName) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        try (InputStream is = BenchmarkTokens.class.getClassLoader().getResourceAsStream(configFile);
+            Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            configurator.loadConfig(reader);
+        }
+        FedizContext fedContext = configurator.getFedizContext(contextName);
+        fedContext.setDetectReplayedTokens(false);
+        return fedContext;
+    }
+
+    /**
+     * Create a signed assertion for the RP audience, issued by the test STS.
+     */
+    static SamlAssertionWrapper createAssertion(AbstractSAMLCallbackHandler callbackHandler,
+                                                String issuer, String audience) throws Exception {
+        callbackHandler.setIssuer(issuer);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        cp.setTokenPeriodMinutes(TOKEN_PERIOD_MINUTES);
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(audience);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+        assertion.signAssertion(SIGNING_ALIAS, getPassword(SIGNING_ALIAS), getCrypto(), false);
+        return assertion;
+    }
+
+    /**
+     * Wrap the assertion into a RequestSecurityTokenResponseCollection, as returned by the IdP in wresult.
+     */
+    static String createWResult(SamlAssertionWrapper assertion, boolean encrypt) throws Exception {
+        Document doc = STSUtil.toSOAPPart(STSUtil.SAMPLE_RSTR_COLL_MSG);
+        Element token = assertion.toDOM(doc);
+
+        Element e = XMLUtils.findElement(doc, "RequestedSecurityToken", FederationConstants.WS_TRUST_13_NS);
+        e.appendChild(token);
+
+        if (encrypt) {
+            WSSecEncrypt builder = new WSSecEncrypt(doc);
+            builder.setUserInfo(SIGNING_ALIAS);
+            builder.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            builder.setSymmetricEncAlgorithm(WSConstants.AES_128);
+            builder.setKeyEncAlgo(WSConstants.KEYTRANSPORT_RSAOAEP);
+            builder.setEmbedEncryptedKey(true);
+
+            WSEncryptionPart encryptionPart = new WSEncryptionPart(assertion.getId(), "Element");
+            encryptionPart.setElement(token);
+
+            builder.prepare(getCrypto());
+            builder.encryptForRef(null, Collections.singletonList(encryptionPart));
+        }
+        return DOM2Writer.nodeToString(doc);
+    }
+
+    /**
+     * Create a base64 encoded SAML-P Response containing the assertion, deflated for the redirect binding.
+     */
+    static String createSAMLResponse(AbstractSAMLCallbackHandler callbackHandler, String requestId,
+                                     boolean deflate) throws Exception {
+        SubjectConfirmationDataBean subjectConfirmationData = new SubjectConfirmationDataBean();
+        subjectConfirmationData.setAddress(TEST_CLIENT_ADDRESS);
+        subjectConfirmationData.setInResponseTo(requestId);
+        subjectConfirmationData.setNotAfter(new DateTime().plusMinutes(TOKEN_PERIOD_MINUTES));
+        subjectConfirmationData.setRecipient(TEST_REQUEST_URL);
+        callbackHandler.setSubjectConfirmationData(subjectConfirmationData);
+
+        SamlAssertionWrapper assertion = createAssertion(callbackHandler, TEST_IDP_ISSUER, TEST_REQUEST_URL);
+
+        Document doc = DOMUtils.createDocument();
+        Status status =
+            SAML2PResponseComponentBuilder.createStatus("urn:oasis:names:tc:SAML:2.0:status:Success", null);
+        Response response =
+            SAML2PResponseComponentBuilder.createSAMLResponse(requestId, assertion.getIssuerString(), status);
+        response.getAssertions().add(assertion.getSaml2());
+
+        Element responseElement = OpenSAMLUtil.toDom(response, doc);
+        doc.appendChild(responseElement);
+
+        byte[] responseBytes = DOM2Writer.nodeToString(responseElement).getBytes(StandardCharsets.UTF_8);
+        if (deflate) {
+            responseBytes = DeflateCodec.getInstance().deflate(responseBytes);
+        }
+        return Base64.getEncoder().encodeToString(responseBytes);
+    }
+
+    private static Crypto getCrypto() throws Exception {
+        return CryptoFactory.getInstance("signature.properties");
+    }
+
+    private static String getPassword(String alias) throws Exception {
+        WSPasswordCallback[] cb = {
+            new WSPasswordCallback(alias, WSPasswordCallback.SIGNATURE)
+        };
+        new KeystoreCallbackHandler().handle(cb);
+        return cb[0].getPassword();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares parsing and writing a wresult with the per-thread XML machinery of DOMUtils against the code path
+ * DOMUtils had before: a shared DocumentBuilderFactory with a new DocumentBuilder per document, and a new
+ * TransformerFactory and Transformer per written document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DOMUtilsBenchmark {
+
+    private static final DocumentBuilderFactory BASELINE_DBF = DocumentBuilderFactory.newInstance();
+
+    static {
+        try {
+            BASELINE_DBF.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            BASELINE_DBF.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            BASELINE_DBF.setValidating(false);
+            BASELINE_DBF.setIgnoringComments(false);
+            BASELINE_DBF.setIgnoringElementContentWhitespace(true);
+            BASELINE_DBF.setNamespaceAware(true);
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private byte[] wresult;
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        String token = BenchmarkTokens.createWResult(
+            BenchmarkTokens.createAssertion(callbackHandler, BenchmarkTokens.TEST_RSTR_ISSUER,
+                                            BenchmarkTokens.TEST_AUDIENCE),
+            false);
+        wresult = token.getBytes(StandardCharsets.UTF_8);
+        document = DOMUtils.readXml(new ByteArrayInputStream(wresult));
+    }
+
+    @Benchmark
+    public Document parsePooled() throws Exception {
+        return DOMUtils.readXml(new ByteArrayInputStream(wresult));
+    }
+
+    @Benchmark
+    public Document parseBaseline() throws Exception {
+        return BASELINE_DBF.newDocumentBuilder().parse(new ByteArrayInputStream(wresult));
+    }
+
+    @Benchmark
+    public byte[] writePooled() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(wresult.length);
+        DOMUtils.writeXml(document, os);
+        return os.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeBaseline() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(wresult.length);
+        writeXmlBaseline(document, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * DOMUtils.writeXml as it was before the per-thread Transformer
+     */
+    private static void writeXmlBaseline(Node n, OutputStream os) throws TransformerException {
+        TransformerFactory tf = TransformerFactory.newInstance();
+        tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        Transformer t = tf.newTransformer();
+        t.setOutputProperty(OutputKeys.INDENT, "yes");
+        t.transform(new DOMSource(n), new StreamResult(os));
+    }
+
+}
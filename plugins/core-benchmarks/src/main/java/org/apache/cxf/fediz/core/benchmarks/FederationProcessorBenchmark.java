@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler;
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.SAML1CallbackHandler;
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizRequest;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.wss4j.common.saml.builder.SAML1Constants;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the processing of a WS-Federation sign-in response by FederationProcessorImpl, from the wresult
+ * string to the FedizResponse. Run with "-prof gc" to get the allocation rate per operation
+ * (gc.alloc.rate.norm) next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FederationProcessorBenchmark {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    /**
+     * The kind of token: a signed SAML 1.1 or SAML 2.0 token, or a signed SAML 2.0 token encrypted for the RP.
+     */
+    @Param({"SAML1", "SAML2", "SAML2_ENCRYPTED"})
+    private String tokenType;
+
+    private FedizContext fedContext;
+    private FedizProcessor processor;
+    private String wresult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AbstractSAMLCallbackHandler callbackHandler;
+        String contextName = "ROOT";
+        boolean encrypt = false;
+        if ("SAML1".equals(tokenType)) {
+            callbackHandler = new SAML1CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML1Constants.CONF_BEARER);
+        } else {
+            callbackHandler = new SAML2CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+            if ("SAML2_ENCRYPTED".equals(tokenType)) {
+                contextName = "ROOT_DECRYPTION";
+                encrypt = true;
+            }
+        }
+        callbackHandler.setStatement(AbstractSAMLCallbackHandler.Statement.ATTR);
+
+        wresult = BenchmarkTokens.createWResult(
+            BenchmarkTokens.createAssertion(callbackHandler, BenchmarkTokens.TEST_RSTR_ISSUER,
+                                            BenchmarkTokens.TEST_AUDIENCE),
+            encrypt);
+        fedContext = BenchmarkTokens.loadContext(CONFIG_FILE, contextName);
+        processor = new FederationProcessorImpl();
+
+        // Fail fast rather than measuring the error path
+        if (!BenchmarkTokens.TEST_USER.equals(processSignIn().getUsername())) {
+            throw new IllegalStateException("Unexpected principal");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fedContext.close();
+    }
+
+    @Benchmark
+    public FedizResponse processSignIn() throws Exception {
+        FedizRequest request = new FedizRequest();
+        request.setAction(FederationConstants.ACTION_SIGNIN);
+        request.setResponseToken(wresult);
+        return processor.processRequest(request, fedContext);
+    }
+
+}
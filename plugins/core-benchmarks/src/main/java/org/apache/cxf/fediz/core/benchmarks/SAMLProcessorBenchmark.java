@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler;
+import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.SAMLProtocol;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizRequest;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.cxf.fediz.core.processor.SAMLProcessorImpl;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the processing of a SAML-P Response by SAMLProcessorImpl, from the base64 encoded SAMLResponse
+ * parameter to the FedizResponse. The redirect binding deflates the Response, the POST binding does not.
+ * Run with "-prof gc" to get the allocation rate per operation (gc.alloc.rate.norm) next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SAMLProcessorBenchmark {
+
+    private static final String CONFIG_FILE = "fediz_test_config_saml.xml";
+
+    @Param({"redirect", "post"})
+    private String binding;
+
+    private FedizContext fedContext;
+    private FedizProcessor processor;
+    private HttpServletRequest servletRequest;
+    private RequestState requestState;
+    private String relayState;
+    private String samlResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        boolean post = "post".equals(binding);
+        fedContext = BenchmarkTokens.loadContext(CONFIG_FILE, "ROOT");
+        ((SAMLProtocol)fedContext.getProtocol()).setDisableDeflateEncoding(post);
+        processor = new SAMLProcessorImpl();
+
+        String requestId = UUID.randomUUID().toString();
+        relayState = UUID.randomUUID().toString();
+        requestState = new RequestState(BenchmarkTokens.TEST_REQUEST_URL,
+                                        BenchmarkTokens.TEST_IDP_ISSUER,
+                                        requestId,
+                                        BenchmarkTokens.TEST_REQUEST_URL,
+                                        (String)fedContext.getProtocol().getIssuer(),
+                                        null,
+                                        relayState,
+                                        System.currentTimeMillis());
+
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setAlsoAddAuthnStatement(true);
+        callbackHandler.setStatement(AbstractSAMLCallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        samlResponse = BenchmarkTokens.createSAMLResponse(callbackHandler, requestId, !post);
+        servletRequest = createServletRequest();
+
+        // Fail fast rather than measuring the error path
+        if (!BenchmarkTokens.TEST_USER.equals(processSignIn().getUsername())) {
+            throw new IllegalStateException("Unexpected principal");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fedContext.close();
+    }
+
+    @Benchmark
+    public FedizResponse processSignIn() throws Exception {
+        FedizRequest request = new FedizRequest();
+        request.setResponseToken(samlResponse);
+        request.setState(relayState);
+        request.setRequest(servletRequest);
+        request.setRequestState(requestState);
+        return processor.processRequest(request, fedContext);
+    }
+
+    /**
+     * A servlet request which only knows its URL and the client address, cheaper than a mock on the measured path
+     */
+    private static HttpServletRequest createServletRequest() {
+        return (HttpServletRequest)Proxy.newProxyInstance(
+            SAMLProcessorBenchmark.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getRequestURL":
+                    return new StringBuffer(BenchmarkTokens.TEST_REQUEST_URL);
+                case "getRemoteAddr":
+                    return BenchmarkTokens.TEST_CLIENT_ADDRESS;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.SAMLProtocol;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+import org.apache.cxf.fediz.core.processor.SAMLProcessorImpl;
+import org.apache.cxf.fediz.core.samlsso.DefaultSAMLPRequestBuilder;
+import org.apache.cxf.fediz.core.samlsso.TemplateSAMLPRequestBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the redirect of an unauthenticated request to the IdP by SAMLProcessorImpl, with the AuthnRequest
+ * written from a template or built and serialized with OpenSAML by the DefaultSAMLPRequestBuilder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SAMLSignInRequestBenchmark {
+
+    private static final String CONFIG_FILE = "fediz_test_config_saml.xml";
+
+    @Param({"template", "default"})
+    private String builder;
+
+    @Param({"ROOT", "SIGNED_ROOT"})
+    private String contextName;
+
+    private FedizContext fedContext;
+    private FedizProcessor processor;
+    private HttpServletRequest servletRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fedContext = BenchmarkTokens.loadContext(CONFIG_FILE, contextName);
+        ((SAMLProtocol)fedContext.getProtocol()).setSAMLPRequestBuilder(
+            "template".equals(builder) ? new TemplateSAMLPRequestBuilder() : new DefaultSAMLPRequestBuilder());
+        processor = new SAMLProcessorImpl();
+        servletRequest = createServletRequest();
+        createSignInRequest();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fedContext.close();
+    }
+
+    @Benchmark
+    public RedirectionResponse createSignInRequest() throws Exception {
+        return processor.createSignInRequest(servletRequest, fedContext);
+    }
+
+    private static HttpServletRequest createServletRequest() {
+        return (HttpServletRequest)Proxy.newProxyInstance(
+            SAMLSignInRequestBenchmark.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getRequestURL":
+                    return new StringBuffer(BenchmarkTokens.TEST_REQUEST_URL);
+                case "getContextPath":
+                case "getRequestURI":
+                    return "/fedizhelloworld";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+}
@@ -19,10 +19,15 @@
 
 package org.apache.cxf.fediz.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.security.Principal;
 
+import org.apache.cxf.fediz.core.util.CompactCodec;
+
 /**
  *
  */
@@ -31,14 +36,14 @@ public class Claim implements Serializable {
     /**
      *
      */
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private URI claimType;
-    private String issuer;
-    private String originalIssuer;
-    private Principal principal;
-    private Object value;
-    private URI namespace = ClaimTypes.URI_BASE;
+    private transient URI claimType;
+    private transient String issuer;
+    private transient String originalIssuer;
+    private transient Principal principal;
+    private transient Object value;
+    private transient URI namespace = ClaimTypes.URI_BASE;
 
     // To deprecate as ClaimType is fully qualified
     @Deprecated
@@ -91,4 +96,24 @@ public class Claim implements Serializable {
         return value;
     }
 
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        CompactCodec.Writer writer = CompactCodec.newWriter(stream);
+        writer.writeVersion();
+        writer.writeClaim(this);
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        CompactCodec.Reader reader = CompactCodec.newReader(stream);
+        reader.readVersion();
+        Claim claim = reader.readClaim();
+        claimType = claim.claimType;
+        issuer = claim.issuer;
+        originalIssuer = claim.originalIssuer;
+        principal = claim.principal;
+        value = claim.value;
+        namespace = claim.namespace;
+    }
+
 }
@@ -19,15 +19,30 @@
 
 package org.apache.cxf.fediz.core;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
-
+import org.apache.cxf.fediz.core.util.CompactCodec;
 
 /**
- * This class holds a immutable collection of Claims.
+ * This class holds a immutable collection of Claims. Besides the List contract it offers lookups by claim
+ * type, which are served from an index built on the first lookup. The claims must not be modified once they
+ * are in the collection. It is serialized in the compact format of {@link CompactCodec}.
  */
 public class ClaimCollection extends ArrayList<Claim> {
 
@@ -36,6 +51,22 @@ public class ClaimCollection extends ArrayList<Claim> {
      */
     private static final long serialVersionUID = 1L;
 
+    private static final int MAX_INTERNED_CLAIM_TYPES = 4096;
+    private static final ConcurrentMap<String, URI> CLAIM_TYPES = new ConcurrentHashMap<>();
+
+    static {
+        for (URI claimType : new URI[] {ClaimTypes.URI_BASE, ClaimTypes.FIRSTNAME, ClaimTypes.LASTNAME,
+                                        ClaimTypes.EMAILADDRESS, ClaimTypes.STREETADDRESS, ClaimTypes.LOCALITY,
+                                        ClaimTypes.STATE_PROVINCE, ClaimTypes.POSTALCODE, ClaimTypes.COUNTRY,
+                                        ClaimTypes.HOMEPHONE, ClaimTypes.OTHERPHONE, ClaimTypes.MOBILEPHONE,
+                                        ClaimTypes.DATEOFBIRTH, ClaimTypes.GENDER,
+                                        ClaimTypes.PRIVATE_PERSONAL_IDENTIFIER, ClaimTypes.WEB_PAGE}) {
+            CLAIM_TYPES.put(claimType.toString(), claimType);
+        }
+    }
+
+    private transient volatile Map<URI, ClaimTypeEntry> typeIndex;
+
     public ClaimCollection() {
         super();
     }
@@ -103,4 +134,199 @@ public class ClaimCollection extends ArrayList<Claim> {
         return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
     }
 
+    @Override
+    public boolean removeIf(Predicate<? super Claim> filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Claim> operator) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sort(Comparator<? super Claim> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the claims of the given type, in the order of the collection
+     */
+    public List<Claim> getClaims(URI claimType) {
+        ClaimTypeEntry entry = getIndex().get(claimType);
+        return entry == null ? Collections.<Claim>emptyList() : entry.claims;
+    }
+
+    /**
+     * @return the first claim of the given type, or null
+     */
+    public Claim getClaim(URI claimType) {
+        ClaimTypeEntry entry = getIndex().get(claimType);
+        return entry == null ? null : entry.claims.get(0);
+    }
+
+    public boolean containsClaimType(URI claimType) {
+        return getIndex().containsKey(claimType);
+    }
+
+    /**
+     * @return the values of all claims of the given type. A claim with a list of values contributes each value.
+     */
+    public List<Object> getValues(URI claimType) {
+        ClaimTypeEntry entry = getIndex().get(claimType);
+        return entry == null ? Collections.emptyList() : entry.values;
+    }
+
+    /**
+     * @return the values of all claims of the given type which are instances of the given class
+     */
+    public <T> List<T> getValues(URI claimType, Class<T> valueType) {
+        List<Object> values = getValues(claimType);
+        List<T> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (valueType.isInstance(value)) {
+                result.add(valueType.cast(value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first value of the claims of the given type, or null
+     */
+    public Object getFirstValue(URI claimType) {
+        List<Object> values = getValues(claimType);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return the first value of the claims of the given type, or null if there is none or it is not an
+     *         instance of the given class
+     */
+    public <T> T getFirstValue(URI claimType, Class<T> valueType) {
+        Object value = getFirstValue(claimType);
+        return valueType.isInstance(value) ? valueType.cast(value) : null;
+    }
+
+    /**
+     * @return whether one of the claims of the given type has the given value
+     */
+    public boolean hasValue(URI claimType, Object value) {
+        return getValues(claimType).contains(value);
+    }
+
+    /**
+     * Return a shared instance of the claim type, so that the claim types of all principals are held in memory
+     * only once and compare by identity. The number of shared instances is bounded, beyond that a new URI is
+     * returned.
+     *
+     * @throws IllegalArgumentException if the claim type is not a valid URI
+     */
+    public static URI internClaimType(String claimType) {
+        URI uri = CLAIM_TYPES.get(claimType);
+        if (uri == null) {
+            uri = URI.create(claimType);
+            if (CLAIM_TYPES.size() < MAX_INTERNED_CLAIM_TYPES) {
+                URI existing = CLAIM_TYPES.putIfAbsent(claimType, uri);
+                if (existing != null) {
+                    uri = existing;
+                }
+            }
+        }
+        return uri;
+    }
+
+    public static URI internClaimType(URI claimType) {
+        if (claimType == null) {
+            return null;
+        }
+        URI uri = CLAIM_TYPES.get(claimType.toString());
+        return uri != null ? uri : claimType;
+    }
+
+    private Map<URI, ClaimTypeEntry> getIndex() {
+        Map<URI, ClaimTypeEntry> result = typeIndex;
+        if (result == null) {
+            result = new HashMap<>();
+            for (Claim claim : this) {
+                URI claimType = claim.getClaimType();
+                if (claimType != null) {
+                    result.computeIfAbsent(claimType, t -> new ClaimTypeEntry()).add(claim);
+                }
+            }
+            for (ClaimTypeEntry entry : result.values()) {
+                entry.seal();
+            }
+            typeIndex = result;
+        }
+        return result;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    /**
+     * The serialized form of a ClaimCollection, which replaces the ArrayList serialization
+     */
+    static final class SerializedForm implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private List<Claim> claims;
+
+        // CHECKSTYLE:OFF
+        public SerializedForm() {
+            // Externalizable needs a public constructor
+        }
+        // CHECKSTYLE:ON
+
+        SerializedForm(List<Claim> claims) {
+            this.claims = claims;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            CompactCodec.Writer writer = CompactCodec.newWriter(out);
+            writer.writeVersion();
+            writer.writeClaims(claims);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            CompactCodec.Reader reader = CompactCodec.newReader(in);
+            reader.readVersion();
+            claims = reader.readClaims();
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return claims == null ? new ClaimCollection() : new ClaimCollection(claims);
+        }
+    }
+
+    private static final class ClaimTypeEntry {
+        private List<Claim> claims = new ArrayList<>(1);
+        private List<Object> values = new ArrayList<>(1);
+
+        void add(Claim claim) {
+            claims.add(claim);
+            Object value = claim.getValue();
+            if (value instanceof Collection<?>) {
+                values.addAll((Collection<?>)value);
+            } else if (value != null) {
+                values.add(value);
+            }
+        }
+
+        void seal() {
+            claims = Collections.unmodifiableList(claims);
+            values = Collections.unmodifiableList(values);
+        }
+    }
+
 }
@@ -19,6 +19,8 @@
 
 package org.apache.cxf.fediz.core;
 
+import java.util.function.Supplier;
+
 import org.w3c.dom.Element;
 
 
@@ -27,8 +29,8 @@ import org.w3c.dom.Element;
  */
 public final class SecurityTokenThreadLocal {
 
-    private static final ThreadLocal<Element> TLS =
-        new ThreadLocal<Element>();
+    private static final ThreadLocal<TokenHolder> TLS =
+        new ThreadLocal<TokenHolder>();
 
     private SecurityTokenThreadLocal() {
     }
@@ -37,12 +39,43 @@ public final class SecurityTokenThreadLocal {
         if (token == null) {
             TLS.remove();
         } else {
-            TLS.set(token);
+            TLS.set(new TokenHolder(() -> token));
+        }
+    }
+
+    /**
+     * Set a supplier for the security token, which is only asked for the token when getToken is called.
+     * This avoids creating the DOM token for requests which never use it. The supplier is called at most
+     * once, further calls of getToken return the same token.
+     */
+    public static void setTokenSupplier(Supplier<Element> tokenSupplier) {
+        if (tokenSupplier == null) {
+            TLS.remove();
+        } else {
+            TLS.set(new TokenHolder(tokenSupplier));
         }
     }
 
     public static Element getToken() {
-        return TLS.get();
+        TokenHolder holder = TLS.get();
+        return holder == null ? null : holder.getToken();
+    }
+
+    private static final class TokenHolder {
+        private Supplier<Element> tokenSupplier;
+        private Element token;
+
+        TokenHolder(Supplier<Element> tokenSupplier) {
+            this.tokenSupplier = tokenSupplier;
+        }
+
+        Element getToken() {
+            if (tokenSupplier != null) {
+                token = tokenSupplier.get();
+                tokenSupplier = null;
+            }
+            return token;
+        }
     }
 
 
@@ -0,0 +1,496 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ReplayCache which is shared by all JVMs on a host through a memory-mapped file, so that a token replayed
+ * to a sibling JVM behind a local balancer is detected as well.
+ *
+ * The file holds an open-addressed hash table of fixed size. A slot holds a 128 bit SHA-256 fingerprint of
+ * the identifier and its expiry time. The table is split into regions, an identifier is only ever stored in
+ * its home region. A region is guarded by a lock of the JVM and a lock on its byte range of the file, the
+ * latter excludes the other JVMs. Slots of expired identifiers are reused, and a region with long probe
+ * sequences is compacted. When a region is full, the identifier which expires first is evicted.
+ *
+ * Select it with the tokenReplayCache element of the context configuration:
+ * <pre>
+ * &lt;tokenReplayCache&gt;org.apache.cxf.fediz.core.cache.MappedReplayCache&lt;/tokenReplayCache&gt;
+ * </pre>
+ * The file must be given with the system property {@value #FILE_PROPERTY}, there is no default. It should be
+ * placed in a directory only the servlet containers can write to. An existing file is only used if it is a
+ * regular file owned by the user of the JVM, which the group and other users cannot write to. The number of
+ * slots is given with {@value #SLOTS_PROPERTY}, rounded up to a power of two, and is fixed by the JVM which
+ * creates the file. A slot holds one identifier, but as the table is open-addressed it should have room to
+ * spare. All instances in a JVM which use the same file, also through another path to it, share it.
+ */
+public class MappedReplayCache implements ReplayCache {
+
+    public static final String FILE_PROPERTY = "org.apache.cxf.fediz.replayCache.file";
+    public static final String SLOTS_PROPERTY = "org.apache.cxf.fediz.replayCache.slots";
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedReplayCache.class);
+
+    private static final int MAGIC = 0x46444352;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 24;
+    private static final int MIN_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 26;
+    private static final int MAX_REGIONS = 256;
+    private static final int SLOTS_PER_REGION = 64;
+    private static final int COMPACTION_THRESHOLD = 16;
+
+    private static final Map<File, Table> TABLES = new HashMap<>();
+
+    private final Table table;
+    private final LongSupplier clock;
+    private volatile boolean closed;
+
+    public MappedReplayCache() {
+        this(getConfiguredFile(), Integer.getInteger(SLOTS_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    public MappedReplayCache(File file, int capacity) {
+        this(file, capacity, System::currentTimeMillis);
+    }
+
+    MappedReplayCache(File file, int capacity, LongSupplier clock) {
+        this.table = Table.acquire(file, capacity);
+        this.clock = clock;
+    }
+
+    private static File getConfiguredFile() {
+        String file = System.getProperty(FILE_PROPERTY);
+        if (file == null || file.isEmpty()) {
+            throw new IllegalStateException("The replay cache file must be set with the system property "
+                + FILE_PROPERTY);
+        }
+        return new File(file);
+    }
+
+    @Override
+    public void add(String identifier) {
+        add(identifier, StripedReplayCache.DEFAULT_TTL);
+    }
+
+    @Override
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || identifier.isEmpty() || closed) {
+            return;
+        }
+        long ttl = timeToLive;
+        if (ttl <= 0 || ttl > StripedReplayCache.MAX_TTL) {
+            ttl = StripedReplayCache.DEFAULT_TTL;
+        }
+        long now = clock.getAsLong();
+        table.add(fingerprint(identifier), now + ttl * 1000L, now);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        if (identifier == null || identifier.isEmpty() || closed) {
+            return false;
+        }
+        return table.contains(fingerprint(identifier), clock.getAsLong());
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            table.release();
+        }
+    }
+
+    /**
+     * @return the number of slots of the shared table
+     */
+    public int getCapacity() {
+        return table.slots;
+    }
+
+    /**
+     * @return the number of identifiers in the shared table which did not expire yet. This locks and reads the
+     *         whole table.
+     */
+    public int size() {
+        return table.size(clock.getAsLong());
+    }
+
+    /**
+     * @return the number of identifiers this JVM evicted before their time to live was over, because their
+     *         region of the table was full
+     */
+    public long getEvictionCount() {
+        return table.evictions.sum();
+    }
+
+    private static long[] fingerprint(String identifier) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(identifier.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        long h1 = buffer.getLong();
+        long h2 = buffer.getLong();
+        if (h1 == 0L && h2 == 0L) {
+            // (0, 0) marks an empty slot
+            h1 = 1L;
+        }
+        return new long[] {h1, h2};
+    }
+
+    /**
+     * The mapped table of a file, shared by all instances of a JVM which use that file. File locks are held on
+     * behalf of the whole JVM, so the instances have to share the JVM locks of the regions as well.
+     */
+    private static final class Table {
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int slots;
+        private final int regionSize;
+        private final int regionMask;
+        private final Object[] monitors;
+        private final LongAdder evictions = new LongAdder();
+        private int references;
+
+        private Table(File file, FileChannel channel, int slots) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            this.slots = slots;
+            int regions = Math.min(MAX_REGIONS, slots / SLOTS_PER_REGION);
+            this.regionSize = slots / regions;
+            this.regionMask = regions - 1;
+            this.monitors = new Object[regions];
+            for (int i = 0; i < regions; i++) {
+                monitors[i] = new Object();
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * SLOT_SIZE);
+        }
+
+        static Table acquire(File file, int capacity) {
+            File key;
+            try {
+                // Symbolic links and relative segments must lead to the same table
+                key = file.getCanonicalFile();
+            } catch (IOException e) {
+                LOG.error("Failed to resolve the replay cache file '" + file + "'", e);
+                throw new IllegalStateException("Failed to resolve the replay cache file '" + file + "'", e);
+            }
+            synchronized (TABLES) {
+                Table table = TABLES.get(key);
+                if (table == null) {
+                    try {
+                        table = open(key, capacity);
+                    } catch (IOException e) {
+                        LOG.error("Failed to open the replay cache file '" + key + "'", e);
+                        throw new IllegalStateException("Failed to open the replay cache file '" + key + "'", e);
+                    }
+                    TABLES.put(key, table);
+                }
+                table.references++;
+                return table;
+            }
+        }
+
+        void release() {
+            synchronized (TABLES) {
+                if (--references == 0) {
+                    TABLES.remove(file);
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        LOG.warn("Failed to close the replay cache file '" + file + "'", e);
+                    }
+                }
+            }
+        }
+
+        private static Table open(File file, int capacity) throws IOException {
+            Path path = file.toPath();
+            try {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+            } catch (FileAlreadyExistsException e) {
+                // Created by another JVM, or by someone else
+            } catch (UnsupportedOperationException e) {
+                Files.createFile(path);
+            }
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                   LinkOption.NOFOLLOW_LINKS);
+            try {
+                checkFile(path);
+                int slots;
+                // The first JVM writes the header, the others read the size of the table from it
+                try (FileLock lock = channel.lock(0, HEADER_SIZE, false)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    if (channel.size() >= HEADER_SIZE) {
+                        channel.read(header, 0);
+                    }
+                    header.flip();
+                    if (header.remaining() == HEADER_SIZE && header.getInt(0) == MAGIC) {
+                        if (header.getInt(4) != VERSION) {
+                            throw new IOException("Unsupported replay cache file version " + header.getInt(4));
+                        }
+                        slots = header.getInt(8);
+                        if (slots < MIN_SLOTS || slots > MAX_SLOTS || Integer.bitCount(slots) != 1) {
+                            throw new IOException("Corrupt replay cache file header");
+                        }
+                    } else {
+                        slots = Integer.highestOneBit(
+                            Math.max(MIN_SLOTS, Math.min(MAX_SLOTS, capacity)) * 2 - 1);
+                        createTable(channel, slots);
+                    }
+                }
+                return new Table(file, channel, slots);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Another user who can write to the file could remove identifiers to allow replays, or fill the table
+         * to force evictions. So the file must belong to the user of this JVM and must not be writable by others.
+         */
+        private static void checkFile(Path path) throws IOException {
+            if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException("The replay cache file is not a regular file");
+            }
+            UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!owner.equals(user)) {
+                throw new IOException("The replay cache file is owned by " + owner.getName()
+                    + ", not by " + user.getName());
+            }
+            PosixFileAttributeView view =
+                Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+            if (view != null) {
+                Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                    || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    throw new IOException("The replay cache file is writable by other users: "
+                        + PosixFilePermissions.toString(permissions));
+                }
+            }
+        }
+
+        private static void createTable(FileChannel channel, int slots) throws IOException {
+            long size = HEADER_SIZE + (long)slots * SLOT_SIZE;
+            channel.truncate(HEADER_SIZE);
+            // Extend the file with zeros, which are empty slots
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, slots);
+            header.rewind();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        boolean contains(long[] fingerprint, long now) {
+            int region = region(fingerprint);
+            synchronized (monitors[region]) {
+                try (FileLock lock = lockRegion(region)) {
+                    int base = region * regionSize;
+                    int home = home(fingerprint);
+                    for (int i = 0; i < regionSize; i++) {
+                        int offset = offset(base + ((home + i) & (regionSize - 1)));
+                        long h1 = buffer.getLong(offset);
+                        long h2 = buffer.getLong(offset + 8);
+                        if (h1 == 0L && h2 == 0L) {
+                            return false;
+                        }
+                        if (h1 == fingerprint[0] && h2 == fingerprint[1]) {
+                            return buffer.getLong(offset + 16) > now;
+                        }
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw failure(e);
+                }
+            }
+        }
+
+        void add(long[] fingerprint, long expiresAt, long now) {
+            int region = region(fingerprint);
+            synchronized (monitors[region]) {
+                try (FileLock lock = lockRegion(region)) {
+                    if (put(region, fingerprint[0], fingerprint[1], expiresAt, now) > COMPACTION_THRESHOLD) {
+                        compact(region, now);
+                    }
+                } catch (IOException e) {
+                    throw failure(e);
+                }
+            }
+        }
+
+        int size(long now) {
+            int size = 0;
+            for (int region = 0; region < monitors.length; region++) {
+                synchronized (monitors[region]) {
+                    try (FileLock lock = lockRegion(region)) {
+                        int base = region * regionSize;
+                        for (int i = 0; i < regionSize; i++) {
+                            int offset = offset(base + i);
+                            if (buffer.getLong(offset + 16) > now) {
+                                size++;
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw failure(e);
+                    }
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Store the fingerprint in the region, the caller holds the locks.
+         *
+         * @return the number of slots of expired identifiers which were probed
+         */
+        private int put(int region, long h1, long h2, long expiresAt, long now) {
+            int base = region * regionSize;
+            int home = (int)h2 & (regionSize - 1);
+            int free = -1;
+            int earliest = -1;
+            long earliestExpiry = Long.MAX_VALUE;
+            int expired = 0;
+            for (int probes = 0; probes < regionSize; probes++) {
+                int offset = offset(base + ((home + probes) & (regionSize - 1)));
+                long slotH1 = buffer.getLong(offset);
+                long slotH2 = buffer.getLong(offset + 8);
+                if (slotH1 == 0L && slotH2 == 0L) {
+                    if (free < 0) {
+                        free = offset;
+                    }
+                    break;
+                }
+                long expiry = buffer.getLong(offset + 16);
+                if (slotH1 == h1 && slotH2 == h2) {
+                    buffer.putLong(offset + 16, expiresAt);
+                    return expired;
+                }
+                if (expiry <= now) {
+                    expired++;
+                    if (free < 0) {
+                        // Reuse the slot, but keep on looking for the identifier
+                        free = offset;
+                    }
+                }
+                if (expiry < earliestExpiry) {
+                    earliestExpiry = expiry;
+                    earliest = offset;
+                }
+            }
+            if (free < 0) {
+                free = earliest;
+                evictions.increment();
+            }
+            buffer.putLong(free, h1);
+            buffer.putLong(free + 8, h2);
+            buffer.putLong(free + 16, expiresAt);
+            return expired;
+        }
+
+        /**
+         * Drop the expired identifiers of the region and store the others again, to shorten the probe sequences
+         * which run over their slots.
+         */
+        private void compact(int region, long now) {
+            int base = region * regionSize;
+            long[] live = new long[regionSize * 3];
+            int count = 0;
+            for (int i = 0; i < regionSize; i++) {
+                int offset = offset(base + i);
+                long expiry = buffer.getLong(offset + 16);
+                if (expiry > now) {
+                    live[count++] = buffer.getLong(offset);
+                    live[count++] = buffer.getLong(offset + 8);
+                    live[count++] = expiry;
+                }
+                buffer.putLong(offset, 0L);
+                buffer.putLong(offset + 8, 0L);
+                buffer.putLong(offset + 16, 0L);
+            }
+            for (int i = 0; i < count; i += 3) {
+                put(region, live[i], live[i + 1], live[i + 2], now);
+            }
+        }
+
+        private FileLock lockRegion(int region) throws IOException {
+            return channel.lock(offset(region * regionSize), (long)regionSize * SLOT_SIZE, false);
+        }
+
+        private int region(long[] fingerprint) {
+            return (int)(fingerprint[0] >>> 32) & regionMask;
+        }
+
+        private int home(long[] fingerprint) {
+            return (int)fingerprint[1] & (regionSize - 1);
+        }
+
+        private static int offset(int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE;
+        }
+
+        private IllegalStateException failure(IOException e) {
+            LOG.error("Failed to lock the replay cache file '" + file + "'", e);
+            return new IllegalStateException("Failed to lock the replay cache file '" + file + "'", e);
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.wss4j.common.cache.ReplayCache;
+
+/**
+ * An in-memory ReplayCache for high sign-in rates. The identifiers are spread over independently locked
+ * stripes, each with a hierarchical timer wheel which drops the identifiers once their time to live is over.
+ * The number of identifiers is bounded, when a stripe is full its oldest identifier is evicted.
+ *
+ * Select it with the tokenReplayCache element of the context configuration:
+ * <pre>
+ * &lt;tokenReplayCache&gt;org.apache.cxf.fediz.core.cache.StripedReplayCache&lt;/tokenReplayCache&gt;
+ * </pre>
+ * The capacity defaults to {@value #DEFAULT_CAPACITY} identifiers and can be changed with the system property
+ * {@value #CAPACITY_PROPERTY}, or by a subclass which calls {@link #StripedReplayCache(int)}.
+ *
+ * The time to live of an identifier follows the EHCache based ReplayCache of WSS4J: one hour if none or an
+ * invalid one is given, at most twelve hours.
+ */
+public class StripedReplayCache implements ReplayCache {
+
+    public static final String CAPACITY_PROPERTY = "org.apache.cxf.fediz.replayCache.capacity";
+    public static final int DEFAULT_CAPACITY = 250000;
+    public static final long DEFAULT_TTL = 3600L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+
+    private static final long TICK_MILLIS = 1000L;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int capacity;
+    private final LongSupplier clock;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public StripedReplayCache() {
+        this(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    public StripedReplayCache(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 4, System::currentTimeMillis);
+    }
+
+    StripedReplayCache(int capacity, int concurrency, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, capacity)) * 2 - 1);
+        this.capacity = capacity;
+        this.clock = clock;
+        this.mask = stripeCount - 1;
+        this.stripes = new Stripe[stripeCount];
+        long now = clock.getAsLong();
+        int stripeCapacity = (capacity + stripeCount - 1) / stripeCount;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(stripeCapacity, now);
+        }
+    }
+
+    @Override
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    @Override
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || identifier.isEmpty()) {
+            return;
+        }
+        long ttl = timeToLive;
+        if (ttl <= 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+        long now = clock.getAsLong();
+        stripeFor(identifier).add(identifier, now, now + ttl * 1000L);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        if (identifier == null || identifier.isEmpty()) {
+            return false;
+        }
+        return stripeFor(identifier).contains(identifier, clock.getAsLong());
+    }
+
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * @return the number of identifiers in the cache, including expired ones which were not dropped yet
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of identifiers which were evicted before their time to live was over, because the
+     *         cache was full. If this grows, the capacity is too small to protect against replays.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of identifiers which were dropped after their time to live was over
+     */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private Stripe stripeFor(String identifier) {
+        int h = identifier.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    private final class Stripe {
+        private final int stripeCapacity;
+        private final Map<String, TimerWheel.Node<String>> entries;
+        private final TimerWheel<String> wheel;
+
+        Stripe(int stripeCapacity, long now) {
+            this.stripeCapacity = stripeCapacity;
+            this.entries = new LinkedHashMap<>(Math.min(stripeCapacity, 1024));
+            this.wheel = new TimerWheel<>(TICK_MILLIS, now);
+        }
+
+        synchronized void add(String identifier, long now, long expiresAt) {
+            expire(now);
+            TimerWheel.Node<String> old = entries.remove(identifier);
+            if (old != null) {
+                wheel.cancel(old);
+            }
+            entries.put(identifier, wheel.schedule(identifier, expiresAt));
+            if (entries.size() > stripeCapacity) {
+                Iterator<TimerWheel.Node<String>> it = entries.values().iterator();
+                wheel.cancel(it.next());
+                it.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized boolean contains(String identifier, long now) {
+            expire(now);
+            return entries.containsKey(identifier);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            wheel.clear();
+        }
+
+        private void expire(long now) {
+            wheel.advance(now, identifier -> {
+                entries.remove(identifier);
+                expirations.increment();
+            });
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel which expires values in (amortised) constant time per value. It has four levels
+ * of 64 slots, the first level holds the values which expire within 64 ticks, the second within 64^2 ticks
+ * and so on. Values of the upper levels are moved down a level as the wheel turns.
+ *
+ * The wheel has no thread of its own, it turns whenever {@link #advance(long, Consumer)} is called. It is
+ * not thread-safe, callers have to guard it with their own lock.
+ *
+ * @param <T> the type of the scheduled values
+ */
+public final class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Node<T>[][] wheel;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        this.wheel = new Node[LEVELS][SLOTS];
+    }
+
+    /**
+     * Schedule the value to expire at the given time. A time in the past expires it on the next tick.
+     *
+     * @return the node, to cancel the expiry with
+     */
+    public Node<T> schedule(T value, long expiresAtMillis) {
+        // Round up, a value never expires early
+        long expiryTick = (expiresAtMillis + tickMillis - 1) / tickMillis;
+        Node<T> node = new Node<>(value, Math.max(expiryTick, currentTick + 1));
+        insert(node);
+        size++;
+        return node;
+    }
+
+    /**
+     * Remove the node from the wheel, it does not expire any more.
+     */
+    public void cancel(Node<T> node) {
+        if (node.slot != null) {
+            unlink(node);
+            size--;
+        }
+    }
+
+    /**
+     * Turn the wheel up to the given time and hand all values which expired to the consumer.
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMillis;
+        if (targetTick - currentTick >= SLOTS * SLOTS) {
+            // Idle for a long time, cheaper to sort all values again than to turn the wheel tick by tick
+            rebuild(targetTick, expired);
+            return;
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            long tick = currentTick;
+            for (int level = 1; level < LEVELS && (tick & SLOT_MASK) == 0; level++) {
+                tick >>>= SLOT_BITS;
+                cascade(level, (int)(tick & SLOT_MASK), expired);
+            }
+            // Values beyond the span of the wheel can be in the slot before they are due, these are re-inserted
+            cascade(0, (int)(currentTick & SLOT_MASK), expired);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (Node<T>[] slots : wheel) {
+            for (int i = 0; i < SLOTS; i++) {
+                for (Node<T> node = slots[i]; node != null; node = node.next) {
+                    node.slot = null;
+                }
+                slots[i] = null;
+            }
+        }
+        size = 0;
+    }
+
+    private void insert(Node<T> node) {
+        long delta = node.expiryTick - currentTick;
+        long tick = delta < SPAN ? node.expiryTick : currentTick + SPAN - 1;
+        int level = 0;
+        for (long d = Math.min(delta, SPAN - 1); d >= SLOTS; d >>>= SLOT_BITS) {
+            level++;
+        }
+        int index = (int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Node<T>[] slots = wheel[level];
+        node.slot = slots;
+        node.index = index;
+        node.prev = null;
+        node.next = slots[index];
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        slots[index] = node;
+    }
+
+    private void unlink(Node<T> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            node.slot[node.index] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.slot = null;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private void cascade(int level, int index, Consumer<T> expired) {
+        Node<T> node = wheel[level][index];
+        wheel[level][index] = null;
+        while (node != null) {
+            Node<T> next = node.next;
+            node.slot = null;
+            node.prev = null;
+            node.next = null;
+            if (node.expiryTick <= currentTick) {
+                size--;
+                expired.accept(node.value);
+            } else {
+                insert(node);
+            }
+            node = next;
+        }
+    }
+
+    private void rebuild(long targetTick, Consumer<T> expired) {
+        List<Node<T>> nodes = new ArrayList<>(size);
+        for (Node<T>[] slots : wheel) {
+            for (int i = 0; i < SLOTS; i++) {
+                for (Node<T> node = slots[i]; node != null; node = node.next) {
+                    nodes.add(node);
+                }
+                slots[i] = null;
+            }
+        }
+        currentTick = targetTick;
+        for (Node<T> node : nodes) {
+            node.slot = null;
+            node.prev = null;
+            node.next = null;
+            if (node.expiryTick <= currentTick) {
+                size--;
+                expired.accept(node.value);
+            } else {
+                insert(node);
+            }
+        }
+    }
+
+    /**
+     * A scheduled value
+     */
+    public static final class Node<T> {
+        private final T value;
+        private final long expiryTick;
+        private Node<T>[] slot;
+        private int index;
+        private Node<T> prev;
+        private Node<T> next;
+
+        private Node(T value, long expiryTick) {
+            this.value = value;
+            this.expiryTick = expiryTick;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public boolean isScheduled() {
+            return slot != null;
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.apache.cxf.fediz.core.saml.TrustDecisionCache;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process wide cache of the keystores loaded by the FedizContexts. Contexts which refer to the same keystore
+ * share one Crypto instance. A keystore is identified by its canonical path (or resource URL), its type, a digest
+ * of its password and a digest of its content, so a modified keystore is loaded again. The instances are reference
+ * counted and dropped once the last context using them has released them. The trust decisions cached against a
+ * Crypto instance are dropped together with it, or as soon as its keystore file is found to be modified.
+ */
+public final class CryptoCache {
+
+    public static final long DEFAULT_CHECK_INTERVAL = 10000L;
+
+    static final String KEYSTORE_FILE = "org.apache.ws.security.crypto.merlin.keystore.file";
+    static final String KEYSTORE_TYPE = "org.apache.ws.security.crypto.merlin.keystore.type";
+    static final String KEYSTORE_PASSWORD = "org.apache.ws.security.crypto.merlin.keystore.password";
+
+    private static final Logger LOG = LoggerFactory.getLogger(CryptoCache.class);
+
+    private static final CryptoCache INSTANCE = new CryptoCache();
+
+    private final Map<Key, CachedCrypto> cryptos = new HashMap<>();
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    CryptoCache() {
+    }
+
+    /**
+     * @return the cache shared by all contexts of this classloader
+     */
+    public static CryptoCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a shared Crypto instance for the given Merlin properties, loading the keystore if it is not cached.
+     * Every call must be paired with a call to {@link #release(CachedCrypto)}.
+     */
+    public CachedCrypto acquire(Properties properties) throws WSSecurityException {
+        String location = properties.getProperty(KEYSTORE_FILE);
+        File file = location != null ? new File(location) : null;
+        URL url = null;
+        if (file == null || !file.isFile()) {
+            file = null;
+            url = location != null ? Loader.getResource(location) : null;
+        }
+
+        Key key;
+        try {
+            key = file != null
+                ? new Key(file.getCanonicalPath(), properties, Files.readAllBytes(file.toPath()))
+                : url != null ? new Key(url.toString(), properties, readAll(url)) : null;
+        } catch (IOException ex) {
+            LOG.debug("Failed to read keystore '{}': {}", location, ex.getMessage());
+            key = null;
+        }
+        if (key == null) {
+            // Not a keystore we can identify, let WSS4J deal with it
+            return new CachedCrypto(null, CryptoFactory.getInstance(properties), null);
+        }
+
+        synchronized (this) {
+            CachedCrypto cached = cryptos.get(key);
+            if (cached == null) {
+                LOG.debug("Loading keystore '{}'", key.location);
+                cached = new CachedCrypto(key, CryptoFactory.getInstance(properties), file);
+                cryptos.put(key, cached);
+            }
+            cached.references++;
+            return cached;
+        }
+    }
+
+    /**
+     * Release a Crypto instance obtained from {@link #acquire(Properties)}.
+     */
+    public void release(CachedCrypto cached) {
+        synchronized (this) {
+            if (cached.key != null) {
+                if (cached.references <= 0) {
+                    return;
+                }
+                cached.references--;
+                if (cached.references > 0) {
+                    return;
+                }
+                if (cryptos.get(cached.key) == cached) {
+                    cryptos.remove(cached.key);
+                }
+            }
+        }
+        TrustDecisionCache.getInstance().invalidate(cached.crypto);
+    }
+
+    /**
+     * @return the number of distinct keystores in use
+     */
+    public synchronized int size() {
+        return cryptos.size();
+    }
+
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * Set the minimum interval in milliseconds between two checks whether a keystore file has been modified.
+     * The default is 10 seconds.
+     */
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    private static byte[] readAll(URL url) throws IOException {
+        try (InputStream is = url.openStream()) {
+            byte[] buffer = new byte[4096];
+            int count = 0;
+            int read;
+            while ((read = is.read(buffer, count, buffer.length - count)) != -1) {
+                count += read;
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return Arrays.copyOf(buffer, count);
+        }
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Failed to compute keystore digest", ex);
+        }
+    }
+
+    /**
+     * A shared Crypto instance together with the state needed to detect the modification of its keystore file.
+     */
+    public final class CachedCrypto {
+
+        private final Key key;
+        private final Crypto crypto;
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private volatile long nextCheck;
+        private volatile boolean modified;
+        private int references;
+
+        CachedCrypto(Key key, Crypto crypto, File file) {
+            this.key = key;
+            this.crypto = crypto;
+            this.file = file;
+            this.lastModified = file != null ? file.lastModified() : 0L;
+            this.length = file != null ? file.length() : 0L;
+            this.nextCheck = System.currentTimeMillis() + checkInterval;
+        }
+
+        public Crypto getCrypto() {
+            return crypto;
+        }
+
+        /**
+         * Check whether the keystore file has been modified since it was loaded. The file is looked at
+         * no more than once per check interval. Keystores loaded from the classpath are never reported
+         * as modified.
+         */
+        public boolean isModified() {
+            if (modified || file == null) {
+                return modified;
+            }
+            long now = System.currentTimeMillis();
+            if (now < nextCheck) {
+                return false;
+            }
+            nextCheck = now + checkInterval;
+            if (file.lastModified() != lastModified || file.length() != length) {
+                LOG.info("Keystore '{}' has been modified", file);
+                modified = true;
+                TrustDecisionCache.getInstance().invalidate(crypto);
+            }
+            return modified;
+        }
+    }
+
+    private static final class Key {
+
+        private final String location;
+        private final String type;
+        private final byte[] passwordDigest;
+        private final byte[] contentDigest;
+        private final int hashCode;
+
+        Key(String location, Properties properties, byte[] content) {
+            this.location = location;
+            this.type = properties.getProperty(KEYSTORE_TYPE);
+            String password = properties.getProperty(KEYSTORE_PASSWORD, "");
+            this.passwordDigest = digest(password.getBytes(StandardCharsets.UTF_8));
+            this.contentDigest = digest(content);
+            this.hashCode = Objects.hash(location, type) * 31 + Arrays.hashCode(contentDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)obj;
+            return location.equals(that.location)
+                && Objects.equals(type, that.type)
+                && Arrays.equals(passwordDigest, that.passwordDigest)
+                && Arrays.equals(contentDigest, that.contentDigest);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.w3c.dom.Element;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.processor.EncryptedDataProcessor;
+import org.apache.wss4j.dom.processor.Processor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decrypts the encrypted tokens of a context. Everything which does not depend on the token is prepared once
+ * per decryption key rather than once per token: the WSSConfig, which leaves the processing of the decrypted
+ * SAML token to the token validators, is built and the private keys are unwrapped with the key password only
+ * the first time they are used. The private key of the configured (or only) alias is resolved right away.
+ * An engine is shared by all requests of the context. The {@link FedizContext} builds a new one when the
+ * decryption keystore has been reloaded.
+ */
+public final class DecryptionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DecryptionEngine.class);
+
+    private static final Processor NOOP_PROCESSOR = (elem, data) -> Collections.emptyList();
+
+    final KeyManager sourceKeyManager;
+
+    private final WSSConfig wssConfig;
+    private final Crypto crypto;
+    private final CallbackHandler callbackHandler;
+
+    DecryptionEngine(KeyManager keyManager) {
+        this.sourceKeyManager = keyManager;
+
+        // Disable WSS4J processing of the (decrypted) SAML Token
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setProcessor(WSConstants.SAML_TOKEN, NOOP_PROCESSOR);
+        config.setProcessor(WSConstants.SAML2_TOKEN, NOOP_PROCESSOR);
+        this.wssConfig = config;
+
+        this.callbackHandler = new DecryptionCallbackHandler(keyManager.getKeyPassword());
+        this.crypto = createCrypto(keyManager, callbackHandler);
+    }
+
+    /**
+     * Decrypt the given xenc:EncryptedData element in place
+     *
+     * @return the results of the WSS4J EncryptedDataProcessor
+     */
+    public List<WSSecurityEngineResult> decrypt(Element encryptedData) throws WSSecurityException {
+        RequestData data = new RequestData();
+        data.setWsDocInfo(new WSDocInfo(encryptedData.getOwnerDocument()));
+        data.setWssConfig(wssConfig);
+        data.setDecCrypto(crypto);
+        data.setCallbackHandler(callbackHandler);
+        return new EncryptedDataProcessor().handleToken(encryptedData, data);
+    }
+
+    /**
+     * @return the number of private keys held by this engine. Without a Merlin keystore no private key is
+     *         held, and WSS4J reads it from the keystore for every token.
+     */
+    public int getPrivateKeyCount() {
+        return crypto instanceof KeyCachingMerlin ? ((KeyCachingMerlin)crypto).privateKeys.size() : 0;
+    }
+
+    private static Crypto createCrypto(KeyManager keyManager, CallbackHandler callbackHandler) {
+        Crypto crypto = keyManager.getCrypto();
+        if (!(crypto instanceof Merlin)) {
+            return crypto;
+        }
+        KeyCachingMerlin keyCachingCrypto;
+        String alias = keyManager.getKeyAlias();
+        try {
+            keyCachingCrypto = new KeyCachingMerlin((Merlin)crypto);
+            if (alias == null) {
+                alias = crypto.getDefaultX509Identifier();
+            }
+        } catch (WSSecurityException ex) {
+            LOG.debug("Failed to copy keystore '{}': {}", keyManager.getName(), ex.getMessage());
+            return crypto;
+        }
+        if (alias != null) {
+            try {
+                CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+                cryptoType.setAlias(alias);
+                X509Certificate[] certs = crypto.getX509Certificates(cryptoType);
+                if (certs != null && certs.length > 0) {
+                    keyCachingCrypto.getPrivateKey(certs[0], callbackHandler);
+                }
+            } catch (WSSecurityException ex) {
+                // Fails again with the first token which needs the key
+                LOG.warn("Failed to resolve decryption key '" + alias + "' of keystore '" + keyManager.getName()
+                         + "': " + ex.getMessage());
+            }
+        }
+        return keyCachingCrypto;
+    }
+
+    /**
+     * A view of a Merlin keystore which reads and unwraps the private key of a certificate only once
+     */
+    private static final class KeyCachingMerlin extends Merlin {
+
+        private final Map<X509Certificate, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+
+        KeyCachingMerlin(Merlin source) throws WSSecurityException {
+            setKeyStore(source.getKeyStore());
+            setTrustStore(source.getTrustStore());
+            setCRLCertStore(source.getCRLCertStore());
+            setCryptoProvider(source.getCryptoProvider());
+            setDefaultX509Identifier(source.getDefaultX509Identifier());
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(X509Certificate certificate, CallbackHandler handler)
+            throws WSSecurityException {
+            PrivateKey privateKey = privateKeys.get(certificate);
+            if (privateKey == null) {
+                privateKey = super.getPrivateKey(certificate, handler);
+                if (privateKey != null) {
+                    privateKeys.put(certificate, privateKey);
+                }
+            }
+            return privateKey;
+        }
+    }
+
+    private static final class DecryptionCallbackHandler implements CallbackHandler {
+
+        private final String password;
+
+        DecryptionCallbackHandler(String password) {
+            this.password = password;
+        }
+
+        @Override
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (int i = 0; i < callbacks.length; i++) {
+                if (callbacks[i] instanceof WSPasswordCallback) {
+                    WSPasswordCallback pc = (WSPasswordCallback)callbacks[i];
+                    pc.setPassword(password);
+                } else {
+                    throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+                }
+            }
+        }
+
+    }
+
+}
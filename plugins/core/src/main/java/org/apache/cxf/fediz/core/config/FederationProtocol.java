@@ -24,6 +24,7 @@ import javax.security.auth.callback.CallbackHandler;
 import org.apache.cxf.fediz.core.config.jaxb.CallbackType;
 import org.apache.cxf.fediz.core.config.jaxb.FederationProtocolType;
 import org.apache.cxf.fediz.core.config.jaxb.ProtocolType;
+import org.apache.cxf.fediz.core.saml.SAMLClaimsExtractor;
 import org.apache.cxf.fediz.core.saml.SAMLTokenValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +48,7 @@ public class FederationProtocol extends Protocol {
         // Fediz chooses the first validator in the list if its
         // canHandleToken or canHandleTokenType method return true
         SAMLTokenValidator validator = new SAMLTokenValidator();
+        validator.setClaimsExtractor(new SAMLClaimsExtractor());
         getTokenValidators().add(getTokenValidators().size(), validator);
     }
 
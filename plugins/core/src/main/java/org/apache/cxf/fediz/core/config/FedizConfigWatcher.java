@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the Fediz configuration file and reloads it into the FedizConfigurator when it has changed. Changes
+ * are picked up by a NIO WatchService where the file system supports it, and by polling the modification time
+ * of the file in any case. The contexts replaced by a reload are retired once the drain time has passed. A
+ * retired context is closed as soon as the last request which has acquired it (see {@link FedizContext#acquire()})
+ * has released it, so a slow sign-in never runs against a closed context. The drain time only covers callers which
+ * use a context without acquiring it.
+ */
+public class FedizConfigWatcher implements Closeable {
+
+    public static final long DEFAULT_POLL_INTERVAL = 5000L;
+
+    public static final long DEFAULT_DRAIN_TIME = 60000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedizConfigWatcher.class);
+
+    private final FedizConfigurator configurator;
+    private final File configFile;
+    private final List<FedizContext> retiredContexts = new ArrayList<>();
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private long drainTime = DEFAULT_DRAIN_TIME;
+    private ScheduledExecutorService executor;
+    private WatchService watchService;
+    private Thread watchThread;
+    private long lastModified;
+    private long length;
+
+    public FedizConfigWatcher(FedizConfigurator configurator, File configFile) {
+        this.configurator = configurator;
+        this.configFile = configFile.getAbsoluteFile();
+    }
+
+    /**
+     * Start watching the configuration file. The configuration is expected to be loaded already.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        lastModified = configFile.lastModified();
+        length = configFile.length();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fediz-config-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        if (pollInterval > 0) {
+            executor.scheduleWithFixedDelay(this::checkForChange, pollInterval, pollInterval,
+                                            TimeUnit.MILLISECONDS);
+        }
+        startWatchService();
+        LOG.info("Watching Fediz configuration {}", configFile);
+    }
+
+    /**
+     * Reload the configuration if the file has been modified since it was loaded last.
+     *
+     * @return true if the configuration has been reloaded
+     */
+    public synchronized boolean checkForChange() {
+        long modified = configFile.lastModified();
+        long size = configFile.length();
+        if (modified == 0L || modified == lastModified && size == length) {
+            return false;
+        }
+        lastModified = modified;
+        length = size;
+
+        List<FedizContext> previous;
+        try {
+            previous = configurator.reloadConfig(configFile);
+        } catch (Exception ex) {
+            // Keep the current contexts, the file might still be in the process of being written
+            LOG.warn("Failed to reload Fediz configuration {}: {}", configFile, ex.getMessage());
+            return false;
+        }
+        LOG.info("Fediz configuration reloaded from {}", configFile);
+        retire(previous);
+        return true;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the interval in milliseconds in which the modification time of the file is checked. The default is
+     * 5 seconds. A value of 0 or less disables polling, so that changes are only picked up by the WatchService.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getDrainTime() {
+        return drainTime;
+    }
+
+    /**
+     * Set the time in milliseconds after which replaced contexts are retired. The default is one minute.
+     */
+    public void setDrainTime(long drainTime) {
+        this.drainTime = drainTime;
+    }
+
+    /**
+     * Stop watching the configuration file and retire all contexts which have been replaced by a reload, so that
+     * they are closed once they are not in use. The current contexts are left to the owner of the FedizConfigurator.
+     */
+    @Override
+    public void close() throws IOException {
+        List<FedizContext> toClose;
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            if (watchService != null) {
+                watchService.close();
+                watchService = null;
+            }
+            if (watchThread != null) {
+                watchThread.interrupt();
+                watchThread = null;
+            }
+            toClose = new ArrayList<>(retiredContexts);
+            retiredContexts.clear();
+        }
+        for (FedizContext fedContext : toClose) {
+            fedContext.closeWhenIdle();
+        }
+    }
+
+    private void retire(List<FedizContext> previous) {
+        if (previous.isEmpty()) {
+            return;
+        }
+        retiredContexts.addAll(previous);
+        if (executor == null) {
+            // Not started, the contexts are closed together with the watcher
+            return;
+        }
+        executor.schedule(() -> {
+            synchronized (FedizConfigWatcher.this) {
+                if (!retiredContexts.removeAll(previous)) {
+                    // Closed already
+                    return;
+                }
+            }
+            for (FedizContext fedContext : previous) {
+                fedContext.closeWhenIdle();
+            }
+        }, drainTime, TimeUnit.MILLISECONDS);
+    }
+
+    private void startWatchService() {
+        Path dir = configFile.getParentFile().toPath();
+        final Path fileName = configFile.toPath().getFileName();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOG.info("No WatchService available for {}, polling for changes only: {}", dir, ex.getMessage());
+            watchService = null;
+            return;
+        }
+
+        final WatchService service = watchService;
+        watchThread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (fileName.equals(event.context())
+                            || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        checkForChange();
+                    }
+                    if (!key.reset()) {
+                        LOG.info("{} cannot be watched anymore, polling for changes only", dir);
+                        return;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                // Watcher closed
+            }
+        }, "fediz-config-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+}
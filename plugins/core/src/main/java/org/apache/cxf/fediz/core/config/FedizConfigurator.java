@@ -26,7 +26,10 @@ import java.io.Reader;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -36,11 +39,16 @@ import org.apache.cxf.fediz.core.config.jaxb.FedizConfig;
 
 public class FedizConfigurator {
 
-    private FedizConfig rootConfig;
+    private volatile FedizConfig rootConfig;
 
     private JAXBContext jaxbContext;
 
-    private List<FedizContext> fedizContextList;
+    private volatile List<FedizContext> fedizContextList;
+
+    /**
+     * Immutable snapshot of the contexts indexed by name, replaced as a whole when a configuration is loaded
+     */
+    private volatile Map<String, FedizContext> fedizContexts = Collections.emptyMap();
 
     public FedizConfig loadConfig(File f) throws JAXBException, IOException {
         try (InputStream input = Files.newInputStream(f.toPath())) {
@@ -56,11 +64,60 @@ public class FedizConfigurator {
         return rootConfig;
     }
 
+    /**
+     * Load the configuration again and swap in newly created contexts. The new contexts are initialized before
+     * they are published, and inherit the relative path and classloader of the previous context of the same name.
+     * If the configuration cannot be loaded, the previous contexts stay in place. The previous contexts are
+     * returned and are not closed, as requests might still be using them.
+     */
+    public synchronized List<FedizContext> reloadConfig(File f) throws JAXBException, IOException {
+        FedizConfig newRootConfig;
+        try (InputStream input = Files.newInputStream(f.toPath())) {
+            newRootConfig = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(input);
+        }
+        List<FedizContext> previousContextList = fedizContextList;
+        Map<String, FedizContext> previousContexts = fedizContexts;
+
+        List<FedizContext> contextList = createFedizContextList(newRootConfig);
+        for (FedizContext fedContext : contextList) {
+            FedizContext previous = previousContexts.get(fedContext.getName());
+            if (previous == null && previousContextList != null && !previousContextList.isEmpty()) {
+                previous = previousContextList.get(0);
+            }
+            if (previous != null) {
+                fedContext.setRelativePath(previous.getRelativePath());
+                fedContext.setClassloader(previous.getClassloader());
+            }
+            fedContext.init();
+        }
+
+        rootConfig = newRootConfig;
+        publish(contextList);
+        return previousContextList != null ? previousContextList : Collections.<FedizContext>emptyList();
+    }
+
     private void parseFedizContextList() {
-        fedizContextList = new ArrayList<>();
-        for (ContextConfig config : rootConfig.getContextConfig()) {
-            fedizContextList.add(new FedizContext(config));
+        publish(createFedizContextList(rootConfig));
+    }
+
+    private static List<FedizContext> createFedizContextList(FedizConfig config) {
+        List<FedizContext> contextList = new ArrayList<>();
+        for (ContextConfig contextConfig : config.getContextConfig()) {
+            contextList.add(new FedizContext(contextConfig));
         }
+        return contextList;
+    }
+
+    private void publish(List<FedizContext> contextList) {
+        Map<String, FedizContext> contexts = new HashMap<>();
+        for (FedizContext fedContext : contextList) {
+            if (fedContext.getName() != null) {
+                // The first context configured for a name wins
+                contexts.putIfAbsent(fedContext.getName(), fedContext);
+            }
+        }
+        fedizContextList = contextList;
+        fedizContexts = Collections.unmodifiableMap(contexts);
     }
 
     public void saveConfiguration(File f) throws JAXBException {
@@ -94,14 +151,11 @@ public class FedizConfigurator {
         if (rootConfig == null) {
             throw new IllegalArgumentException("No configuration loaded");
         }
-        for (FedizContext fedContext : fedizContextList) {
-            if (fedContext.getName().equals(contextName)) {
-                fedContext.init();
-                return fedContext;
-            }
+        FedizContext fedContext = fedizContexts.get(contextName);
+        if (fedContext != null) {
+            fedContext.init();
         }
-
-        return null;
+        return fedContext;
     }
 
     public ContextConfig getContextConfig(String contextName) throws IllegalArgumentException {
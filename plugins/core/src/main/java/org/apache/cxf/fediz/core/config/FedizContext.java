@@ -27,9 +27,11 @@ import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.apache.cxf.fediz.core.config.jaxb.CallbackType;
@@ -44,12 +46,16 @@ import org.apache.cxf.fediz.core.config.jaxb.TrustManagersType;
 import org.apache.cxf.fediz.core.config.jaxb.TrustedIssuerType;
 import org.apache.cxf.fediz.core.config.jaxb.TrustedIssuers;
 import org.apache.cxf.fediz.core.exception.IllegalConfigurationException;
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metrics.CompositeProcessingListener;
+import org.apache.cxf.fediz.core.metrics.FedizProcessingListener;
+import org.apache.cxf.fediz.core.saml.TrustDecisionCache;
 import org.apache.cxf.fediz.core.util.CertsUtils;
+import org.apache.cxf.fediz.core.util.ClassLoaderUtils;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
 import org.apache.wss4j.common.crypto.CertificateStore;
 import org.apache.wss4j.common.crypto.Crypto;
-import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 import org.slf4j.Logger;
@@ -61,17 +67,34 @@ public class FedizContext implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FedizContext.class);
 
+    private static final int CLOSED = -1;
+
     private ContextConfig config;
 
     private boolean detectReplayedTokens = true;
     private String relativePath;
     private ReplayCache replayCache;
     private Protocol protocol;
-    private List<TrustManager> certificateStores = new ArrayList<>();
-    private KeyManager keyManager;
-    private KeyManager decryptionKeyManager;
+    private volatile List<TrustManager> certificateStores;
+    private volatile List<CryptoCache.CachedCrypto> certificateStoreCryptos = Collections.emptyList();
+    private final List<TrustManager> addedCertificateStores = new ArrayList<>();
+    private List<TrustedIssuer> trustedIssuers;
+    private volatile TrustIndex trustIndex;
+    private volatile KeyManager keyManager;
+    private volatile CryptoCache.CachedCrypto signingCrypto;
+    private volatile SigningCredential signingCredential;
+    private volatile KeyManager decryptionKeyManager;
+    private volatile CryptoCache.CachedCrypto decryptionCrypto;
+    private volatile DecryptionEngine decryptionEngine;
     private ClassLoader classloader;
     private Object logoutRedirectToConstraint;
+    private final MetadataCache metadataCache = new MetadataCache();
+    private volatile FedizProcessingListener processingListener;
+    private volatile List<PreValidationCheck> tokenPreValidation;
+    private volatile boolean initialized;
+    private volatile boolean closed;
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean retired;
 
 
     public FedizContext(ContextConfig config) {
@@ -81,9 +104,20 @@ public class FedizContext implements Closeable {
         this.config = config;
     }
 
+    /**
+     * Initialize the context. Only the first call does any work, so it is cheap to call on every request.
+     */
     public void init() {
-        //get validators initialized
-        getProtocol();
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    //get validators initialized
+                    getProtocol();
+                    loadProcessingListeners();
+                    initialized = true;
+                }
+            }
+        }
     }
 
     public List<String> getAudienceUris() {
@@ -94,46 +128,114 @@ public class FedizContext implements Closeable {
     }
 
     public List<TrustedIssuer> getTrustedIssuers() {
+        if (trustedIssuers != null) {
+            return trustedIssuers;
+        }
         TrustedIssuers issuers = config.getTrustedIssuers();
         List<TrustedIssuerType> trustManagers = issuers.getIssuer();
-        List<TrustedIssuer> trustedIssuers = new ArrayList<>();
+        List<TrustedIssuer> issuerList = new ArrayList<>();
         for (TrustedIssuerType manager:trustManagers) {
-            trustedIssuers.add(new TrustedIssuer(manager));
+            issuerList.add(new TrustedIssuer(manager));
         }
+        trustedIssuers = Collections.unmodifiableList(issuerList);
         return trustedIssuers;
     }
 
+    /**
+     * Get the index over the trusted issuers and certificate stores of this context. It is built
+     * on first access, as loading the certificate stores requires the classloader to be set, and
+     * rebuilt when the certificate stores have been reloaded.
+     */
+    public TrustIndex getTrustIndex() {
+        List<TrustManager> stores = getCertificateStores();
+        TrustIndex index = trustIndex;
+        if (index == null || index.sourceCertificateStores != stores) {
+            synchronized (this) {
+                index = trustIndex;
+                if (index == null || index.sourceCertificateStores != stores) {
+                    index = new TrustIndex(getTrustedIssuers(), stores);
+                    trustIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the certificate stores of this context. The keystores are shared with other contexts through the
+     * {@link CryptoCache}, and are loaded again once a keystore file has been modified.
+     */
     public List<TrustManager> getCertificateStores() {
-        if (!certificateStores.isEmpty()) {
-            return Collections.unmodifiableList(certificateStores);
+        List<TrustManager> stores = certificateStores;
+        if (stores != null && !isModified(certificateStoreCryptos)) {
+            return stores;
         }
+        return loadCertificateStores(stores);
+    }
 
-        CertificateStores certStores = config.getCertificateStores();
-        List<TrustManagersType> trustManagers = certStores.getTrustManager();
-        for (TrustManagersType manager : trustManagers) {
-            TrustManager tm = new TrustManager(manager);
+    /**
+     * Add a certificate store which is not part of the configuration, e.g. one created from a certificate
+     */
+    public synchronized void addCertificateStore(TrustManager trustManager) {
+        List<TrustManager> stores = new ArrayList<>(getCertificateStores());
+        addedCertificateStores.add(trustManager);
+        stores.add(trustManager);
+        certificateStores = Collections.unmodifiableList(stores);
+    }
 
-            Crypto crypto = null;
-            try {
-                if (manager.getKeyStore().getType().equalsIgnoreCase("PEM")) {
-                    X509Certificate[] certificates = new X509Certificate[1];
-                    certificates[0] = CertsUtils.getX509CertificateFromFile(tm.getName(), classloader);
-                    crypto = new CertificateStore(certificates);
-                } else {
-                    Properties sigProperties = createCryptoProperties(manager);
-                    crypto = CryptoFactory.getInstance(sigProperties);
+    private synchronized List<TrustManager> loadCertificateStores(List<TrustManager> staleStores) {
+        if (certificateStores != staleStores) {
+            // Loaded by another thread in the meantime
+            return certificateStores;
+        }
+        checkNotClosed();
+        List<TrustManager> stores = new ArrayList<>();
+        List<CryptoCache.CachedCrypto> cryptos = new ArrayList<>();
+        CertificateStores certStores = config.getCertificateStores();
+        List<TrustManagersType> trustManagers =
+            certStores != null ? certStores.getTrustManager() : Collections.<TrustManagersType>emptyList();
+        try {
+            for (TrustManagersType manager : trustManagers) {
+                TrustManager tm = new TrustManager(manager);
+
+                Crypto crypto = null;
+                try {
+                    if (manager.getKeyStore().getType().equalsIgnoreCase("PEM")) {
+                        X509Certificate[] certificates = new X509Certificate[1];
+                        certificates[0] = CertsUtils.getX509CertificateFromFile(tm.getName(), classloader);
+                        crypto = new CertificateStore(certificates);
+                    } else {
+                        Properties sigProperties = createCryptoProperties(manager);
+                        CryptoCache.CachedCrypto cached = CryptoCache.getInstance().acquire(sigProperties);
+                        cryptos.add(cached);
+                        crypto = cached.getCrypto();
+                    }
+                    tm.setCrypto(crypto);
+                    stores.add(tm);
+                } catch (WSSecurityException e) {
+                    LOG.error("Failed to load keystore '" + tm.getName() + "'", e);
+                    throw new IllegalConfigurationException("Failed to load keystore '" + tm.getName() + "'");
+                } catch (CertificateException ex) {
+                    LOG.error("Failed to read keystore", ex);
+                    throw new RuntimeException("Failed to read keystore");
                 }
-                tm.setCrypto(crypto);
-                certificateStores.add(tm);
-            } catch (WSSecurityException e) {
-                LOG.error("Failed to load keystore '" + tm.getName() + "'", e);
-                throw new IllegalConfigurationException("Failed to load keystore '" + tm.getName() + "'");
-            } catch (CertificateException ex) {
-                LOG.error("Failed to read keystore", ex);
-                throw new RuntimeException("Failed to read keystore");
             }
+        } catch (RuntimeException ex) {
+            release(cryptos);
+            throw ex;
+        }
+        stores.addAll(addedCertificateStores);
+
+        List<CryptoCache.CachedCrypto> staleCryptos = certificateStoreCryptos;
+        certificateStoreCryptos = cryptos;
+        certificateStores = Collections.unmodifiableList(stores);
+        if (staleStores != null) {
+            // The added stores are carried over
+            invalidateTrustDecisions(staleStores.subList(0, staleStores.size() - addedCertificateStores.size()),
+                                     staleCryptos);
         }
-        return Collections.unmodifiableList(certificateStores);
+        release(staleCryptos);
+        return certificateStores;
     }
 
     public BigInteger getMaximumClockSkew() {
@@ -189,51 +291,116 @@ public class FedizContext implements Closeable {
     }
 
     public KeyManager getSigningKey() {
+        KeyManager current = keyManager;
+        CryptoCache.CachedCrypto cached = signingCrypto;
+        if (current != null && (cached == null || !cached.isModified())) {
+            return current;
+        }
+        return loadSigningKey(current);
+    }
 
-        if (keyManager != null) {
+    private synchronized KeyManager loadSigningKey(KeyManager staleKeyManager) {
+        if (keyManager != staleKeyManager) {
             return keyManager;
         }
+        checkNotClosed();
         if (config.getSigningKey() == null) {
             LOG.error("No signing key has been configured");
             throw new IllegalConfigurationException("No signing key has been configured");
         }
-        keyManager = new KeyManager(config.getSigningKey());
-        Properties sigProperties = createCryptoProperties(config.getSigningKey());
-        try {
-            Crypto crypto = CryptoFactory.getInstance(sigProperties);
-            keyManager.setCrypto(crypto);
-        } catch (WSSecurityException e) {
-            String name = keyManager.getName();
-            keyManager = null;
-            LOG.error("Failed to load keystore '" + name + "'", e);
-            throw new IllegalConfigurationException("Failed to load keystore '" + name + "'");
+        KeyManager newKeyManager = new KeyManager(config.getSigningKey());
+        CryptoCache.CachedCrypto cached = loadKeyStore(newKeyManager, config.getSigningKey());
+
+        CryptoCache.CachedCrypto staleCrypto = signingCrypto;
+        signingCrypto = cached;
+        keyManager = newKeyManager;
+        if (staleCrypto != null) {
+            CryptoCache.getInstance().release(staleCrypto);
         }
+        return newKeyManager;
+    }
 
-        return keyManager;
-
+    /**
+     * Get the private key of the signing key of this context with the Signature engines using it. It is built on
+     * first access and rebuilt when the signing keystore has been reloaded.
+     */
+    public SigningCredential getSigningCredential() {
+        KeyManager current = getSigningKey();
+        SigningCredential credential = signingCredential;
+        if (credential == null || credential.sourceKeyManager != current) {
+            synchronized (this) {
+                credential = signingCredential;
+                if (credential == null || credential.sourceKeyManager != current) {
+                    credential = new SigningCredential(current);
+                    signingCredential = credential;
+                }
+            }
+        }
+        return credential;
     }
 
     public KeyManager getDecryptionKey() {
-        if (decryptionKeyManager != null) {
+        KeyManager current = decryptionKeyManager;
+        CryptoCache.CachedCrypto cached = decryptionCrypto;
+        if (current != null && (cached == null || !cached.isModified())) {
+            return current;
+        }
+        return loadDecryptionKey(current);
+    }
+
+    private synchronized KeyManager loadDecryptionKey(KeyManager staleKeyManager) {
+        if (decryptionKeyManager != staleKeyManager) {
             return decryptionKeyManager;
         }
+        checkNotClosed();
         if (config.getTokenDecryptionKey() == null) {
             return null;
         }
-        decryptionKeyManager = new KeyManager(config.getTokenDecryptionKey());
-        Properties decProperties = createCryptoProperties(config.getTokenDecryptionKey());
+        KeyManager newKeyManager = new KeyManager(config.getTokenDecryptionKey());
+        CryptoCache.CachedCrypto cached = loadKeyStore(newKeyManager, config.getTokenDecryptionKey());
+
+        CryptoCache.CachedCrypto staleCrypto = decryptionCrypto;
+        decryptionCrypto = cached;
+        decryptionKeyManager = newKeyManager;
+        if (staleCrypto != null) {
+            CryptoCache.getInstance().release(staleCrypto);
+        }
+        return newKeyManager;
+    }
+
+    /**
+     * Get the engine decrypting the tokens of this context, or null if no decryption key has been configured.
+     * It is built on first access and rebuilt when the decryption keystore has been reloaded.
+     */
+    public DecryptionEngine getDecryptionEngine() {
+        KeyManager current = getDecryptionKey();
+        if (current == null) {
+            return null;
+        }
+        DecryptionEngine engine = decryptionEngine;
+        if (engine == null || engine.sourceKeyManager != current) {
+            synchronized (this) {
+                engine = decryptionEngine;
+                if (engine == null || engine.sourceKeyManager != current) {
+                    engine = new DecryptionEngine(current);
+                    decryptionEngine = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    private CryptoCache.CachedCrypto loadKeyStore(KeyManager manager, KeyManagersType keyManagerType) {
+        Properties properties = createCryptoProperties(keyManagerType);
         try {
-            Crypto crypto = CryptoFactory.getInstance(decProperties);
-            decryptionKeyManager.setCrypto(crypto);
+            CryptoCache.CachedCrypto cached = CryptoCache.getInstance().acquire(properties);
+            manager.setCrypto(cached.getCrypto());
+            return cached;
         } catch (WSSecurityException e) {
-            String name = decryptionKeyManager.getName();
-            decryptionKeyManager = null;
+            String name = manager.getName();
             LOG.error("Failed to load keystore '" + name + "'", e);
             throw new IllegalConfigurationException("Failed to load keystore '" + name + "'");
         }
-
-        return decryptionKeyManager;
-
     }
 
     public ReplayCache getTokenReplayCache() {
@@ -264,6 +431,40 @@ public class FedizContext implements Closeable {
         return config.getName();
     }
 
+    /**
+     * @return the checks to run on a token before its signature is verified, in order
+     */
+    public List<PreValidationCheck> getTokenPreValidation() {
+        List<PreValidationCheck> checks = tokenPreValidation;
+        if (checks == null) {
+            checks = parseTokenPreValidation(config.getTokenPreValidation());
+            tokenPreValidation = checks;
+        }
+        return checks;
+    }
+
+    public void setTokenPreValidation(List<PreValidationCheck> checks) {
+        tokenPreValidation = Collections.unmodifiableList(new ArrayList<>(checks));
+    }
+
+    private static List<PreValidationCheck> parseTokenPreValidation(String value) {
+        if (value == null) {
+            return Collections.unmodifiableList(
+                Arrays.asList(PreValidationCheck.REPLAY, PreValidationCheck.EXPIRY));
+        }
+        List<PreValidationCheck> checks = new ArrayList<>();
+        for (String check : value.trim().split("[,\\s]+")) {
+            if (!check.isEmpty()) {
+                try {
+                    checks.add(PreValidationCheck.fromValue(check));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalConfigurationException("Unknown token pre-validation check '" + check + "'");
+                }
+            }
+        }
+        return Collections.unmodifiableList(checks);
+    }
+
 
     public boolean isDetectExpiredTokens() {
         return config.isTokenExpirationValidation();
@@ -290,11 +491,195 @@ public class FedizContext implements Closeable {
         return relativePath;
     }
 
+    /**
+     * @return the listener notified about the processing phases of this context, or null if there is none
+     */
+    public FedizProcessingListener getProcessingListener() {
+        return processingListener;
+    }
+
+    /**
+     * Set the listener notified about the processing phases of this context, replacing the configured ones.
+     */
+    public synchronized void setProcessingListener(FedizProcessingListener processingListener) {
+        if (processingListener != null) {
+            processingListener.init(this);
+        }
+        this.processingListener = processingListener;
+    }
+
+    /**
+     * Add a listener to be notified about the processing phases of this context.
+     */
+    public synchronized void addProcessingListener(FedizProcessingListener listener) {
+        listener.init(this);
+        processingListener = CompositeProcessingListener.combine(processingListener, listener);
+    }
+
+    private void loadProcessingListeners() {
+        for (String listenerClassname : config.getProcessingListener()) {
+            Object obj = null;
+            try {
+                if (classloader == null) {
+                    obj = ClassLoaderUtils.loadClass(listenerClassname, this.getClass()).newInstance();
+                } else {
+                    obj = classloader.loadClass(listenerClassname).newInstance();
+                }
+            } catch (Exception | LinkageError ex) {
+                LOG.error("Failed to instantiate FedizProcessingListener implementation class: '"
+                          + listenerClassname + "'\n" + ex.getClass().getCanonicalName() + ": " + ex.getMessage());
+            }
+            if (obj instanceof FedizProcessingListener) {
+                addProcessingListener((FedizProcessingListener)obj);
+            } else if (obj != null) {
+                LOG.error("Invalid FedizProcessingListener implementation class: '" + listenerClassname + "'");
+            }
+        }
+    }
+
+    /**
+     * @return the cache of the signed metadata document of this context
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Mark the start of a request using this context. A context is not closed by {@link #closeWhenIdle()} while
+     * it is in use. Every successful call must be paired with a call to {@link #release()}.
+     *
+     * @return false if the context has been closed, so that the current context has to be looked up again
+     */
+    public boolean acquire() {
+        while (true) {
+            int current = users.get();
+            if (current < 0) {
+                return false;
+            }
+            if (users.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Mark the end of a request using this context, closing it if it has been retired in the meantime.
+     */
+    public void release() {
+        if (users.decrementAndGet() == 0 && retired) {
+            closeIfIdle();
+        }
+    }
+
+    /**
+     * Close this context once no request is using it anymore, e.g. after it has been replaced by a reload of the
+     * configuration. It is closed right away if it is not in use.
+     */
+    public void closeWhenIdle() {
+        retired = true;
+        closeIfIdle();
+    }
+
+    /**
+     * @return the number of requests currently using this context
+     */
+    public int getUsers() {
+        return Math.max(users.get(), 0);
+    }
+
+    private void closeIfIdle() {
+        if (users.compareAndSet(0, CLOSED)) {
+            try {
+                close();
+            } catch (IOException ex) {
+                LOG.debug("Failed to close Fediz context {}: {}", getName(), ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return true if this context has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close this context and release the keystores it holds. A closed context does not load its keystores
+     * again, the methods which would need them fail with an IllegalStateException.
+     */
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            users.set(CLOSED);
+            metadataCache.invalidate();
+            if (certificateStores != null) {
+                invalidateTrustDecisions(certificateStores, certificateStoreCryptos);
+            }
+            release(certificateStoreCryptos);
+            certificateStoreCryptos = Collections.emptyList();
+            certificateStores = null;
+            trustIndex = null;
+            if (signingCrypto != null) {
+                CryptoCache.getInstance().release(signingCrypto);
+                signingCrypto = null;
+                keyManager = null;
+                signingCredential = null;
+            }
+            if (decryptionCrypto != null) {
+                CryptoCache.getInstance().release(decryptionCrypto);
+                decryptionCrypto = null;
+                decryptionKeyManager = null;
+                decryptionEngine = null;
+            }
+        }
         if (replayCache != null) {
             replayCache.close();
         }
+        if (processingListener instanceof Closeable) {
+            ((Closeable)processingListener).close();
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("Fediz context '" + getName() + "' has been closed");
+        }
+    }
+
+    private static boolean isModified(List<CryptoCache.CachedCrypto> cryptos) {
+        for (CryptoCache.CachedCrypto cached : cryptos) {
+            if (cached.isModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the trust decisions cached against the stores which are not shared through the CryptoCache, e.g. PEM
+     * certificates. The CryptoCache takes care of the others once they are released.
+     */
+    private static void invalidateTrustDecisions(List<TrustManager> stores, List<CryptoCache.CachedCrypto> cryptos) {
+        for (TrustManager tm : stores) {
+            boolean shared = false;
+            for (CryptoCache.CachedCrypto cached : cryptos) {
+                shared |= cached.getCrypto() == tm.getCrypto();
+            }
+            if (!shared) {
+                TrustDecisionCache.getInstance().invalidate(tm.getCrypto());
+            }
+        }
+    }
+
+    private static void release(List<CryptoCache.CachedCrypto> cryptos) {
+        for (CryptoCache.CachedCrypto cached : cryptos) {
+            CryptoCache.getInstance().release(cached);
+        }
     }
 
     private Properties createCryptoProperties(TrustManagersType tm) {
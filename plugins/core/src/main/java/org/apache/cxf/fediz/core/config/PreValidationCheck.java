@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+/**
+ * The checks which can be run on a token before its signature is verified.
+ */
+public enum PreValidationCheck {
+
+    /** Reject a token whose ID is in the replay cache already */
+    REPLAY("Replay"),
+
+    /** Reject a token whose NotOnOrAfter condition has passed by more than the maximum clock skew */
+    EXPIRY("Expiry"),
+
+    /** Reject a token whose audience restriction does not match the audience URIs of the context */
+    AUDIENCE("Audience"),
+
+    /** Reject a token whose issuer is not known */
+    ISSUER("Issuer");
+
+    private final String value;
+
+    PreValidationCheck(String v) {
+        value = v;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static PreValidationCheck fromValue(String v) {
+        for (PreValidationCheck c: PreValidationCheck.values()) {
+            if (c.value.equalsIgnoreCase(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+
+}
@@ -21,9 +21,10 @@ package org.apache.cxf.fediz.core.config;
 
 import org.apache.cxf.fediz.core.config.jaxb.ProtocolType;
 import org.apache.cxf.fediz.core.config.jaxb.SamlProtocolType;
+import org.apache.cxf.fediz.core.saml.SAMLClaimsExtractor;
 import org.apache.cxf.fediz.core.saml.SAMLTokenValidator;
-import org.apache.cxf.fediz.core.samlsso.DefaultSAMLPRequestBuilder;
 import org.apache.cxf.fediz.core.samlsso.SAMLPRequestBuilder;
+import org.apache.cxf.fediz.core.samlsso.TemplateSAMLPRequestBuilder;
 import org.apache.wss4j.common.util.Loader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +42,7 @@ public class SAMLProtocol extends Protocol {
         // Fediz chooses the first validator in the list if its
         // canHandleToken or canHandleTokenType method return true
         SAMLTokenValidator validator = new SAMLTokenValidator();
+        validator.setClaimsExtractor(new SAMLClaimsExtractor());
         getTokenValidators().add(getTokenValidators().size(), validator);
     }
 
@@ -60,6 +62,14 @@ public class SAMLProtocol extends Protocol {
         getSAMLProtocol().setSignRequest(signRequest);
     }
 
+    public String getSignatureAlgorithm() {
+        return getSAMLProtocol().getSignatureAlgorithm();
+    }
+
+    public void setSignatureAlgorithm(String signatureAlgorithm) {
+        getSAMLProtocol().setSignatureAlgorithm(signatureAlgorithm);
+    }
+
     public SAMLPRequestBuilder getSAMLPRequestBuilder() {
         if (samlpRequestBuilder != null) {
             return samlpRequestBuilder;
@@ -71,6 +81,7 @@ public class SAMLProtocol extends Protocol {
             try {
                 Class<?> samlpRequestBuilderClass = Loader.loadClass(samlpRequestBuilderStr);
                 samlpRequestBuilder = (SAMLPRequestBuilder) samlpRequestBuilderClass.newInstance();
+                return samlpRequestBuilder;
             } catch (ClassNotFoundException ex) {
                 LOG.debug(ex.getMessage(), ex);
             } catch (InstantiationException ex) {
@@ -81,7 +92,7 @@ public class SAMLProtocol extends Protocol {
         }
 
         // Default implementation
-        samlpRequestBuilder = new DefaultSAMLPRequestBuilder();
+        samlpRequestBuilder = new TemplateSAMLPRequestBuilder();
 
         return samlpRequestBuilder;
     }
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.config;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cxf.fediz.core.exception.IllegalConfigurationException;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The private key of the signing key of a context, read from the keystore and unwrapped once, together with
+ * Signature engines which are initialized with it. Every thread gets its own engine per signature algorithm,
+ * so signing a request costs neither a keystore lookup nor a provider lookup. The {@link FedizContext} builds
+ * a new credential when the signing keystore has been reloaded.
+ */
+public final class SigningCredential {
+
+    public static final String RSA_SHA1 = "http://www.w3.org/2000/09/xmldsig#rsa-sha1";
+    public static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    public static final String RSA_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha384";
+    public static final String RSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha512";
+    public static final String DSA_SHA1 = "http://www.w3.org/2000/09/xmldsig#dsa-sha1";
+    public static final String DSA_SHA256 = "http://www.w3.org/2009/xmldsig11#dsa-sha256";
+    public static final String ECDSA_SHA1 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha1";
+    public static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+    public static final String ECDSA_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha384";
+    public static final String ECDSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha512";
+
+    private static final Logger LOG = LoggerFactory.getLogger(SigningCredential.class);
+
+    private static final Map<String, String> JCE_ALGORITHMS;
+
+    static {
+        Map<String, String> algorithms = new HashMap<>();
+        algorithms.put(RSA_SHA1, "SHA1withRSA");
+        algorithms.put(RSA_SHA256, "SHA256withRSA");
+        algorithms.put(RSA_SHA384, "SHA384withRSA");
+        algorithms.put(RSA_SHA512, "SHA512withRSA");
+        algorithms.put(DSA_SHA1, "SHA1withDSA");
+        algorithms.put(DSA_SHA256, "SHA256withDSA");
+        algorithms.put(ECDSA_SHA1, "SHA1withECDSA");
+        algorithms.put(ECDSA_SHA256, "SHA256withECDSA");
+        algorithms.put(ECDSA_SHA384, "SHA384withECDSA");
+        algorithms.put(ECDSA_SHA512, "SHA512withECDSA");
+        JCE_ALGORITHMS = Collections.unmodifiableMap(algorithms);
+    }
+
+    final KeyManager sourceKeyManager;
+
+    private final PrivateKey privateKey;
+    private final String defaultSignatureAlgorithm;
+    private final ConcurrentMap<String, ThreadLocal<Signature>> signatures = new ConcurrentHashMap<>();
+
+    SigningCredential(KeyManager keyManager) {
+        this.sourceKeyManager = keyManager;
+
+        Crypto crypto = keyManager.getCrypto();
+        if (crypto == null) {
+            throw new IllegalConfigurationException("No crypto instance configured for signature");
+        }
+        String keyPassword = keyManager.getKeyPassword();
+        if (keyPassword == null) {
+            throw new IllegalConfigurationException("No signature password available");
+        }
+        String keyAlias = keyManager.getKeyAlias();
+        try {
+            if (keyAlias == null) {
+                keyAlias = crypto.getDefaultX509Identifier();
+            }
+            if (keyAlias == null) {
+                throw new IllegalConfigurationException("No user configured for signature");
+            }
+            privateKey = crypto.getPrivateKey(keyAlias, keyPassword);
+        } catch (WSSecurityException ex) {
+            LOG.debug(ex.getMessage(), ex);
+            throw new IllegalConfigurationException("Failed to read signing key '" + keyAlias + "'", ex);
+        }
+        if (privateKey == null) {
+            throw new IllegalConfigurationException("No private key available for '" + keyAlias + "'");
+        }
+
+        // The algorithms Fediz has always used for RSA and DSA keys
+        switch (privateKey.getAlgorithm().toUpperCase()) {
+        case "DSA":
+            defaultSignatureAlgorithm = DSA_SHA1;
+            break;
+        case "EC":
+        case "ECDSA":
+            defaultSignatureAlgorithm = ECDSA_SHA256;
+            break;
+        default:
+            defaultSignatureAlgorithm = RSA_SHA1;
+        }
+        LOG.debug("Signing key '{}' uses {}", keyAlias, privateKey.getAlgorithm());
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * @return the signature algorithm matching the type of the key: RSA-SHA1 for RSA keys, DSA-SHA1 for DSA keys
+     *         and ECDSA-SHA256 for EC keys
+     */
+    public String getDefaultSignatureAlgorithm() {
+        return defaultSignatureAlgorithm;
+    }
+
+    /**
+     * Sign the given data
+     *
+     * @param signatureAlgorithm the XML Signature URI of the algorithm, or null for the default algorithm
+     * @return the signature value as returned by the JCE provider
+     */
+    public byte[] sign(String signatureAlgorithm, byte[] data) throws GeneralSecurityException {
+        String algorithm = signatureAlgorithm != null ? signatureAlgorithm : defaultSignatureAlgorithm;
+        ThreadLocal<Signature> engines = signatures.get(algorithm);
+        if (engines == null) {
+            engines = createEngines(algorithm);
+        }
+        Signature signature = engines.get();
+        if (signature == null) {
+            signature = Signature.getInstance(JCE_ALGORITHMS.get(algorithm));
+            signature.initSign(privateKey);
+            engines.set(signature);
+        }
+        try {
+            signature.update(data);
+            // Signing resets the engine to its initialized state, so it can be used again
+            return signature.sign();
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            engines.remove();
+            throw ex;
+        }
+    }
+
+    private ThreadLocal<Signature> createEngines(String algorithm) throws GeneralSecurityException {
+        if (!JCE_ALGORITHMS.containsKey(algorithm)) {
+            throw new GeneralSecurityException("Unsupported signature algorithm " + algorithm);
+        }
+        ThreadLocal<Signature> engines = new ThreadLocal<>();
+        ThreadLocal<Signature> existing = signatures.putIfAbsent(algorithm, engines);
+        return existing != null ? existing : engines;
+    }
+
+}
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A per-context index over the trusted issuers and certificate stores of a {@link FedizContext}.
+ * Given the signing certificate of a token it returns the (issuer, certificate store) pairs
+ * which can possibly establish trust, the pair which succeeded last time for the same certificate
+ * first. Certificate stores are indexed by the subject DNs of the certificates they contain, so
+ * both peer trust (signing certificate in the store) and chain trust (issuing CA in the store)
+ * are resolved without trying every store.
+ */
+public class TrustIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrustIndex.class);
+
+    /**
+     * The list of certificate stores the index was built from, to tell whether it is still current
+     */
+    final List<TrustManager> sourceCertificateStores;
+
+    private final List<TrustedIssuer> trustedIssuers;
+    private final List<TrustManager> certificateStores;
+    private final List<Entry> entries;
+
+    /**
+     * Certificate stores keyed by the subject DN of each certificate they contain
+     */
+    private final Map<String, List<TrustManager>> storesBySubjectDN = new HashMap<>();
+
+    /**
+     * Certificate stores whose content can't be enumerated (e.g. PEM based CertificateStores)
+     */
+    private final List<TrustManager> unindexedStores = new ArrayList<>();
+
+    /**
+     * The entry which successfully validated a signing certificate, keyed by certificate fingerprint
+     */
+    private final Map<String, Entry> resolved = new ConcurrentHashMap<>();
+
+    public TrustIndex(List<TrustedIssuer> trustedIssuers, List<TrustManager> certificateStores) {
+        this.trustedIssuers = Collections.unmodifiableList(new ArrayList<>(trustedIssuers));
+        this.certificateStores = Collections.unmodifiableList(new ArrayList<>(certificateStores));
+        this.sourceCertificateStores = certificateStores;
+
+        List<Entry> allEntries = new ArrayList<>(trustedIssuers.size() * certificateStores.size());
+        for (TrustedIssuer ti : trustedIssuers) {
+            for (TrustManager tm : certificateStores) {
+                allEntries.add(new Entry(ti, tm));
+            }
+        }
+        this.entries = Collections.unmodifiableList(allEntries);
+
+        for (TrustManager tm : certificateStores) {
+            if (!indexCertificateStore(tm)) {
+                unindexedStores.add(tm);
+            }
+        }
+    }
+
+    /**
+     * @return all (issuer, certificate store) pairs in configuration order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public List<TrustedIssuer> getTrustedIssuers() {
+        return trustedIssuers;
+    }
+
+    public List<TrustManager> getCertificateStores() {
+        return certificateStores;
+    }
+
+    /**
+     * Return the (issuer, certificate store) pairs which are able to establish trust in the given
+     * signing certificate, ordered by likelihood. The returned list is a subset of {@link #getEntries()}.
+     */
+    public List<Entry> getCandidates(X509Certificate signingCert) {
+        if (signingCert == null) {
+            return Collections.emptyList();
+        }
+
+        Set<Entry> candidates = new LinkedHashSet<>();
+        Entry lastResolved = resolved.get(getFingerprint(signingCert));
+        if (lastResolved != null) {
+            candidates.add(lastResolved);
+        }
+
+        String subjectDN = signingCert.getSubjectX500Principal().getName();
+        String issuerDN = signingCert.getIssuerX500Principal().getName();
+        Set<TrustManager> stores = new LinkedHashSet<>();
+        addStores(stores, storesBySubjectDN.get(subjectDN));
+        addStores(stores, storesBySubjectDN.get(issuerDN));
+        stores.addAll(unindexedStores);
+        if (stores.isEmpty()) {
+            return new ArrayList<>(candidates);
+        }
+
+        int storeCount = certificateStores.size();
+        for (int i = 0; i < trustedIssuers.size(); i++) {
+            Pattern subjectConstraint = trustedIssuers.get(i).getCompiledSubject();
+            if (subjectConstraint != null && !subjectConstraint.matcher(subjectDN).matches()) {
+                continue;
+            }
+            for (int j = 0; j < storeCount; j++) {
+                if (stores.contains(certificateStores.get(j))) {
+                    candidates.add(entries.get(i * storeCount + j));
+                }
+            }
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * Remember the entry which successfully established trust in the given signing certificate
+     */
+    public void setResolved(X509Certificate signingCert, Entry entry) {
+        if (signingCert != null && entry != null) {
+            resolved.put(getFingerprint(signingCert), entry);
+        }
+    }
+
+    private static void addStores(Set<TrustManager> stores, List<TrustManager> toAdd) {
+        if (toAdd != null) {
+            stores.addAll(toAdd);
+        }
+    }
+
+    private boolean indexCertificateStore(TrustManager tm) {
+        Crypto crypto = tm.getCrypto();
+        if (!(crypto instanceof Merlin)) {
+            return false;
+        }
+        Merlin merlin = (Merlin)crypto;
+        try {
+            indexKeyStore(tm, merlin.getKeyStore());
+            indexKeyStore(tm, merlin.getTrustStore());
+            return true;
+        } catch (KeyStoreException ex) {
+            LOG.warn("Failed to index certificate store '{}': {}", tm.getName(), ex.getMessage());
+            return false;
+        }
+    }
+
+    private void indexKeyStore(TrustManager tm, KeyStore keyStore) throws KeyStoreException {
+        if (keyStore == null) {
+            return;
+        }
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            Certificate cert = keyStore.getCertificate(aliases.nextElement());
+            if (cert instanceof X509Certificate) {
+                String subjectDN = ((X509Certificate)cert).getSubjectX500Principal().getName();
+                List<TrustManager> stores = storesBySubjectDN.computeIfAbsent(subjectDN, k -> new ArrayList<>(1));
+                if (!stores.contains(tm)) {
+                    stores.add(tm);
+                }
+            }
+        }
+    }
+
+    private static String getFingerprint(X509Certificate cert) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(cert.getEncoded()));
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new IllegalStateException("Failed to compute certificate fingerprint", ex);
+        }
+    }
+
+    /**
+     * A pair of a trusted issuer and the certificate store to validate it against
+     */
+    public static final class Entry {
+
+        private final TrustedIssuer trustedIssuer;
+        private final TrustManager trustManager;
+
+        Entry(TrustedIssuer trustedIssuer, TrustManager trustManager) {
+            this.trustedIssuer = trustedIssuer;
+            this.trustManager = trustManager;
+        }
+
+        public TrustedIssuer getTrustedIssuer() {
+            return trustedIssuer;
+        }
+
+        public TrustManager getTrustManager() {
+            return trustManager;
+        }
+
+    }
+
+}
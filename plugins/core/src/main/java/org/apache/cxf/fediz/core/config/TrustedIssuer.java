@@ -42,6 +42,17 @@ public class TrustedIssuer {
         trustedIssuerType.setName(name);
     }
 
+    /**
+     * @return the Issuer of the SAML tokens of this issuer, as checked by the Issuer pre-validation, or null
+     */
+    public String getTokenIssuer() {
+        return trustedIssuerType.getTokenIssuer();
+    }
+
+    public void setTokenIssuer(String tokenIssuer) {
+        trustedIssuerType.setTokenIssuer(tokenIssuer);
+    }
+
     public Pattern getCompiledSubject() {
         if (subject != null) {
             return subject;
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.core.metadata;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.w3c.dom.Document;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.KeyManager;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the signed and serialized metadata document of a FedizContext, so that it is not rebuilt and
+ * re-signed on every request. The document depends on the request URL if no application service URL
+ * is configured, so a document is cached per request URL. A cached document is rebuilt once it is
+ * older than the maximum age, or when the signing keystore has been replaced or modified.
+ */
+public class MetadataCache {
+
+    public static final long DEFAULT_MAX_AGE = 60L * 60L * 1000L;
+
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final Map<String, CachedMetadata> documents = new ConcurrentHashMap<>();
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Get the signed metadata document for the given request, creating it if no valid document is cached.
+     */
+    public CachedMetadata getMetadata(HttpServletRequest request, FedizContext config)
+        throws ProcessingException {
+        String key = request == null ? "" : request.getRequestURL().toString();
+        CachedMetadata cached = documents.get(key);
+        if (cached != null && isValid(cached, config)) {
+            return cached;
+        }
+
+        LOG.debug("Creating metadata document for {}", key);
+        FedizProcessor wfProc = FedizProcessorFactory.newFedizProcessor(config.getProtocol());
+        Document metadata = wfProc.getMetaData(request, config);
+        Crypto crypto = getSigningCrypto(config);
+        cached = new CachedMetadata(DOM2Writer.nodeToString(metadata), crypto,
+                                    crypto != null ? getKeystoreFile(config) : null);
+
+        if (documents.size() >= maxEntries) {
+            documents.clear();
+        }
+        documents.put(key, cached);
+        return cached;
+    }
+
+    /**
+     * Drop all cached documents, e.g. after the configuration of the FedizContext has changed.
+     */
+    public void invalidate() {
+        documents.clear();
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Set the maximum age of a cached document in milliseconds. The default is one hour.
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of cached documents, i.e. of distinct request URLs. The default is 16.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private boolean isValid(CachedMetadata cached, FedizContext config) {
+        if (System.currentTimeMillis() - cached.created > maxAge) {
+            return false;
+        }
+        if (cached.crypto == null) {
+            // Unsigned document
+            return true;
+        }
+        if (getSigningCrypto(config) != cached.crypto) {
+            return false;
+        }
+        return cached.keystoreFile == null || cached.keystoreFile.lastModified() == cached.keystoreModified;
+    }
+
+    private static Crypto getSigningCrypto(FedizContext config) {
+        try {
+            return config.getSigningKey().getCrypto();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    private static File getKeystoreFile(FedizContext config) {
+        try {
+            KeyManager keyManager = config.getSigningKey();
+            if (keyManager.getName() == null) {
+                return null;
+            }
+            File f = new File(keyManager.getName());
+            if (!f.exists() && config.getRelativePath() != null && !config.getRelativePath().isEmpty()) {
+                f = new File(config.getRelativePath(), keyManager.getName());
+            }
+            // Keystores loaded from the classpath or a URL are not watched
+            return f.isFile() ? f : null;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A signed and serialized metadata document with its entity tag and modification date.
+     */
+    public static final class CachedMetadata {
+
+        private final String document;
+        private final String etag;
+        private final long created;
+        private final long lastModified;
+        private final Crypto crypto;
+        private final File keystoreFile;
+        private final long keystoreModified;
+
+        CachedMetadata(String document, Crypto crypto, File keystoreFile) {
+            this.document = document;
+            this.etag = createETag(document);
+            this.created = System.currentTimeMillis();
+            // HTTP dates have a precision of one second
+            this.lastModified = created / 1000L * 1000L;
+            this.crypto = crypto;
+            this.keystoreFile = keystoreFile;
+            this.keystoreModified = keystoreFile != null ? keystoreFile.lastModified() : 0L;
+        }
+
+        public String getDocument() {
+            return document;
+        }
+
+        /**
+         * @return the strong entity tag of the document, including the quotes
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Check whether the client already has the current document, by evaluating the If-None-Match
+         * header or, if it is absent, the If-Modified-Since header of the request.
+         */
+        public boolean isNotModified(HttpServletRequest request) {
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    String t = tag.trim();
+                    if (t.startsWith("W/")) {
+                        t = t.substring(2);
+                    }
+                    if ("*".equals(t) || etag.equals(t)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            try {
+                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                return ifModifiedSince != -1L && ifModifiedSince >= lastModified;
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+        }
+
+        private static String createETag(String document) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    document.getBytes(StandardCharsets.UTF_8));
+                return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + '"';
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("Failed to compute metadata entity tag", ex);
+            }
+        }
+    }
+}
@@ -24,17 +24,12 @@ import java.io.PrintWriter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.w3c.dom.Document;
-
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.handler.RequestHandler;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
-import org.apache.wss4j.common.util.DOM2Writer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,13 +61,20 @@ public class MetadataDocumentHandler implements RequestHandler<Boolean> {
     @Override
     public Boolean handleRequest(HttpServletRequest request, HttpServletResponse response) {
         LOG.debug("Metadata document requested");
-        FedizProcessor wfProc = FedizProcessorFactory.newFedizProcessor(fedizConfig.getProtocol());
         PrintWriter out = null;
         try {
-            out = response.getWriter();
-            Document metadata = wfProc.getMetaData(request, fedizConfig);
-            out.write(DOM2Writer.nodeToString(metadata));
+            MetadataCache.CachedMetadata metadata =
+                fedizConfig.getMetadataCache().getMetadata(request, fedizConfig);
+            response.setHeader("ETag", metadata.getETag());
+            response.setDateHeader("Last-Modified", metadata.getLastModified());
+            if (metadata.isNotModified(request)) {
+                LOG.debug("Metadata document not modified");
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
             response.setContentType("text/xml");
+            out = response.getWriter();
+            out.write(metadata.getDocument());
             return true;
         } catch (Exception ex) {
             LOG.error("Failed to get metadata document: {}", ex.getMessage());
@@ -32,7 +32,6 @@ import java.util.Base64;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -60,8 +59,6 @@ public class MetadataWriter {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetadataWriter.class);
 
-    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
-
     //CHECKSTYLE:OFF
     public Document getMetaData(
         HttpServletRequest request, FedizContext config
@@ -69,7 +66,7 @@ public class MetadataWriter {
 
         try (ByteArrayOutputStream bout = new ByteArrayOutputStream(4096)) {
             Writer streamWriter = new OutputStreamWriter(bout, StandardCharsets.UTF_8);
-            XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(streamWriter);
+            XMLStreamWriter writer = DOMUtils.getXMLOutputFactory().createXMLStreamWriter(streamWriter);
 
             Protocol protocol = config.getProtocol();
 
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+
+/**
+ * Notifies several listeners in turn.
+ */
+public final class CompositeProcessingListener implements FedizProcessingListener, Closeable {
+
+    private final FedizProcessingListener[] listeners;
+
+    public CompositeProcessingListener(List<FedizProcessingListener> listeners) {
+        this.listeners = listeners.toArray(new FedizProcessingListener[listeners.size()]);
+    }
+
+    /**
+     * Combine two listeners, either of which may be null.
+     */
+    public static FedizProcessingListener combine(FedizProcessingListener first, FedizProcessingListener second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        List<FedizProcessingListener> combined = new ArrayList<>(flatten(first));
+        combined.addAll(flatten(second));
+        return new CompositeProcessingListener(combined);
+    }
+
+    public List<FedizProcessingListener> getListeners() {
+        return Collections.unmodifiableList(Arrays.asList(listeners));
+    }
+
+    @Override
+    public void init(FedizContext context) {
+        for (FedizProcessingListener listener : listeners) {
+            listener.init(context);
+        }
+    }
+
+    @Override
+    public void phaseStarted(ProcessingPhase phase, FedizContext context) {
+        for (FedizProcessingListener listener : listeners) {
+            listener.phaseStarted(phase, context);
+        }
+    }
+
+    @Override
+    public void phaseCompleted(ProcessingPhase phase, FedizContext context, long durationNanos, boolean success) {
+        for (FedizProcessingListener listener : listeners) {
+            listener.phaseCompleted(phase, context, durationNanos, success);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FedizProcessingListener listener : listeners) {
+            if (listener instanceof Closeable) {
+                ((Closeable)listener).close();
+            }
+        }
+    }
+
+    private static List<FedizProcessingListener> flatten(FedizProcessingListener listener) {
+        if (listener instanceof CompositeProcessingListener) {
+            return ((CompositeProcessingListener)listener).getListeners();
+        }
+        return Collections.singletonList(listener);
+    }
+
+}
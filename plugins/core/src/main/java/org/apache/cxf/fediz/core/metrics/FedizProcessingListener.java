@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+
+/**
+ * Gets notified about the phases of processing a sign-in response by the FedizProcessor implementations, e.g. to
+ * record the time spent in each phase. The listeners of a FedizContext are called on the thread processing the
+ * request, so implementations must be thread safe and should return quickly.
+ *
+ * A phase which fails is not reported as completed. The failure is reported on the enclosing
+ * {@link ProcessingPhase#SIGN_IN} phase instead.
+ */
+public interface FedizProcessingListener {
+
+    /**
+     * Called once when the listener is added to a context.
+     */
+    default void init(FedizContext context) {
+    }
+
+    /**
+     * Called when a phase starts.
+     */
+    default void phaseStarted(ProcessingPhase phase, FedizContext context) {
+    }
+
+    /**
+     * Called when a phase has ended.
+     *
+     * @param durationNanos the time spent in the phase in nanoseconds
+     * @param success false if the sign-in has failed, only reported for {@link ProcessingPhase#SIGN_IN}
+     */
+    void phaseCompleted(ProcessingPhase phase, FedizContext context, long durationNanos, boolean success);
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.apache.cxf.fediz.core.config.FedizContext;
+
+/**
+ * Emits a JDK Flight Recorder event for each processing phase, with the duration of the phase. The events are
+ * named "org.apache.cxf.fediz.ProcessingPhase" and are only created while a recording has enabled them.
+ * Requires the JFR API of Java 8u262 or later.
+ */
+public class JfrProcessingListener implements FedizProcessingListener {
+
+    private static final ProcessingPhase[] PHASES = ProcessingPhase.values();
+
+    private static final ThreadLocal<PhaseEvent[]> EVENTS =
+        ThreadLocal.withInitial(() -> new PhaseEvent[PHASES.length]);
+
+    private final EventType eventType = EventType.getEventType(PhaseEvent.class);
+
+    @Override
+    public void phaseStarted(ProcessingPhase phase, FedizContext context) {
+        PhaseEvent event = null;
+        if (eventType.isEnabled()) {
+            event = new PhaseEvent();
+            event.begin();
+        }
+        // Always replace the slot, an event left over from an earlier phase must not be committed
+        EVENTS.get()[phase.ordinal()] = event;
+    }
+
+    @Override
+    public void phaseCompleted(ProcessingPhase phase, FedizContext context, long durationNanos, boolean success) {
+        PhaseEvent[] events = EVENTS.get();
+        PhaseEvent event = events[phase.ordinal()];
+        if (event == null) {
+            // The recording was started within the phase
+            return;
+        }
+        events[phase.ordinal()] = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name();
+            event.context = context.getName();
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Name("org.apache.cxf.fediz.ProcessingPhase")
+    @Label("Fediz Processing Phase")
+    @Category("Apache Fediz")
+    @Description("A phase of processing a sign-in response")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Context")
+        String context;
+
+        @Label("Success")
+        boolean success;
+
+    }
+
+}
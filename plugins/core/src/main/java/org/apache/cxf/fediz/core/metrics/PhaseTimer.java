@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+
+/**
+ * Reports the phases of processing a request to the FedizProcessingListener of a context. Without a listener
+ * this is a volatile read and a null check, so the processors can call it unconditionally.
+ */
+public final class PhaseTimer {
+
+    private PhaseTimer() {
+    }
+
+    /**
+     * Notify the listener of the context that a phase starts.
+     *
+     * @return the start time to be passed to {@link #end}, or 0 if there is no listener
+     */
+    public static long start(FedizContext context, ProcessingPhase phase) {
+        FedizProcessingListener listener = context.getProcessingListener();
+        if (listener == null) {
+            return 0L;
+        }
+        listener.phaseStarted(phase, context);
+        return System.nanoTime();
+    }
+
+    /**
+     * Notify the listener of the context that a phase has completed successfully.
+     */
+    public static void end(FedizContext context, ProcessingPhase phase, long startNanos) {
+        end(context, phase, startNanos, true);
+    }
+
+    /**
+     * Notify the listener of the context that a phase has ended.
+     */
+    public static void end(FedizContext context, ProcessingPhase phase, long startNanos, boolean success) {
+        FedizProcessingListener listener = context.getProcessingListener();
+        if (listener != null && startNanos != 0L) {
+            listener.phaseCompleted(phase, context, System.nanoTime() - startNanos, success);
+        }
+    }
+
+}
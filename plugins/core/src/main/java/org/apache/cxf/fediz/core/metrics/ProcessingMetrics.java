@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the processing phases and records their durations in a fixed histogram. Once added to a context, the
+ * metrics are registered with the platform MBeanServer as
+ * "org.apache.cxf.fediz:type=ProcessingMetrics,context=&lt;context name&gt;" and unregistered when the context
+ * is closed. Recording is lock free.
+ */
+public class ProcessingMetrics implements FedizProcessingListener, ProcessingMetricsMBean, Closeable {
+
+    public static final String JMX_DOMAIN = "org.apache.cxf.fediz";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingMetrics.class);
+
+    private static final long[] BUCKET_BOUNDS_NANOS = {
+        50000L, 100000L, 250000L, 500000L,
+        1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L,
+        100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L,
+    };
+
+    private static final ProcessingPhase[] PHASES = ProcessingPhase.values();
+
+    /**
+     * The metrics registered per ObjectName, so that a context replaced by a reload does not unregister the
+     * metrics of its successor.
+     */
+    private static final Map<ObjectName, ProcessingMetrics> REGISTERED = new ConcurrentHashMap<>();
+
+    private final PhaseStats[] stats = new PhaseStats[PHASES.length];
+    private final List<ObjectName> objectNames = new ArrayList<>();
+
+    public ProcessingMetrics() {
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new PhaseStats();
+        }
+    }
+
+    @Override
+    public void init(FedizContext context) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ProcessingMetrics,context="
+                                             + ObjectName.quote(String.valueOf(context.getName())));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (REGISTERED) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                REGISTERED.put(name, this);
+            }
+            synchronized (objectNames) {
+                objectNames.add(name);
+            }
+        } catch (JMException ex) {
+            LOG.warn("Failed to register the processing metrics of context {}: {}", context.getName(),
+                     ex.getMessage());
+        }
+    }
+
+    @Override
+    public void phaseCompleted(ProcessingPhase phase, FedizContext context, long durationNanos, boolean success) {
+        stats[phase.ordinal()].record(durationNanos, success);
+    }
+
+    /**
+     * Unregister the metrics from JMX.
+     */
+    @Override
+    public void close() {
+        List<ObjectName> names;
+        synchronized (objectNames) {
+            names = new ArrayList<>(objectNames);
+            objectNames.clear();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names) {
+            synchronized (REGISTERED) {
+                if (REGISTERED.remove(name, this)) {
+                    try {
+                        server.unregisterMBean(name);
+                    } catch (JMException ex) {
+                        LOG.debug("Failed to unregister {}: {}", name, ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String[] getPhases() {
+        String[] names = new String[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            names[i] = PHASES[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public String[] getSummary() {
+        String[] summary = new String[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            String phase = PHASES[i].name();
+            summary[i] = String.format(Locale.ENGLISH, "%s: count=%d failures=%d mean=%.3fms p99=%.3fms max=%.3fms",
+                                       phase, getCount(phase), getFailures(phase), getMeanMillis(phase),
+                                       getPercentileMillis(phase, 99.0), getMaxMillis(phase));
+        }
+        return summary;
+    }
+
+    @Override
+    public double[] getHistogramBoundsMillis() {
+        double[] bounds = new double[BUCKET_BOUNDS_NANOS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = toMillis(BUCKET_BOUNDS_NANOS[i]);
+        }
+        return bounds;
+    }
+
+    @Override
+    public long getCount(String phase) {
+        return getStats(phase).count.sum();
+    }
+
+    @Override
+    public long getFailures(String phase) {
+        return getStats(phase).failures.sum();
+    }
+
+    @Override
+    public double getMeanMillis(String phase) {
+        PhaseStats phaseStats = getStats(phase);
+        long count = phaseStats.count.sum();
+        return count == 0 ? 0.0 : toMillis(phaseStats.totalNanos.sum()) / count;
+    }
+
+    @Override
+    public double getMaxMillis(String phase) {
+        return toMillis(getStats(phase).maxNanos.get());
+    }
+
+    @Override
+    public double getPercentileMillis(String phase, double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        PhaseStats phaseStats = getStats(phase);
+        long[] histogram = phaseStats.getHistogram();
+        long total = 0;
+        for (long bucket : histogram) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        long rank = (long)Math.ceil(percentile * total / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(toMillis(BUCKET_BOUNDS_NANOS[i]), toMillis(phaseStats.maxNanos.get()));
+            }
+        }
+        return getMaxMillis(phase);
+    }
+
+    @Override
+    public long[] getHistogram(String phase) {
+        return getStats(phase).getHistogram();
+    }
+
+    @Override
+    public void reset() {
+        for (PhaseStats phaseStats : stats) {
+            phaseStats.reset();
+        }
+    }
+
+    private PhaseStats getStats(String phase) {
+        return stats[ProcessingPhase.valueOf(phase).ordinal()];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static final class PhaseStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+
+        PhaseStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationNanos, boolean success) {
+            count.increment();
+            if (!success) {
+                failures.increment();
+            }
+            totalNanos.add(durationNanos);
+            maxNanos.accumulate(durationNanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NANOS.length && durationNanos > BUCKET_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        long[] getHistogram() {
+            long[] histogram = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                histogram[i] = buckets[i].sum();
+            }
+            return histogram;
+        }
+
+        void reset() {
+            count.reset();
+            failures.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+
+}
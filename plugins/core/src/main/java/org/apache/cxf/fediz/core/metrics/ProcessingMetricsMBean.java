@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+/**
+ * The JMX view of ProcessingMetrics. Durations are reported in milliseconds.
+ */
+public interface ProcessingMetricsMBean {
+
+    /**
+     * @return the names of the processing phases
+     */
+    String[] getPhases();
+
+    /**
+     * @return one line per phase with the count, failures, mean, 99th percentile and maximum duration
+     */
+    String[] getSummary();
+
+    /**
+     * @return the upper bounds of the histogram buckets, the last bucket is unbounded
+     */
+    double[] getHistogramBoundsMillis();
+
+    long getCount(String phase);
+
+    long getFailures(String phase);
+
+    double getMeanMillis(String phase);
+
+    double getMaxMillis(String phase);
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the histogram bucket containing the percentile, at most the maximum
+     */
+    double getPercentileMillis(String phase, double percentile);
+
+    /**
+     * @return the number of phases completed per histogram bucket
+     */
+    long[] getHistogram(String phase);
+
+    void reset();
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+/**
+ * The phases of processing a sign-in response, as reported to a FedizProcessingListener.
+ */
+public enum ProcessingPhase {
+
+    /** The whole processing of a sign-in response, enclosing all other phases */
+    SIGN_IN,
+
+    /** Decoding and parsing the wresult or the SAML-P Response */
+    PARSE,
+
+    /** Decrypting an encrypted token */
+    DECRYPT,
+
+    /** Validating a SAML-P Response against the Web SSO profile */
+    RESPONSE_VALIDATION,
+
+    /** Verifying the signature of the token */
+    SIGNATURE,
+
+    /** Validating the trust in the certificate which signed the token */
+    TRUST,
+
+    /** Parsing the claims and roles of the token */
+    CLAIMS,
+
+    /** Checking the token against the replay cache and adding it */
+    REPLAY_CHECK
+
+}
@@ -31,6 +31,8 @@ import javax.servlet.http.HttpServletRequest;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.metrics.PhaseTimer;
+import org.apache.cxf.fediz.core.metrics.ProcessingPhase;
 import org.apache.cxf.fediz.core.spi.IDPCallback;
 import org.apache.cxf.fediz.core.spi.RealmCallback;
 import org.apache.cxf.fediz.core.util.StringUtils;
@@ -41,6 +43,19 @@ public abstract class AbstractFedizProcessor implements FedizProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractFedizProcessor.class);
 
+    private TokenPreValidator tokenPreValidator = new TokenPreValidator();
+
+    public TokenPreValidator getTokenPreValidator() {
+        return tokenPreValidator;
+    }
+
+    /**
+     * Set the validator which rejects tokens cheaply before their signature is verified
+     */
+    public void setTokenPreValidator(TokenPreValidator tokenPreValidator) {
+        this.tokenPreValidator = tokenPreValidator;
+    }
+
     protected String resolveIssuer(HttpServletRequest request, FedizContext config) throws IOException,
         UnsupportedCallbackException {
         Object issuerObj = config.getProtocol().getIssuer();
@@ -79,21 +94,28 @@ public abstract class AbstractFedizProcessor implements FedizProcessor {
         throws ProcessingException {
         // Check whether token already used for signin
         if (tokenId != null && config.isDetectReplayedTokens()) {
-            // Check whether token has already been processed once, prevent
-            // replay attack
-            if (!config.getTokenReplayCache().contains(tokenId)) {
-                // not cached
-                if (expires != null) {
-                    Instant now = Instant.now();
-                    long ttl = expires.getEpochSecond() - now.getEpochSecond();
-                    config.getTokenReplayCache().add(tokenId, ttl);
+            long start = PhaseTimer.start(config, ProcessingPhase.REPLAY_CHECK);
+            boolean success = false;
+            try {
+                // Check whether token has already been processed once, prevent
+                // replay attack
+                if (!config.getTokenReplayCache().contains(tokenId)) {
+                    // not cached
+                    if (expires != null) {
+                        Instant now = Instant.now();
+                        long ttl = expires.getEpochSecond() - now.getEpochSecond();
+                        config.getTokenReplayCache().add(tokenId, ttl);
+                    } else {
+                        config.getTokenReplayCache().add(tokenId);
+                    }
                 } else {
-                    config.getTokenReplayCache().add(tokenId);
+                    LOG.error("Replay attack with token id: " + tokenId);
+                    throw new ProcessingException("Replay attack with token id: "
+                            + tokenId, TYPE.TOKEN_REPLAY);
                 }
-            } else {
-                LOG.error("Replay attack with token id: " + tokenId);
-                throw new ProcessingException("Replay attack with token id: "
-                        + tokenId, TYPE.TOKEN_REPLAY);
+                success = true;
+            } finally {
+                PhaseTimer.end(config, ProcessingPhase.REPLAY_CHECK, start, success);
             }
         }
     }
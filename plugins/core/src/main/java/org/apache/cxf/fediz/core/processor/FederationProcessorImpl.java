@@ -20,7 +20,6 @@
 package org.apache.cxf.fediz.core.processor;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -28,9 +27,7 @@ import java.net.URLEncoder;
 import java.security.cert.Certificate;
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +55,8 @@ import org.apache.cxf.fediz.core.config.KeyManager;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
 import org.apache.cxf.fediz.core.metadata.MetadataWriter;
+import org.apache.cxf.fediz.core.metrics.PhaseTimer;
+import org.apache.cxf.fediz.core.metrics.ProcessingPhase;
 import org.apache.cxf.fediz.core.spi.FreshnessCallback;
 import org.apache.cxf.fediz.core.spi.HomeRealmCallback;
 import org.apache.cxf.fediz.core.spi.ReplyCallback;
@@ -66,20 +65,14 @@ import org.apache.cxf.fediz.core.spi.SignInQueryCallback;
 import org.apache.cxf.fediz.core.spi.SignOutQueryCallback;
 import org.apache.cxf.fediz.core.spi.WAuthCallback;
 import org.apache.cxf.fediz.core.spi.WReqCallback;
-import org.apache.cxf.fediz.core.util.DOMUtils;
-import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.common.util.DateUtil;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
-import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
-import org.apache.wss4j.dom.handler.RequestData;
-import org.apache.wss4j.dom.processor.EncryptedDataProcessor;
-import org.apache.wss4j.dom.processor.Processor;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,6 +85,8 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         WSSConfig.init();
     }
 
+    private WResultParser wresultParser = new WResultParser();
+
     /**
      * Default constructor
      */
@@ -99,6 +94,17 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         super();
     }
 
+    public WResultParser getWResultParser() {
+        return wresultParser;
+    }
+
+    /**
+     * Set the parser used for the wresult parameter, e.g. to adjust its size limits
+     */
+    public void setWResultParser(WResultParser parser) {
+        this.wresultParser = parser;
+    }
+
     @Override
     public FedizResponse processRequest(FedizRequest request, FedizContext config) throws ProcessingException {
 
@@ -108,7 +114,14 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         }
         FedizResponse response = null;
         if (FederationConstants.ACTION_SIGNIN.equals(request.getAction())) {
-            response = this.processSignInRequest(request, config);
+            long start = PhaseTimer.start(config, ProcessingPhase.SIGN_IN);
+            boolean success = false;
+            try {
+                response = this.processSignInRequest(request, config);
+                success = true;
+            } finally {
+                PhaseTimer.end(config, ProcessingPhase.SIGN_IN, start, success);
+            }
         } else {
             LOG.error("Invalid action '" + request.getAction() + "'");
             throw new ProcessingException(TYPE.INVALID_REQUEST);
@@ -122,51 +135,20 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
 
     protected FedizResponse processSignInRequest(FedizRequest request, FedizContext config) throws ProcessingException {
 
-        Document doc = null;
-        Element el = null;
+        long start = PhaseTimer.start(config, ProcessingPhase.PARSE);
+        WResultParser.WResult wresult;
+        boolean success = false;
         try {
-            doc = DOMUtils.readXml(new StringReader(request.getResponseToken()));
-            el = doc.getDocumentElement();
-
-        } catch (Exception e) {
-            LOG.warn("Failed to parse wresult: " + e.getMessage(), e);
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
-
-        if ("RequestSecurityTokenResponseCollection".equals(el.getLocalName())) {
-            el = DOMUtils.getFirstElement(el);
-        }
-        if (el == null || !"RequestSecurityTokenResponse".equals(el.getLocalName())) {
-            LOG.warn("Unexpected root element of wresult: '" + el.getLocalName() + "'");
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
-        el = DOMUtils.getFirstElement(el);
-        Element rst = null;
-        Element lifetimeElem = null;
-        String tt = null;
-
-        while (el != null) {
-            String ln = el.getLocalName();
-            if (FederationConstants.WS_TRUST_13_NS.equals(el.getNamespaceURI())
-                || FederationConstants.WS_TRUST_2005_02_NS.equals(el.getNamespaceURI())) {
-                if ("Lifetime".equals(ln)) {
-                    lifetimeElem = el;
-                } else if ("RequestedSecurityToken".equals(ln)) {
-                    rst = DOMUtils.getFirstElement(el);
-                } else if ("TokenType".equals(ln)) {
-                    tt = DOMUtils.getContent(el);
-                }
-            }
-            el = DOMUtils.getNextElement(el);
+            wresult = wresultParser.parse(request.getResponseToken());
+            success = true;
+        } finally {
+            PhaseTimer.end(config, ProcessingPhase.PARSE, start, success);
         }
+        Element rst = wresult.getRequestedSecurityToken();
+        String tt = wresult.getTokenType();
 
-        if (LOG.isDebugEnabled()) {
-            if (rst != null) {
-                LOG.debug("RST: {}", DOM2Writer.nodeToString(rst));
-            }
-            if (lifetimeElem != null) {
-                LOG.debug("Lifetime: {}", DOM2Writer.nodeToString(lifetimeElem));
-            }
+        if (LOG.isDebugEnabled() && rst != null) {
+            LOG.debug("RST: {}", DOM2Writer.nodeToString(rst));
         }
         LOG.debug("Tokentype: {}", tt);
 
@@ -174,10 +156,7 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
             LOG.warn("RequestedSecurityToken element not found in wresult");
             throw new ProcessingException(TYPE.BAD_REQUEST);
         }
-        LifeTime lifeTime = null;
-        if (lifetimeElem != null) {
-            lifeTime = processLifeTime(lifetimeElem);
-        }
+        LifeTime lifeTime = wresult.getLifeTime();
 
         if (lifeTime != null) {
             Instant rightNow = Instant.now();
@@ -196,12 +175,23 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
 
         // Check to see if RST is encrypted
         if ("EncryptedData".equals(rst.getLocalName()) && WSConstants.ENC_NS.equals(rst.getNamespaceURI())) {
-            Element decryptedRST = decryptEncryptedRST(rst, config);
+            start = PhaseTimer.start(config, ProcessingPhase.DECRYPT);
+            Element decryptedRST;
+            success = false;
+            try {
+                decryptedRST = decryptEncryptedRST(rst, config);
+                success = true;
+            } finally {
+                PhaseTimer.end(config, ProcessingPhase.DECRYPT, start, success);
+            }
             if (decryptedRST != null) {
                 rst = decryptedRST;
             }
         }
 
+        // Reject replayed or expired tokens before the signature is verified
+        getTokenPreValidator().preValidate(rst, config, null);
+
         TokenValidatorResponse validatorResponse = validateToken(rst, tt, config, request.getCerts());
 
         // Check whether token already used for signin
@@ -274,21 +264,8 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
             throw new ProcessingException(TYPE.BAD_REQUEST);
         }
 
-        EncryptedDataProcessor proc = new EncryptedDataProcessor();
-        WSDocInfo docInfo = new WSDocInfo(encryptedRST.getOwnerDocument());
-        RequestData data = new RequestData();
-        data.setWsDocInfo(docInfo);
-
-        // Disable WSS4J processing of the (decrypted) SAML Token
-        WSSConfig wssConfig = WSSConfig.getNewInstance();
-        wssConfig.setProcessor(WSConstants.SAML_TOKEN, new NOOpProcessor());
-        wssConfig.setProcessor(WSConstants.SAML2_TOKEN, new NOOpProcessor());
-        data.setWssConfig(wssConfig);
-
-        data.setDecCrypto(decryptionKeyManager.getCrypto());
-        data.setCallbackHandler(new DecryptionCallbackHandler(keyPassword));
         try {
-            List<WSSecurityEngineResult> result = proc.handleToken(encryptedRST, data);
+            List<WSSecurityEngineResult> result = config.getDecryptionEngine().decrypt(encryptedRST);
             if (!result.isEmpty()) {
                 @SuppressWarnings("unchecked")
                 List<WSDataRef> dataRefs = (List<WSDataRef>)result.get(result.size() - 1)
@@ -304,19 +281,6 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         return null;
     }
 
-    private LifeTime processLifeTime(Element lifetimeElem) throws ProcessingException {
-        Element createdElem = DOMUtils.getFirstChildWithName(lifetimeElem, WSConstants.WSU_NS,
-                                                             WSConstants.CREATED_LN);
-
-        ZonedDateTime createdDateTime = ZonedDateTime.parse(DOMUtils.getContent(createdElem));
-
-        Element expiresElem = DOMUtils.getFirstChildWithName(lifetimeElem, WSConstants.WSU_NS,
-                                                             WSConstants.EXPIRES_LN);
-        ZonedDateTime expiresDateTime = ZonedDateTime.parse(DOMUtils.getContent(expiresElem));
-
-        return new LifeTime(createdDateTime.toInstant(), expiresDateTime.toInstant());
-    }
-
     public static class LifeTime {
 
         private final Instant created;
@@ -770,36 +734,4 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         }
     }
 
-    private static class DecryptionCallbackHandler implements CallbackHandler {
-
-        private final String password;
-
-        DecryptionCallbackHandler(String password) {
-            this.password = password;
-        }
-
-        @Override
-        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
-            for (int i = 0; i < callbacks.length; i++) {
-                if (callbacks[i] instanceof WSPasswordCallback) {
-                    WSPasswordCallback pc = (WSPasswordCallback)callbacks[i];
-                    pc.setPassword(password);
-                } else {
-                    throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
-                }
-            }
-        }
-
-    }
-
-    private static class NOOpProcessor implements Processor {
-
-        @Override
-        public List<WSSecurityEngineResult> handleToken(Element arg0, RequestData arg1)
-            throws WSSecurityException {
-            return Collections.emptyList();
-        }
-
-    }
-
 }
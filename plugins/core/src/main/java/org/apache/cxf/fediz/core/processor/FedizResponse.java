@@ -23,44 +23,37 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.io.StringReader;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.XMLStreamException;
-
 import org.w3c.dom.Element;
 
-import org.xml.sax.SAXException;
-
 import org.apache.cxf.fediz.core.Claim;
-import org.apache.cxf.fediz.core.util.DOMUtils;
-import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.cxf.fediz.core.util.CompactCodec;
 
 public class FedizResponse implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private String audience;
-    private String username;
-    private List<String> roles;
-    private String issuer;
-    private List<Claim> claims;
+    // Serialized in the compact format of CompactCodec
+    private transient String audience;
+    private transient String username;
+    private transient List<String> roles;
+    private transient String issuer;
+    private transient List<Claim> claims;
     private transient Element token;
-    private String tokenStr;
-    private String uniqueTokenId;
+    private transient String uniqueTokenId;
 
     /**
      * Created time
      */
-    private Instant tokenCreated;
+    private transient Instant tokenCreated;
 
     /**
      * Expiration time
      */
-    private Instant tokenExpires;
+    private transient Instant tokenExpires;
 
     //CHECKSTYLE:OFF
     public FedizResponse(String username, String issuer, List<String> roles, List<Claim> claims, String audience,
@@ -119,18 +112,32 @@ public class FedizResponse implements Serializable {
     }
 
     private void writeObject(ObjectOutputStream stream) throws IOException {
-        if (token != null && tokenStr == null) {
-            tokenStr = DOM2Writer.nodeToString(token);
-        }
         stream.defaultWriteObject();
+        CompactCodec.Writer writer = CompactCodec.newWriter(stream);
+        writer.writeVersion();
+        writer.writeString(username);
+        writer.writeString(issuer);
+        writer.writeString(audience);
+        writer.writeString(uniqueTokenId);
+        writer.writeStrings(roles);
+        writer.writeClaims(claims);
+        writer.writeInstant(tokenCreated);
+        writer.writeInstant(tokenExpires);
+        writer.writeElement(token);
     }
 
-    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException,
-        XMLStreamException, SAXException, ParserConfigurationException {
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-
-        if (token == null && tokenStr != null) {
-            token = DOMUtils.readXml(new StringReader(tokenStr)).getDocumentElement();
-        }
+        CompactCodec.Reader reader = CompactCodec.newReader(in);
+        reader.readVersion();
+        username = reader.readString();
+        issuer = reader.readString();
+        audience = reader.readString();
+        uniqueTokenId = reader.readString();
+        roles = reader.readStrings(true);
+        claims = reader.readClaims();
+        tokenCreated = reader.readInstant();
+        tokenExpires = reader.readInstant();
+        token = reader.readElement();
     }
 }
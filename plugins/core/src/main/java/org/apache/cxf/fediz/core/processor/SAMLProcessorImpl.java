@@ -24,8 +24,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.Signature;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.Collections;
@@ -45,21 +43,23 @@ import org.apache.cxf.fediz.core.TokenValidatorRequest;
 import org.apache.cxf.fediz.core.TokenValidatorResponse;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
+import org.apache.cxf.fediz.core.config.SigningCredential;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
 import org.apache.cxf.fediz.core.metadata.MetadataWriter;
-import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
+import org.apache.cxf.fediz.core.metrics.PhaseTimer;
+import org.apache.cxf.fediz.core.metrics.ProcessingPhase;
+import org.apache.cxf.fediz.core.samlsso.DeflateCodec;
 import org.apache.cxf.fediz.core.samlsso.SAMLPRequestBuilder;
 import org.apache.cxf.fediz.core.samlsso.SAMLProtocolResponseValidator;
 import org.apache.cxf.fediz.core.samlsso.SAMLSSOResponseValidator;
 import org.apache.cxf.fediz.core.samlsso.SSOValidatorResponse;
+import org.apache.cxf.fediz.core.samlsso.TemplateSAMLPRequestBuilder;
 import org.apache.cxf.fediz.core.util.DOMUtils;
-import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.common.util.DOM2Writer;
-import org.apache.wss4j.dom.WSConstants;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.AuthnRequest;
@@ -76,6 +76,8 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         OpenSAMLUtil.initSamlEngine();
     }
 
+    private DeflateCodec deflateCodec = DeflateCodec.getInstance();
+
     /**
      * Default constructor
      */
@@ -83,6 +85,17 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         super();
     }
 
+    public DeflateCodec getDeflateCodec() {
+        return deflateCodec;
+    }
+
+    /**
+     * Set the codec used to inflate responses and deflate requests, e.g. to adjust the maximum inflated size
+     */
+    public void setDeflateCodec(DeflateCodec deflateCodec) {
+        this.deflateCodec = deflateCodec;
+    }
+
     @Override
     public FedizResponse processRequest(FedizRequest request,
                                              FedizContext config)
@@ -107,7 +120,15 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             throw new ProcessingException(TYPE.INVALID_REQUEST);
         }
 
-        return processSignInRequest(request, config);
+        long start = PhaseTimer.start(config, ProcessingPhase.SIGN_IN);
+        boolean success = false;
+        try {
+            FedizResponse response = processSignInRequest(request, config);
+            success = true;
+            return response;
+        } finally {
+            PhaseTimer.end(config, ProcessingPhase.SIGN_IN, start, success);
+        }
     }
 
 
@@ -132,49 +153,73 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         RequestState requestState =
             processRelayState(request.getState(), request.getRequestState());
 
-        InputStream tokenStream = null;
+        long start = PhaseTimer.start(config, ProcessingPhase.PARSE);
+        boolean success = false;
+        Element el = null;
+        XMLObject responseObject = null;
         try {
-            byte[] deflatedToken = Base64.getDecoder().decode(request.getResponseToken());
-            if (protocol.isDisableDeflateEncoding()) {
-                tokenStream = new ByteArrayInputStream(deflatedToken);
-            } else {
-                tokenStream = CompressionUtils.inflate(deflatedToken);
+            InputStream tokenStream = null;
+            try {
+                byte[] deflatedToken = Base64.getDecoder().decode(request.getResponseToken());
+                if (protocol.isDisableDeflateEncoding()) {
+                    tokenStream = new ByteArrayInputStream(deflatedToken);
+                } else {
+                    tokenStream = deflateCodec.inflate(deflatedToken);
+                }
+            } catch (IllegalArgumentException | DataFormatException ex) {
+                LOG.warn("Invalid data format", ex);
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
             }
-        } catch (IllegalArgumentException | DataFormatException ex) {
-            LOG.warn("Invalid data format", ex);
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
 
-        Document doc = null;
-        Element el = null;
-        try {
-            doc = DOMUtils.readXml(tokenStream);
-            el = doc.getDocumentElement();
+            try {
+                Document doc = DOMUtils.readXml(tokenStream);
+                el = doc.getDocumentElement();
 
-        } catch (Exception e) {
-            LOG.warn("Failed to parse token", e);
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
+            } catch (Exception e) {
+                LOG.warn("Failed to parse token", e);
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
 
-        LOG.debug("Received response: " + DOM2Writer.nodeToString(el));
+            LOG.debug("Received response: " + DOM2Writer.nodeToString(el));
 
-        XMLObject responseObject = null;
-        try {
-            responseObject = OpenSAMLUtil.fromDom(el);
-        } catch (WSSecurityException ex) {
-            LOG.debug(ex.getMessage(), ex);
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
+            try {
+                responseObject = OpenSAMLUtil.fromDom(el);
+            } catch (WSSecurityException ex) {
+                LOG.debug(ex.getMessage(), ex);
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+            if (!(responseObject instanceof org.opensaml.saml.saml2.core.Response)) {
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+            success = true;
+        } finally {
+            PhaseTimer.end(config, ProcessingPhase.PARSE, start, success);
         }
-        if (!(responseObject instanceof org.opensaml.saml.saml2.core.Response)) {
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
+
+        // Reject replayed or expired tokens before any signature is verified
+        Element firstAssertion = DOMUtils.getFirstChildWithName(el, SAMLConstants.SAML20_NS, "Assertion");
+        if (firstAssertion != null) {
+            String knownIssuer = null;
+            if (!protocol.isDoNotEnforceKnownIssuer() && requestState != null) {
+                knownIssuer = requestState.getIdpServiceAddress();
+            }
+            getTokenPreValidator().preValidate(firstAssertion, config, knownIssuer);
         }
 
         // Validate the Response
-        validateSamlResponseProtocol((org.opensaml.saml.saml2.core.Response)responseObject, config);
-
-        SSOValidatorResponse ssoValidatorResponse =
-            validateSamlSSOResponse((org.opensaml.saml.saml2.core.Response)responseObject,
-                                request.getRequest(), requestState, config);
+        start = PhaseTimer.start(config, ProcessingPhase.RESPONSE_VALIDATION);
+        SSOValidatorResponse ssoValidatorResponse;
+        success = false;
+        try {
+            validateSamlResponseProtocol((org.opensaml.saml.saml2.core.Response)responseObject, config);
+
+            ssoValidatorResponse =
+                validateSamlSSOResponse((org.opensaml.saml.saml2.core.Response)responseObject,
+                                    request.getRequest(), requestState, config);
+            success = true;
+        } finally {
+            PhaseTimer.end(config, ProcessingPhase.RESPONSE_VALIDATION, start, success);
+        }
 
         // Validate the internal assertion(s)
         TokenValidatorResponse validatorResponse = null;
@@ -241,7 +286,7 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             if (protocol.isDisableDeflateEncoding()) {
                 tokenStream = new ByteArrayInputStream(deflatedToken);
             } else {
-                tokenStream = CompressionUtils.inflate(deflatedToken);
+                tokenStream = deflateCodec.inflate(deflatedToken);
             }
         } catch (IllegalArgumentException | DataFormatException ex) {
             LOG.warn("Invalid data format", ex);
@@ -371,29 +416,48 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             SAMLPRequestBuilder samlpRequestBuilder =
                 ((SAMLProtocol)config.getProtocol()).getSAMLPRequestBuilder();
 
-            Document doc = DOMUtils.createDocument();
-            doc.appendChild(doc.createElement("root"));
-
             // Create the AuthnRequest
             String requestURL = request.getRequestURL().toString();
             String realm = resolveWTRealm(request, config);
-            AuthnRequest authnRequest =
-                samlpRequestBuilder.createAuthnRequest(realm, requestURL);
-
-            if (((SAMLProtocol)config.getProtocol()).isSignRequest()) {
-                authnRequest.setDestination(redirectURL);
+            String destination = ((SAMLProtocol)config.getProtocol()).isSignRequest() ? redirectURL : null;
+
+            String requestId = null;
+            String webAppContext = null;
+            String authnRequestEncoded = null;
+            if (samlpRequestBuilder instanceof TemplateSAMLPRequestBuilder) {
+                requestId = UUID.randomUUID().toString();
+                byte[] authnRequestBytes = ((TemplateSAMLPRequestBuilder)samlpRequestBuilder)
+                    .createAuthnRequestBytes(realm, requestURL, destination, requestId);
+                if (authnRequestBytes != null) {
+                    webAppContext = realm;
+                    authnRequestEncoded = encodeRequest(authnRequestBytes);
+                }
             }
 
-            Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
-            String authnRequestEncoded = encodeAuthnRequest(authnRequestElement);
+            if (authnRequestEncoded == null) {
+                Document doc = DOMUtils.createDocument();
+                doc.appendChild(doc.createElement("root"));
+
+                AuthnRequest authnRequest =
+                    samlpRequestBuilder.createAuthnRequest(realm, requestURL);
+
+                if (destination != null) {
+                    authnRequest.setDestination(destination);
+                }
+
+                Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
+                authnRequestEncoded = encodeAuthnRequest(authnRequestElement);
+                requestId = authnRequest.getID();
+                webAppContext = authnRequest.getIssuer().getValue();
+            }
 
             String relayState = URLEncoder.encode(UUID.randomUUID().toString(), "UTF-8");
             RequestState requestState = new RequestState();
             requestState.setTargetAddress(requestURL);
             requestState.setIdpServiceAddress(redirectURL);
-            requestState.setRequestId(authnRequest.getID());
+            requestState.setRequestId(requestId);
             requestState.setIssuerId(realm);
-            requestState.setWebAppContext(authnRequest.getIssuer().getValue());
+            requestState.setWebAppContext(webAppContext);
             requestState.setState(relayState);
             requestState.setCreatedAt(System.currentTimeMillis());
 
@@ -431,47 +495,18 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         FedizContext config,
         StringBuilder sb
     ) throws Exception {
-        Crypto crypto = config.getSigningKey().getCrypto();
-        if (crypto == null) {
-            LOG.debug("No crypto instance of properties file configured for signature");
-            throw new ProcessingException("Failed to Sign Request");
-        }
-        String signatureUser = config.getSigningKey().getKeyAlias();
-        if (signatureUser == null) {
-            LOG.debug("No user configured for signature");
-            throw new ProcessingException("Failed to Sign Request");
-        }
-        String signaturePassword = config.getSigningKey().getKeyPassword();
-        if (signaturePassword == null) {
-            LOG.debug("No signature password available");
-            throw new ProcessingException("Failed to Sign Request");
+        SigningCredential credential = config.getSigningCredential();
+        String sigAlgo = ((SAMLProtocol)config.getProtocol()).getSignatureAlgorithm();
+        if (sigAlgo == null) {
+            sigAlgo = credential.getDefaultSignatureAlgorithm();
         }
-
-        // Get the private key
-        PrivateKey privateKey = crypto.getPrivateKey(signatureUser, signaturePassword);
-        if (privateKey == null) {
-            LOG.debug("No private key available");
-            throw new ProcessingException("Failed to Sign Request");
-        }
-
-        String sigAlgo = WSConstants.RSA_SHA1;
-        String jceSigAlgo = "SHA1withRSA";
-        LOG.debug("automatic sig algo detection: " + privateKey.getAlgorithm());
-        if (privateKey.getAlgorithm().equalsIgnoreCase("DSA")) {
-            sigAlgo = WSConstants.DSA;
-            jceSigAlgo = "SHA1withDSA";
-        }
-        LOG.debug("Using Signature algorithm " + sigAlgo);
+        LOG.debug("Using Signature algorithm {}", sigAlgo);
 
         // Sign the request
-        Signature signature = Signature.getInstance(jceSigAlgo);
-        signature.initSign(privateKey);
-
         sb.append("&" + SAMLSSOConstants.SIG_ALG).append('=').append(URLEncoder.encode(sigAlgo, "UTF-8"));
         String requestToSign = sb.toString();
 
-        signature.update(requestToSign.getBytes(StandardCharsets.UTF_8));
-        byte[] signBytes = signature.sign();
+        byte[] signBytes = credential.sign(sigAlgo, requestToSign.getBytes(StandardCharsets.UTF_8));
 
         String encodedSignature = Base64.getEncoder().encodeToString(signBytes);
 
@@ -481,7 +516,14 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
     protected String encodeAuthnRequest(Element authnRequest) throws IOException {
         String requestMessage = DOM2Writer.nodeToString(authnRequest);
 
-        byte[] deflatedBytes = CompressionUtils.deflate(requestMessage.getBytes(StandardCharsets.UTF_8));
+        return encodeRequest(requestMessage.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deflate and base64 encode a serialized request for the redirect binding
+     */
+    protected String encodeRequest(byte[] request) throws IOException {
+        byte[] deflatedBytes = deflateCodec.deflate(request);
 
         return Base64.getEncoder().encodeToString(deflatedBytes);
     }
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.processor;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.PreValidationCheck;
+import org.apache.cxf.fediz.core.config.TrustedIssuer;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs cheap checks on a SAML assertion before its signature is verified, so that replayed, expired or
+ * misdirected tokens are rejected without any cryptography. The checks only read the DOM of the unverified
+ * assertion. They never accept a token, the authoritative checks still run after the signature has been
+ * verified. The checks to run and their order are configured per context, see
+ * {@link FedizContext#getTokenPreValidation()}. Tokens other than SAML 1.1 and SAML 2.0 assertions are
+ * passed on unchecked.
+ */
+public class TokenPreValidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenPreValidator.class);
+
+    /**
+     * Check the token.
+     *
+     * @param token the (decrypted) token
+     * @param knownIssuer the issuer the token is expected from, if the protocol knows it, or null
+     * @throws ProcessingException if the token fails one of the checks
+     */
+    public void preValidate(Element token, FedizContext config, String knownIssuer) throws ProcessingException {
+        List<PreValidationCheck> checks = config.getTokenPreValidation();
+        if (checks.isEmpty() || token == null || !"Assertion".equals(token.getLocalName())) {
+            return;
+        }
+        boolean saml2 = SAMLConstants.SAML20_NS.equals(token.getNamespaceURI());
+        if (!saml2 && !SAMLConstants.SAML1_NS.equals(token.getNamespaceURI())) {
+            return;
+        }
+
+        for (PreValidationCheck check : checks) {
+            switch (check) {
+            case REPLAY:
+                checkReplay(token, saml2, config);
+                break;
+            case EXPIRY:
+                checkExpiry(token, saml2, config);
+                break;
+            case AUDIENCE:
+                checkAudience(token, saml2, config);
+                break;
+            case ISSUER:
+                checkIssuer(token, saml2, config, knownIssuer);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    protected void checkReplay(Element token, boolean saml2, FedizContext config) throws ProcessingException {
+        String id = token.getAttributeNS(null, saml2 ? "ID" : "AssertionID");
+        if (!id.isEmpty() && config.isDetectReplayedTokens() && config.getTokenReplayCache().contains(id)) {
+            LOG.error("Replay attack with token id: " + id);
+            throw new ProcessingException("Replay attack with token id: " + id, TYPE.TOKEN_REPLAY);
+        }
+    }
+
+    protected void checkExpiry(Element token, boolean saml2, FedizContext config) throws ProcessingException {
+        Element conditions = getConditions(token, saml2);
+        if (conditions == null || !config.isDetectExpiredTokens()) {
+            return;
+        }
+        String notOnOrAfter = conditions.getAttributeNS(null, "NotOnOrAfter");
+        if (notOnOrAfter.isEmpty()) {
+            return;
+        }
+        Instant validTill;
+        try {
+            validTill = OffsetDateTime.parse(notOnOrAfter).toInstant();
+        } catch (DateTimeParseException ex) {
+            // Leave it to the authoritative check
+            return;
+        }
+        long clockSkew = config.getMaximumClockSkew().longValue();
+        if (validTill.plusSeconds(clockSkew).isBefore(Instant.now())) {
+            LOG.warn("Security token expired");
+            throw new ProcessingException(TYPE.TOKEN_EXPIRED);
+        }
+    }
+
+    protected void checkAudience(Element token, boolean saml2, FedizContext config) throws ProcessingException {
+        // The audience of the token is the first audience of the first restriction, as in the SAMLTokenValidator
+        String audience = null;
+        Element conditions = getConditions(token, saml2);
+        if (conditions != null) {
+            String ns = token.getNamespaceURI();
+            Element restriction = DOMUtils.getFirstChildWithName(conditions, ns,
+                saml2 ? "AudienceRestriction" : "AudienceRestrictionCondition");
+            Element audienceElement =
+                restriction != null ? DOMUtils.getFirstChildWithName(restriction, ns, "Audience") : null;
+            if (audienceElement != null) {
+                audience = DOMUtils.getContent(audienceElement);
+            }
+        }
+
+        // Same rule as the SigninHandler applies after validation
+        List<String> audienceURIs = config.getAudienceUris();
+        if (audience == null) {
+            if (audienceURIs.isEmpty()) {
+                return;
+            }
+        } else {
+            for (String a : audienceURIs) {
+                if (audience.startsWith(a)) {
+                    return;
+                }
+            }
+        }
+        LOG.warn("Token AudienceRestriction [{}] doesn't match with specified list of URIs.", audience);
+        throw new ProcessingException(TYPE.TOKEN_INVALID);
+    }
+
+    protected void checkIssuer(Element token, boolean saml2, FedizContext config, String knownIssuer)
+        throws ProcessingException {
+        String issuer;
+        if (saml2) {
+            Element issuerElement = DOMUtils.getFirstChildWithName(token, SAMLConstants.SAML20_NS, "Issuer");
+            issuer = issuerElement != null ? DOMUtils.getContent(issuerElement) : null;
+        } else {
+            issuer = token.getAttributeNS(null, "Issuer");
+        }
+        if (issuer == null || issuer.isEmpty()) {
+            LOG.warn("Security token has no issuer");
+            throw new ProcessingException(TYPE.ISSUER_NOT_TRUSTED);
+        }
+
+        if (knownIssuer != null) {
+            // Issuer value must be contained in the known issuer, as in the SAMLSSOResponseValidator
+            if (!knownIssuer.startsWith(issuer)) {
+                LOG.warn("Issuer '{}' does not match the expected issuer '{}'", issuer, knownIssuer);
+                throw new ProcessingException(TYPE.ISSUER_NOT_TRUSTED);
+            }
+            return;
+        }
+
+        // Otherwise the issuer must be the token issuer of a trusted issuer, if any is configured
+        boolean configured = false;
+        for (TrustedIssuer trustedIssuer : config.getTrustedIssuers()) {
+            String tokenIssuer = trustedIssuer.getTokenIssuer();
+            if (tokenIssuer != null && !tokenIssuer.isEmpty()) {
+                if (tokenIssuer.equals(issuer)) {
+                    return;
+                }
+                configured = true;
+            }
+        }
+        if (configured) {
+            LOG.warn("Issuer '{}' not trusted", issuer);
+            throw new ProcessingException(TYPE.ISSUER_NOT_TRUSTED);
+        }
+    }
+
+    private static Element getConditions(Element token, boolean saml2) {
+        return DOMUtils.getFirstChildWithName(token, token.getNamespaceURI(), "Conditions");
+    }
+
+}
@@ -0,0 +1,429 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.processor;
+
+import java.io.StringReader;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.processor.FederationProcessorImpl.LifeTime;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming parser for the WS-Federation wresult parameter. The RequestSecurityTokenResponse
+ * (Collection) envelope is read with StAX. Only the RequestedSecurityToken element is materialised
+ * as DOM, including all namespace declarations in scope so that signatures over the token can be
+ * verified. Limits on the size, the nesting depth and the number of elements are enforced while
+ * reading, before any DOM is built.
+ */
+public class WResultParser {
+
+    public static final int DEFAULT_MAX_LENGTH = 2 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_DEPTH = 64;
+
+    public static final int DEFAULT_MAX_ELEMENT_COUNT = 50000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(WResultParser.class);
+
+    private int maxLength = DEFAULT_MAX_LENGTH;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int maxElementCount = DEFAULT_MAX_ELEMENT_COUNT;
+
+    /**
+     * Parse the given wresult.
+     * @param wresult the serialized RequestSecurityTokenResponse(Collection)
+     * @return the parsed wresult
+     * @throws ProcessingException if the wresult is malformed or exceeds one of the limits
+     */
+    public WResult parse(String wresult) throws ProcessingException {
+        if (wresult == null) {
+            LOG.warn("No wresult provided");
+            throw new ProcessingException(TYPE.INVALID_REQUEST);
+        }
+        if (maxLength > 0 && wresult.length() > maxLength) {
+            LOG.warn("wresult exceeds the maximum length of {} characters", maxLength);
+            throw new ProcessingException(TYPE.INVALID_REQUEST);
+        }
+
+        XMLStreamReader reader = null;
+        try {
+            reader = DOMUtils.getXMLInputFactory().createXMLStreamReader(new StringReader(wresult));
+            return new ParseState(reader).parse();
+        } catch (XMLStreamException ex) {
+            LOG.warn("Failed to parse wresult: " + ex.getMessage(), ex);
+            throw new ProcessingException(TYPE.INVALID_REQUEST);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    LOG.debug("Failed to close XMLStreamReader", ex);
+                }
+            }
+        }
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Set the maximum length of the wresult in characters. A value <= 0 disables the check.
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Set the maximum element nesting depth. A value <= 0 disables the check.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxElementCount() {
+        return maxElementCount;
+    }
+
+    /**
+     * Set the maximum number of elements in the wresult. A value <= 0 disables the check.
+     */
+    public void setMaxElementCount(int maxElementCount) {
+        this.maxElementCount = maxElementCount;
+    }
+
+    private static boolean isWSTrustNamespace(String ns) {
+        return FederationConstants.WS_TRUST_13_NS.equals(ns)
+            || FederationConstants.WS_TRUST_2005_02_NS.equals(ns);
+    }
+
+    /**
+     * The relevant content of a wresult
+     */
+    public static class WResult {
+
+        private final Element requestedSecurityToken;
+        private final LifeTime lifeTime;
+        private final String tokenType;
+
+        public WResult(Element requestedSecurityToken, LifeTime lifeTime, String tokenType) {
+            this.requestedSecurityToken = requestedSecurityToken;
+            this.lifeTime = lifeTime;
+            this.tokenType = tokenType;
+        }
+
+        /**
+         * @return the first child element of the RequestedSecurityToken or null if there is none
+         */
+        public Element getRequestedSecurityToken() {
+            return requestedSecurityToken;
+        }
+
+        public LifeTime getLifeTime() {
+            return lifeTime;
+        }
+
+        public String getTokenType() {
+            return tokenType;
+        }
+
+    }
+
+    /**
+     * The state of a single parse run
+     */
+    private class ParseState {
+
+        private final XMLStreamReader reader;
+
+        /**
+         * The namespace declarations of each open element, indexed by depth
+         */
+        private final List<Map<String, String>> namespaces = new ArrayList<>();
+
+        private int depth;
+        private int elementCount;
+
+        ParseState(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        WResult parse() throws XMLStreamException, ProcessingException {
+            if (!nextStartElement()) {
+                LOG.warn("No root element found in wresult");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+            if ("RequestSecurityTokenResponseCollection".equals(reader.getLocalName()) && !nextStartElement()) {
+                LOG.warn("Unexpected root element of wresult: 'RequestSecurityTokenResponseCollection'");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+            if (!"RequestSecurityTokenResponse".equals(reader.getLocalName())) {
+                LOG.warn("Unexpected root element of wresult: '" + reader.getLocalName() + "'");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+
+            Element rst = null;
+            LifeTime lifeTime = null;
+            String tokenType = null;
+
+            int rstrDepth = depth;
+            while (nextStartElement(rstrDepth)) {
+                String ln = reader.getLocalName();
+                if (isWSTrustNamespace(reader.getNamespaceURI())) {
+                    if ("Lifetime".equals(ln)) {
+                        lifeTime = readLifeTime();
+                        continue;
+                    } else if ("RequestedSecurityToken".equals(ln)) {
+                        rst = DOMUtils.getFirstElement(readElement());
+                        continue;
+                    } else if ("TokenType".equals(ln)) {
+                        tokenType = readText();
+                        continue;
+                    }
+                }
+                skipElement();
+            }
+
+            // Read the remainder so that malformed or oversized documents are rejected
+            while (reader.hasNext()) {
+                next();
+            }
+
+            return new WResult(rst, lifeTime, tokenType);
+        }
+
+        private LifeTime readLifeTime() throws XMLStreamException, ProcessingException {
+            String created = null;
+            String expires = null;
+            int lifetimeDepth = depth;
+            while (nextStartElement(lifetimeDepth)) {
+                if (WSConstants.WSU_NS.equals(reader.getNamespaceURI())
+                    && WSConstants.CREATED_LN.equals(reader.getLocalName())) {
+                    created = readText();
+                } else if (WSConstants.WSU_NS.equals(reader.getNamespaceURI())
+                    && WSConstants.EXPIRES_LN.equals(reader.getLocalName())) {
+                    expires = readText();
+                } else {
+                    skipElement();
+                }
+            }
+            LOG.debug("Lifetime: created {}, expires {}", created, expires);
+            if (created == null || expires == null) {
+                LOG.warn("Lifetime element of wresult is incomplete");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+            try {
+                return new LifeTime(ZonedDateTime.parse(created).toInstant(),
+                                    ZonedDateTime.parse(expires).toInstant());
+            } catch (DateTimeParseException ex) {
+                LOG.warn("Invalid Lifetime in wresult: " + ex.getMessage());
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+        }
+
+        /**
+         * Materialise the current element and its subtree as the document element of a new Document.
+         */
+        private Element readElement() throws XMLStreamException, ProcessingException {
+            Document doc = DOMUtils.createDocument();
+            Element root = createElement(doc);
+            // Declare every namespace in scope, the ancestors won't be part of the new Document
+            Map<String, String> inScope = new HashMap<>();
+            for (int i = 0; i < namespaces.size() - 1; i++) {
+                inScope.putAll(namespaces.get(i));
+            }
+            for (Map.Entry<String, String> ns : inScope.entrySet()) {
+                String attrName = ns.getKey().isEmpty() ? "xmlns" : "xmlns:" + ns.getKey();
+                if (!root.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                         ns.getKey().isEmpty() ? "xmlns" : ns.getKey())) {
+                    root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attrName, ns.getValue());
+                }
+            }
+            doc.appendChild(root);
+
+            int rootDepth = depth;
+            Node current = root;
+            while (depth >= rootDepth) {
+                int event = next();
+                switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element el = createElement(doc);
+                    current.appendChild(el);
+                    current = el;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(doc.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(doc.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(doc.createProcessingInstruction(reader.getPITarget(),
+                                                                        reader.getPIData()));
+                    break;
+                default:
+                    break;
+                }
+            }
+            return root;
+        }
+
+        private Element createElement(Document doc) {
+            String prefix = reader.getPrefix();
+            String localName = reader.getLocalName();
+            String ns = reader.getNamespaceURI();
+            Element el = doc.createElementNS(ns == null || ns.isEmpty() ? null : ns,
+                prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName);
+
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String nsPrefix = reader.getNamespacePrefix(i);
+                String nsURI = reader.getNamespaceURI(i);
+                el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                  nsPrefix == null || nsPrefix.isEmpty() ? "xmlns" : "xmlns:" + nsPrefix,
+                                  nsURI == null ? "" : nsURI);
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String attrNs = reader.getAttributeNamespace(i);
+                String attrPrefix = reader.getAttributePrefix(i);
+                String attrName = reader.getAttributeLocalName(i);
+                if (attrNs == null || attrNs.isEmpty()) {
+                    el.setAttributeNS(null, attrName, reader.getAttributeValue(i));
+                } else {
+                    el.setAttributeNS(attrNs, attrPrefix + ":" + attrName, reader.getAttributeValue(i));
+                }
+            }
+            return el;
+        }
+
+        private String readText() throws XMLStreamException, ProcessingException {
+            StringBuilder sb = new StringBuilder();
+            int textDepth = depth;
+            while (depth >= textDepth) {
+                int event = next();
+                if (depth == textDepth && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                    sb.append(reader.getText());
+                }
+            }
+            return sb.toString().trim();
+        }
+
+        private void skipElement() throws XMLStreamException, ProcessingException {
+            int skipDepth = depth;
+            while (depth >= skipDepth) {
+                next();
+            }
+        }
+
+        /**
+         * Advance to the next start element anywhere in the document
+         */
+        private boolean nextStartElement() throws XMLStreamException, ProcessingException {
+            while (reader.hasNext()) {
+                if (next() == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Advance to the next child element of the element at the given depth
+         * @return false if the element at the given depth has been closed
+         */
+        private boolean nextStartElement(int parentDepth) throws XMLStreamException, ProcessingException {
+            while (depth >= parentDepth) {
+                int event = next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int next() throws XMLStreamException, ProcessingException {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                elementCount++;
+                if (maxDepth > 0 && depth > maxDepth) {
+                    LOG.warn("wresult exceeds the maximum depth of {}", maxDepth);
+                    throw new ProcessingException(TYPE.INVALID_REQUEST);
+                }
+                if (maxElementCount > 0 && elementCount > maxElementCount) {
+                    LOG.warn("wresult exceeds the maximum number of {} elements", maxElementCount);
+                    throw new ProcessingException(TYPE.INVALID_REQUEST);
+                }
+                Map<String, String> declarations = new HashMap<>();
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    String prefix = reader.getNamespacePrefix(i);
+                    String uri = reader.getNamespaceURI(i);
+                    declarations.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+                }
+                namespaces.add(declarations);
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                namespaces.remove(namespaces.size() - 1);
+                break;
+            case XMLStreamConstants.DTD:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                LOG.warn("DTDs and entity references are not allowed in wresult");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            default:
+                break;
+            }
+            return event;
+        }
+    }
+
+}
@@ -56,6 +56,11 @@ public class FedizSignatureTrustValidator implements Validator {
      */
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
 
+    /**
+     * The cache of positive trust decisions, null if trust is verified on every call
+     */
+    private TrustDecisionCache trustDecisionCache = TrustDecisionCache.getInstance();
+
 
     /**
      * Set the kind of trust. The default is CHAIN_TRUST.
@@ -75,6 +80,14 @@ public class FedizSignatureTrustValidator implements Validator {
         }
     }
 
+    /**
+     * Set the cache of positive trust decisions. The default is the shared
+     * TrustDecisionCache instance, null disables caching.
+     */
+    public void setTrustDecisionCache(TrustDecisionCache trustDecisionCache) {
+        this.trustDecisionCache = trustDecisionCache;
+    }
+
     /**
      * Validate the credential argument. It must contain either some Certificates or a PublicKey.
      *
@@ -114,21 +127,32 @@ public class FedizSignatureTrustValidator implements Validator {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noSigCryptoFile");
         }
 
+        // Revocation status may change at any time, so don't rely on earlier decisions then
+        boolean cacheable = trustDecisionCache != null && !data.isRevocationEnabled();
+
         if (certs != null && certs.length > 0) {
             validateCertificates(certs);
-            verifyTrustInCerts(certs, crypto, data, data.isRevocationEnabled());
-            if (signatureTrustType.equals(TrustType.CHAIN_TRUST_CONSTRAINTS)) {
-                if (matches(certs[0])) {
-                    return credential;
-                } else {
-                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
-                }
-            } else {
+            if (cacheable
+                && trustDecisionCache.isTrusted(certs, crypto, signatureTrustType.name(), subjectDNPatterns)) {
                 return credential;
             }
+            verifyTrustInCerts(certs, crypto, data, data.isRevocationEnabled());
+            if (signatureTrustType.equals(TrustType.CHAIN_TRUST_CONSTRAINTS) && !matches(certs[0])) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
+            }
+            if (cacheable) {
+                trustDecisionCache.setTrusted(certs, crypto, signatureTrustType.name(), subjectDNPatterns);
+            }
+            return credential;
         }
         if (publicKey != null) {
+            if (cacheable && trustDecisionCache.isTrusted(publicKey, crypto)) {
+                return credential;
+            }
             validatePublicKey(publicKey, crypto);
+            if (cacheable) {
+                trustDecisionCache.setTrusted(publicKey, crypto);
+            }
             return credential;
         }
         throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
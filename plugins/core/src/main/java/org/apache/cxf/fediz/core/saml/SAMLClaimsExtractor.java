@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.saml;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimCollection;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.wss4j.dom.WSConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts the claims of a SAML 1.1 or SAML 2.0 assertion by walking its DOM, instead of the OpenSAML object
+ * model built from it. The result is the same as the one of the object model walk in
+ * {@link SAMLTokenValidator}: attribute names, namespaces and name formats are trimmed like OpenSAML does,
+ * the attributes of the same claim type are merged and the claims come in the same order.
+ *
+ * The claim type resolved for a (qualifier, name) pair is cached, so that neither the string concatenation
+ * for the namespace nor the URI parsing is repeated for every token. Instances are thread-safe.
+ */
+public class SAMLClaimsExtractor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SAMLClaimsExtractor.class);
+
+    private static final int MAX_CACHED_CLAIM_TYPES = 4096;
+
+    private static final String URI_BASE = ClaimTypes.URI_BASE.toString();
+
+    private static final ConcurrentMap<ClaimTypeKey, URI> CLAIM_TYPES = new ConcurrentHashMap<>();
+
+    /**
+     * @param assertion the saml1:Assertion or saml2:Assertion element
+     * @return the claims of all attribute statements of the assertion
+     */
+    public List<Claim> extractClaims(Element assertion) {
+        String ns = assertion.getNamespaceURI();
+        if (WSConstants.SAML2_NS.equals(ns)) {
+            return extractClaims(assertion, ns, getSAML2Issuer(assertion), true);
+        } else if (WSConstants.SAML_NS.equals(ns)) {
+            return extractClaims(assertion, ns, getAttribute(assertion, "Issuer"), false);
+        }
+        throw new IllegalArgumentException("Not a SAML assertion: " + assertion.getLocalName());
+    }
+
+    private List<Claim> extractClaims(Element assertion, String ns, String issuer, boolean saml2) {
+        Map<String, Claim> claimsMap = null;
+        for (Element statement = firstChild(assertion, ns, "AttributeStatement"); statement != null;
+            statement = nextSibling(statement, ns, "AttributeStatement")) {
+            if (claimsMap == null) {
+                claimsMap = new HashMap<>();
+            }
+            for (Element attribute = firstChild(statement, ns, "Attribute"); attribute != null;
+                attribute = nextSibling(attribute, ns, "Attribute")) {
+                URI claimType = saml2 ? getSAML2ClaimType(attribute) : getSAML1ClaimType(attribute);
+                mergeClaim(claimsMap, claimType, issuer, getValues(attribute));
+            }
+        }
+        if (claimsMap == null) {
+            LOG.debug("No attribute statements found");
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(claimsMap.values());
+    }
+
+    private static URI getSAML1ClaimType(Element attribute) {
+        String name = getAttribute(attribute, "AttributeName");
+        String namespace = getAttribute(attribute, "AttributeNamespace");
+        LOG.debug("parsing attribute: {}", name);
+        URI claimType = resolveClaimType(namespace, name);
+        if (namespace != null && name.equals(claimType.toString())) {
+            // Workaround for CXF-4484: the name is fully qualified, the namespace is ignored
+            if (name.startsWith(namespace)) {
+                LOG.info("AttributeName fully qualified '" + name
+                         + "' but does match with AttributeNamespace '" + namespace + "'");
+            } else {
+                LOG.warn("AttributeName fully qualified '" + name
+                         + "' but does NOT match with AttributeNamespace (ignored) '" + namespace + "'");
+            }
+        }
+        return claimType;
+    }
+
+    private static URI getSAML2ClaimType(Element attribute) {
+        String name = getAttribute(attribute, "Name");
+        LOG.debug("parsing attribute: {}", name);
+        // Workaround for CXF-4484: a name which is not fully qualified is qualified with the name format,
+        // if the name format is http://schemas.xmlsoap.org/ws/2005/05/identity/claims
+        String qualifier = URI_BASE.equals(getAttribute(attribute, "NameFormat")) ? URI_BASE : null;
+        return resolveClaimType(qualifier, name);
+    }
+
+    /**
+     * Resolve the claim type of an attribute name. A name which is not an absolute URI is appended to the
+     * qualifier, if there is one.
+     */
+    private static URI resolveClaimType(String qualifier, String name) {
+        ClaimTypeKey key = new ClaimTypeKey(qualifier, name);
+        URI claimType = CLAIM_TYPES.get(key);
+        if (claimType == null) {
+            claimType = ClaimCollection.internClaimType(name);
+            if (qualifier != null && !claimType.isAbsolute()) {
+                String separator = qualifier.endsWith("/") ? "" : "/";
+                claimType = ClaimCollection.internClaimType(qualifier + separator + name);
+            }
+            if (CLAIM_TYPES.size() < MAX_CACHED_CLAIM_TYPES) {
+                CLAIM_TYPES.putIfAbsent(key, claimType);
+            }
+        }
+        return claimType;
+    }
+
+    private static List<String> getValues(Element attribute) {
+        int count = 0;
+        for (Node child = attribute.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                count++;
+            }
+        }
+        List<String> values = new ArrayList<>(count);
+        for (Node child = attribute.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                String value = child.getTextContent();
+                LOG.debug(" [{}]", value);
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Same as {@link SAMLTokenValidator#mergeClaimToMap(Map, Claim, List)}: a claim type which occurs once with
+     * a single value gets a String value, any other a List of all values.
+     */
+    private static void mergeClaim(Map<String, Claim> claimsMap, URI claimType, String issuer,
+                                   List<String> values) {
+        String key = claimType.toString();
+        Claim claim = claimsMap.get(key);
+        if (claim == null) {
+            claim = new Claim();
+            claim.setClaimType(claimType);
+            claim.setIssuer(issuer);
+            claim.setValue(values.size() == 1 ? values.get(0) : values);
+            claimsMap.put(key, claim);
+        } else if (claim.getValue() instanceof String) {
+            List<String> merged = new ArrayList<>(values.size() + 1);
+            merged.add((String)claim.getValue());
+            merged.addAll(values);
+            claim.setValue(merged);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<String> merged = (List<String>)claim.getValue();
+            merged.addAll(values);
+        }
+    }
+
+    private static String getSAML2Issuer(Element assertion) {
+        Element issuer = firstChild(assertion, WSConstants.SAML2_NS, "Issuer");
+        return issuer == null ? null : getAttribute(issuer, "NameQualifier");
+    }
+
+    /**
+     * @return the trimmed value of the attribute, or null if it is missing or blank, as OpenSAML stores it
+     */
+    private static String getAttribute(Element element, String name) {
+        String value = element.getAttributeNS(null, name).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Element firstChild(Node parent, String ns, String localName) {
+        return matching(parent.getFirstChild(), ns, localName);
+    }
+
+    private static Element nextSibling(Node node, String ns, String localName) {
+        return matching(node.getNextSibling(), ns, localName);
+    }
+
+    private static Element matching(Node node, String ns, String localName) {
+        for (Node n = node; n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE && localName.equals(n.getLocalName())
+                && ns.equals(n.getNamespaceURI())) {
+                return (Element)n;
+            }
+        }
+        return null;
+    }
+
+    private static final class ClaimTypeKey {
+
+        private final String qualifier;
+        private final String name;
+
+        ClaimTypeKey(String qualifier, String name) {
+            this.qualifier = qualifier;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(qualifier) + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ClaimTypeKey)) {
+                return false;
+            }
+            ClaimTypeKey other = (ClaimTypeKey)obj;
+            return name.equals(other.name) && Objects.equals(qualifier, other.qualifier);
+        }
+    }
+
+}
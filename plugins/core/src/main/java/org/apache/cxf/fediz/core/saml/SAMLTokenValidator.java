@@ -20,6 +20,7 @@
 package org.apache.cxf.fediz.core.saml;
 
 import java.net.URI;
+import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,10 +41,13 @@ import org.apache.cxf.fediz.core.TokenValidatorResponse;
 import org.apache.cxf.fediz.core.config.CertificateValidationMethod;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.Protocol;
+import org.apache.cxf.fediz.core.config.TrustIndex;
 import org.apache.cxf.fediz.core.config.TrustManager;
 import org.apache.cxf.fediz.core.config.TrustedIssuer;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.metrics.PhaseTimer;
+import org.apache.cxf.fediz.core.metrics.ProcessingPhase;
 import org.apache.cxf.fediz.core.saml.FedizSignatureTrustValidator.TrustType;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.principal.SAMLTokenPrincipal;
@@ -69,6 +73,12 @@ public class SAMLTokenValidator implements TokenValidator {
 
     private static final Logger LOG = LoggerFactory.getLogger(SAMLTokenValidator.class);
 
+    /**
+     * The default configuration, only read during the validation, is shared by all requests
+     */
+    private static final WSSConfig WSS_CONFIG = WSSConfig.getNewInstance();
+
+    private SAMLClaimsExtractor claimsExtractor;
 
     @Override
     public boolean canHandleTokenType(String tokenType) {
@@ -86,10 +96,12 @@ public class SAMLTokenValidator implements TokenValidator {
             FedizContext config) throws ProcessingException {
 
         Element token = request.getToken();
+        // The phase which has been started and not ended yet, reported as failed if validation fails
+        ProcessingPhase phase = null;
+        long start = 0L;
         try {
             RequestData requestData = new RequestData();
-            WSSConfig wssConfig = WSSConfig.getNewInstance();
-            requestData.setWssConfig(wssConfig);
+            requestData.setWssConfig(WSS_CONFIG);
             requestData.setWsDocInfo(new WSDocInfo(token.getOwnerDocument()));
             // not needed as no private key must be read
             // requestData.setCallbackHandler(new
@@ -101,6 +113,8 @@ public class SAMLTokenValidator implements TokenValidator {
                 throw new ProcessingException(TYPE.TOKEN_NO_SIGNATURE);
             }
             // Verify the signature
+            phase = ProcessingPhase.SIGNATURE;
+            start = PhaseTimer.start(config, phase);
             Signature sig = assertion.getSignature();
             KeyInfo keyInfo = sig.getKeyInfo();
             SAMLKeyInfo samlKeyInfo =
@@ -115,57 +129,45 @@ public class SAMLTokenValidator implements TokenValidator {
                 new WSSSAMLKeyInfoProcessor(requestData), requestData.getSigVerCrypto(),
                 requestData.getCallbackHandler()
             );
+            PhaseTimer.end(config, phase, start);
 
             // Now verify trust on the signature
+            phase = ProcessingPhase.TRUST;
+            start = PhaseTimer.start(config, phase);
             Credential trustCredential = new Credential();
             trustCredential.setPublicKey(samlKeyInfo.getPublicKey());
             trustCredential.setCertificates(samlKeyInfo.getCerts());
             trustCredential.setSamlAssertion(assertion);
 
-            SamlAssertionValidator trustValidator = new SamlAssertionValidator();
-            trustValidator.setFutureTTL(config.getMaximumClockSkew().intValue());
-
             boolean trusted = false;
             String assertionIssuer = assertion.getIssuerString();
 
-            List<TrustedIssuer> trustedIssuers = config.getTrustedIssuers();
-            for (TrustedIssuer ti : trustedIssuers) {
-                Pattern subjectConstraint = ti.getCompiledSubject();
-                List<Pattern> subjectConstraints = new ArrayList<>(1);
-                if (subjectConstraint != null) {
-                    subjectConstraints.add(subjectConstraint);
+            // Try the (issuer, certificate store) pairs matching the signing certificate first
+            TrustIndex trustIndex = config.getTrustIndex();
+            X509Certificate signingCert = null;
+            if (samlKeyInfo.getCerts() != null && samlKeyInfo.getCerts().length > 0) {
+                signingCert = samlKeyInfo.getCerts()[0];
+            }
+            List<TrustIndex.Entry> candidates = trustIndex.getCandidates(signingCert);
+            for (TrustIndex.Entry entry : candidates) {
+                if (isTrusted(entry, trustCredential, requestData, config)) {
+                    trustIndex.setResolved(signingCert, entry);
+                    trusted = true;
+                    break;
                 }
+            }
 
-                if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.CHAIN_TRUST)) {
-                    trustValidator.setSubjectConstraints(subjectConstraints);
-                    trustValidator.setSignatureTrustType(TrustType.CHAIN_TRUST_CONSTRAINTS);
-                } else if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.PEER_TRUST)) {
-                    trustValidator.setSignatureTrustType(TrustType.PEER_TRUST);
-                } else {
-                    throw new IllegalStateException("Unsupported certificate validation method: "
-                                                    + ti.getCertificateValidationMethod());
-                }
-                try {
-                    for (TrustManager tm: config.getCertificateStores()) {
-                        try {
-                            requestData.setSigVerCrypto(tm.getCrypto());
-                            trustValidator.validate(trustCredential, requestData);
-                            trusted = true;
-                            break;
-                        } catch (Exception ex) {
-                            LOG.debug("Issuer '{}' not validated in keystore '{}'",
-                                      ti.getName(), tm.getName());
-                        }
+            // Fall back to trying every remaining pair
+            if (!trusted) {
+                for (TrustIndex.Entry entry : trustIndex.getEntries()) {
+                    if (candidates.contains(entry)) {
+                        continue;
                     }
-                    if (trusted) {
+                    if (isTrusted(entry, trustCredential, requestData, config)) {
+                        trustIndex.setResolved(signingCert, entry);
+                        trusted = true;
                         break;
                     }
-
-                } catch (Exception ex) {
-                    if (LOG.isInfoEnabled()) {
-                        LOG.info("Issuer '" + assertionIssuer + "' doesn't match trusted issuer '" + ti.getName()
-                                 + "': " + ex.getMessage());
-                    }
                 }
             }
 
@@ -186,7 +188,10 @@ public class SAMLTokenValidator implements TokenValidator {
                 LOG.warn("Assertion fails holder-of-key requirements");
                 throw new ProcessingException(TYPE.ISSUER_NOT_TRUSTED);
             }
+            PhaseTimer.end(config, phase, start);
 
+            phase = ProcessingPhase.CLAIMS;
+            start = PhaseTimer.start(config, phase);
             String audience = null;
             List<Claim> claims = null;
             if (assertion.getSamlVersion().equals(SAMLVersion.VERSION_20)) {
@@ -201,6 +206,8 @@ public class SAMLTokenValidator implements TokenValidator {
             }
 
             List<String> roles = parseRoles(config, claims);
+            PhaseTimer.end(config, phase, start);
+            phase = null;
 
             SAMLTokenPrincipal p = new SAMLTokenPrincipalImpl(assertion);
 
@@ -215,6 +222,46 @@ public class SAMLTokenValidator implements TokenValidator {
         } catch (WSSecurityException ex) {
             LOG.error("Security token validation failed", ex);
             throw new ProcessingException(TYPE.TOKEN_INVALID);
+        } finally {
+            if (phase != null) {
+                PhaseTimer.end(config, phase, start, false);
+            }
+        }
+    }
+
+    /**
+     * Validate the credential against a single (trusted issuer, certificate store) pair
+     */
+    protected boolean isTrusted(TrustIndex.Entry entry, Credential trustCredential,
+                                RequestData requestData, FedizContext config) {
+        TrustedIssuer ti = entry.getTrustedIssuer();
+        TrustManager tm = entry.getTrustManager();
+
+        SamlAssertionValidator trustValidator = new SamlAssertionValidator();
+        trustValidator.setFutureTTL(config.getMaximumClockSkew().intValue());
+        if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.CHAIN_TRUST)) {
+            Pattern subjectConstraint = ti.getCompiledSubject();
+            List<Pattern> subjectConstraints = new ArrayList<>(1);
+            if (subjectConstraint != null) {
+                subjectConstraints.add(subjectConstraint);
+            }
+            trustValidator.setSubjectConstraints(subjectConstraints);
+            trustValidator.setSignatureTrustType(TrustType.CHAIN_TRUST_CONSTRAINTS);
+        } else if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.PEER_TRUST)) {
+            trustValidator.setSignatureTrustType(TrustType.PEER_TRUST);
+        } else {
+            LOG.warn("Unsupported certificate validation method '{}' of trusted issuer '{}'",
+                     ti.getCertificateValidationMethod(), ti.getName());
+            return false;
+        }
+
+        try {
+            requestData.setSigVerCrypto(tm.getCrypto());
+            trustValidator.validate(trustCredential, requestData);
+            return true;
+        } catch (Exception ex) {
+            LOG.debug("Issuer '{}' not validated in keystore '{}'", ti.getName(), tm.getName());
+            return false;
         }
     }
 
@@ -222,9 +269,10 @@ public class SAMLTokenValidator implements TokenValidator {
         List<String> roles = null;
         Protocol protocol = config.getProtocol();
         if (protocol.getRoleURI() != null) {
-            URI roleURI = URI.create(protocol.getRoleURI());
+            URI roleURI = ClaimCollection.internClaimType(protocol.getRoleURI());
             String delim = protocol.getRoleDelimiter();
-            for (Claim c : claims) {
+            for (int i = 0; i < claims.size(); i++) {
+                Claim c = claims.get(i);
                 if (roleURI.equals(c.getClaimType())) {
                     Object oValue = c.getValue();
                     if ((oValue instanceof String) && !"".equals((String)oValue)) {
@@ -241,7 +289,7 @@ public class SAMLTokenValidator implements TokenValidator {
                         LOG.error("Unsupported value type of Claim value");
                         throw new IllegalStateException("Unsupported value type of Claim value");
                     }
-                    claims.remove(c);
+                    claims.remove(i);
                     break;
                 }
             }
@@ -252,6 +300,9 @@ public class SAMLTokenValidator implements TokenValidator {
 
     protected List<Claim> parseClaimsInAssertion(
             org.opensaml.saml.saml1.core.Assertion assertion) {
+        if (claimsExtractor != null && assertion.getDOM() != null) {
+            return claimsExtractor.extractClaims(assertion.getDOM());
+        }
         List<org.opensaml.saml.saml1.core.AttributeStatement> attributeStatements = assertion
                 .getAttributeStatements();
         if (attributeStatements == null || attributeStatements.isEmpty()) {
@@ -271,7 +322,7 @@ public class SAMLTokenValidator implements TokenValidator {
                 Claim c = new Claim();
                 c.setIssuer(assertion.getIssuer());
                 if (attribute.getAttributeNamespace() != null) {
-                    URI attrName = URI.create(attribute.getAttributeName());
+                    URI attrName = ClaimCollection.internClaimType(attribute.getAttributeName());
                     if (attrName.isAbsolute()) {
                         // Workaround for CXF-4484
                         c.setClaimType(attrName);
@@ -286,15 +337,15 @@ public class SAMLTokenValidator implements TokenValidator {
                         }
                     } else {
                         if (attribute.getAttributeNamespace().endsWith("/")) {
-                            c.setClaimType(URI.create(attribute.getAttributeNamespace()
+                            c.setClaimType(ClaimCollection.internClaimType(attribute.getAttributeNamespace()
                                                       + attribute.getAttributeName()));
                         } else {
-                            c.setClaimType(URI.create(attribute.getAttributeNamespace()
+                            c.setClaimType(ClaimCollection.internClaimType(attribute.getAttributeNamespace()
                                                       + "/" + attribute.getAttributeName()));
                         }
                     }
                 } else {
-                    c.setClaimType(URI.create(attribute.getAttributeName()));
+                    c.setClaimType(ClaimCollection.internClaimType(attribute.getAttributeName()));
                 }
                 List<String> valueList = new ArrayList<>();
                 for (XMLObject attributeValue : attribute.getAttributeValues()) {
@@ -314,6 +365,9 @@ public class SAMLTokenValidator implements TokenValidator {
 
     protected List<Claim> parseClaimsInAssertion(
             org.opensaml.saml.saml2.core.Assertion assertion) {
+        if (claimsExtractor != null && assertion.getDOM() != null) {
+            return claimsExtractor.extractClaims(assertion.getDOM());
+        }
         List<org.opensaml.saml.saml2.core.AttributeStatement> attributeStatements = assertion
                 .getAttributeStatements();
         if (attributeStatements == null || attributeStatements.isEmpty()) {
@@ -335,12 +389,12 @@ public class SAMLTokenValidator implements TokenValidator {
                 // Value of Attribute Name not fully qualified
                 // if NameFormat is http://schemas.xmlsoap.org/ws/2005/05/identity/claims
                 // but ClaimType value must be fully qualified as Namespace attribute goes away
-                URI attrName = URI.create(attribute.getName());
+                URI attrName = ClaimCollection.internClaimType(attribute.getName());
                 if (ClaimTypes.URI_BASE.toString().equals(attribute.getNameFormat())
                     && !attrName.isAbsolute()) {
-                    c.setClaimType(URI.create(ClaimTypes.URI_BASE + "/" + attribute.getName()));
+                    c.setClaimType(ClaimCollection.internClaimType(ClaimTypes.URI_BASE + "/" + attribute.getName()));
                 } else {
-                    c.setClaimType(URI.create(attribute.getName()));
+                    c.setClaimType(attrName);
                 }
                 c.setIssuer(assertion.getIssuer().getNameQualifier());
 
@@ -402,6 +456,19 @@ public class SAMLTokenValidator implements TokenValidator {
         return roles;
     }
 
+    public SAMLClaimsExtractor getClaimsExtractor() {
+        return claimsExtractor;
+    }
+
+    /**
+     * Set the extractor of the claims from the assertion DOM, which the default parseClaimsInAssertion methods
+     * use instead of the OpenSAML object model. It is not set by default. The extractor does not call
+     * mergeClaimToMap, so a subclass which overrides that method should not set it.
+     */
+    public void setClaimsExtractor(SAMLClaimsExtractor claimsExtractor) {
+        this.claimsExtractor = claimsExtractor;
+    }
+
     protected String getAudienceRestriction(
             org.opensaml.saml.saml1.core.Assertion assertion) {
         String audience = null;
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.saml;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.crypto.Crypto;
+
+/**
+ * A bounded cache of positive trust decisions made by the {@link FedizSignatureTrustValidator}.
+ * Entries are keyed by the fingerprint of the certificate chain (or public key), the identity of
+ * the Crypto instance the trust was established against, the trust type and the subject DN
+ * constraints. An entry expires after the configured time to live. Negative decisions are
+ * never cached.
+ */
+public class TrustDecisionCache {
+
+    public static final long DEFAULT_TTL = 300L * 1000L;
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final TrustDecisionCache INSTANCE = new TrustDecisionCache();
+
+    private final Map<Key, Long> decisions = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile long ttl = DEFAULT_TTL;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * @return the cache shared by all validators of this classloader
+     */
+    public static TrustDecisionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Check whether trust in the given certificate chain has been established recently
+     */
+    public boolean isTrusted(X509Certificate[] certs, Crypto crypto, String trustType,
+                             Collection<Pattern> subjectConstraints) {
+        return isTrusted(new Key(fingerprint(certs), crypto, trustType, patterns(subjectConstraints)));
+    }
+
+    /**
+     * Check whether trust in the given public key has been established recently
+     */
+    public boolean isTrusted(PublicKey publicKey, Crypto crypto) {
+        return isTrusted(new Key(fingerprint(publicKey), crypto, null, null));
+    }
+
+    public void setTrusted(X509Certificate[] certs, Crypto crypto, String trustType,
+                           Collection<Pattern> subjectConstraints) {
+        setTrusted(new Key(fingerprint(certs), crypto, trustType, patterns(subjectConstraints)));
+    }
+
+    public void setTrusted(PublicKey publicKey, Crypto crypto) {
+        setTrusted(new Key(fingerprint(publicKey), crypto, null, null));
+    }
+
+    /**
+     * Remove all decisions made against the given Crypto instance, e.g. after the
+     * underlying truststore has been reloaded.
+     */
+    public void invalidate(Crypto crypto) {
+        decisions.keySet().removeIf(key -> key.crypto == crypto);
+    }
+
+    public void clear() {
+        decisions.clear();
+    }
+
+    public int size() {
+        return decisions.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Set the time to live of a trust decision in milliseconds. The default is 5 minutes.
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of cached trust decisions. The default is 1000.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private boolean isTrusted(Key key) {
+        Long expires = decisions.get(key);
+        if (expires != null) {
+            if (expires > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return true;
+            }
+            decisions.remove(key, expires);
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    private void setTrusted(Key key) {
+        if (ttl <= 0 || maxEntries <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (decisions.size() >= maxEntries) {
+            purgeExpired(now);
+            if (decisions.size() >= maxEntries) {
+                decisions.clear();
+            }
+        }
+        decisions.put(key, now + ttl);
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Long> iterator = decisions.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String[] patterns(Collection<Pattern> subjectConstraints) {
+        if (subjectConstraints == null || subjectConstraints.isEmpty()) {
+            return null;
+        }
+        String[] patterns = new String[subjectConstraints.size()];
+        int i = 0;
+        for (Pattern pattern : subjectConstraints) {
+            patterns[i++] = pattern.pattern();
+        }
+        Arrays.sort(patterns);
+        return patterns;
+    }
+
+    private static byte[] fingerprint(X509Certificate[] certs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new IllegalStateException("Failed to compute certificate fingerprint", ex);
+        }
+    }
+
+    private static byte[] fingerprint(PublicKey publicKey) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Failed to compute public key fingerprint", ex);
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] fingerprint;
+        private final Crypto crypto;
+        private final String trustType;
+        private final String[] subjectConstraints;
+        private final int hashCode;
+
+        Key(byte[] fingerprint, Crypto crypto, String trustType, String[] subjectConstraints) {
+            this.fingerprint = fingerprint;
+            this.crypto = crypto;
+            this.trustType = trustType;
+            this.subjectConstraints = subjectConstraints;
+            this.hashCode = Arrays.hashCode(fingerprint) * 31 + System.identityHashCode(crypto);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)obj;
+            return crypto == that.crypto
+                && Arrays.equals(fingerprint, that.fingerprint)
+                && Objects.equals(trustType, that.trustType)
+                && Arrays.equals(subjectConstraints, that.subjectConstraints);
+        }
+    }
+
+}
@@ -18,13 +18,12 @@
  */
 package org.apache.cxf.fediz.core.samlsso;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
+/**
+ * Static access to the shared {@link DeflateCodec}.
+ */
 public final class CompressionUtils {
     private CompressionUtils() {
 
@@ -35,36 +34,7 @@ public final class CompressionUtils {
     }
     public static InputStream inflate(byte[] deflatedToken, boolean nowrap)
         throws DataFormatException {
-        Inflater inflater = new Inflater(nowrap);
-        inflater.setInput(deflatedToken);
-
-        byte[] input = new byte[deflatedToken.length * 2];
-        int inflatedLen = 0;
-        int inputLen = 0;
-        byte[] inflatedToken = input;
-        while (!inflater.finished()) {
-            inputLen = inflater.inflate(input);
-            if (!inflater.finished()) {
-
-                if (inputLen == 0) {
-                    if (inflater.needsInput()) {
-                        throw new DataFormatException("Inflater can not inflate all the token bytes");
-                    } else {
-                        break;
-                    }
-                }
-
-                inflatedToken = new byte[input.length + inflatedLen];
-                System.arraycopy(input, 0, inflatedToken, inflatedLen, inputLen);
-                inflatedLen += inputLen;
-            }
-        }
-        InputStream is = new ByteArrayInputStream(input, 0, inputLen);
-        if (inflatedToken != input) {
-            is = new SequenceInputStream(new ByteArrayInputStream(inflatedToken, 0, inflatedLen),
-                                         is);
-        }
-        return is;
+        return DeflateCodec.getInstance().inflate(deflatedToken, nowrap);
     }
 
     public static byte[] deflate(byte[] tokenBytes) {
@@ -72,17 +42,6 @@ public final class CompressionUtils {
     }
 
     public static byte[] deflate(byte[] tokenBytes, boolean nowrap) {
-        Deflater compresser = new Deflater(Deflater.DEFLATED, nowrap);
-
-        compresser.setInput(tokenBytes);
-        compresser.finish();
-
-        byte[] output = new byte[tokenBytes.length * 2];
-
-        int compressedDataLength = compresser.deflate(output);
-
-        byte[] result = new byte[compressedDataLength];
-        System.arraycopy(output, 0, result, 0, compressedDataLength);
-        return result;
+        return DeflateCodec.getInstance().deflate(tokenBytes, nowrap);
     }
 }
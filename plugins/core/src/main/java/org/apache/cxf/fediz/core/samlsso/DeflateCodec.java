@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A DEFLATE codec for the SAML redirect binding which reuses its Inflater and Deflater instances.
+ * Instances that are not returned to the pool are ended straight away, so the native zlib memory
+ * is released without waiting for finalization. The size of an inflated token is bounded, so that
+ * a decompression bomb is rejected as soon as the limit is exceeded.
+ */
+public class DeflateCodec {
+
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 2 * 1024 * 1024;
+
+    public static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    private static final DeflateCodec INSTANCE = new DeflateCodec();
+
+    private final BlockingQueue<Inflater> inflaters;
+    private final BlockingQueue<Inflater> nowrapInflaters;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Deflater> nowrapDeflaters;
+    private volatile int maxInflatedSize = DEFAULT_MAX_INFLATED_SIZE;
+
+    public DeflateCodec() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public DeflateCodec(int poolSize) {
+        inflaters = new ArrayBlockingQueue<>(poolSize);
+        nowrapInflaters = new ArrayBlockingQueue<>(poolSize);
+        deflaters = new ArrayBlockingQueue<>(poolSize);
+        nowrapDeflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * @return the codec shared by the SAML processors of this classloader
+     */
+    public static DeflateCodec getInstance() {
+        return INSTANCE;
+    }
+
+    public InputStream inflate(byte[] deflatedToken) throws DataFormatException {
+        return inflate(deflatedToken, true);
+    }
+
+    public InputStream inflate(byte[] deflatedToken, boolean nowrap) throws DataFormatException {
+        int maxSize = maxInflatedSize;
+        Inflater inflater = borrowInflater(nowrap);
+        try {
+            inflater.setInput(deflatedToken);
+
+            byte[] buffer = new byte[initialSize(deflatedToken.length * 2, maxSize)];
+            int count = 0;
+            while (!inflater.finished()) {
+                if (count == buffer.length) {
+                    buffer = grow(buffer, maxSize);
+                }
+                int inflatedLen = inflater.inflate(buffer, count, buffer.length - count);
+                count += inflatedLen;
+                if (maxSize > 0 && count > maxSize) {
+                    throw new DataFormatException("The inflated token exceeds the maximum size of "
+                                                  + maxSize + " bytes");
+                }
+                if (inflatedLen == 0 && !inflater.finished()
+                    && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Inflater can not inflate all the token bytes");
+                }
+            }
+            return new ByteArrayInputStream(buffer, 0, count);
+        } finally {
+            release(inflater, nowrap ? nowrapInflaters : inflaters);
+        }
+    }
+
+    public byte[] deflate(byte[] tokenBytes) {
+        return deflate(tokenBytes, true);
+    }
+
+    public byte[] deflate(byte[] tokenBytes, boolean nowrap) {
+        Deflater deflater = borrowDeflater(nowrap);
+        try {
+            deflater.setInput(tokenBytes);
+            deflater.finish();
+
+            byte[] buffer = new byte[initialSize(tokenBytes.length, 0)];
+            int count = 0;
+            while (!deflater.finished()) {
+                if (count == buffer.length) {
+                    buffer = grow(buffer, 0);
+                }
+                count += deflater.deflate(buffer, count, buffer.length - count);
+            }
+            return Arrays.copyOf(buffer, count);
+        } finally {
+            release(deflater, nowrap ? nowrapDeflaters : deflaters);
+        }
+    }
+
+    /**
+     * End all pooled Inflater and Deflater instances. The codec stays usable afterwards.
+     */
+    public void clear() {
+        endAll(inflaters);
+        endAll(nowrapInflaters);
+        endAll(deflaters);
+        endAll(nowrapDeflaters);
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    /**
+     * Set the maximum size in bytes of an inflated token. The default is 2 MB. A value of 0 or less
+     * disables the check.
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    private Inflater borrowInflater(boolean nowrap) {
+        Inflater inflater = (nowrap ? nowrapInflaters : inflaters).poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    private Deflater borrowDeflater(boolean nowrap) {
+        Deflater deflater = (nowrap ? nowrapDeflaters : deflaters).poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFLATED, nowrap);
+    }
+
+    private static void release(Inflater inflater, BlockingQueue<Inflater> pool) {
+        inflater.reset();
+        if (!pool.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static void release(Deflater deflater, BlockingQueue<Deflater> pool) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static void endAll(BlockingQueue<?> pool) {
+        Object codec = pool.poll();
+        while (codec != null) {
+            if (codec instanceof Inflater) {
+                ((Inflater)codec).end();
+            } else {
+                ((Deflater)codec).end();
+            }
+            codec = pool.poll();
+        }
+    }
+
+    private static int initialSize(int hint, int maxSize) {
+        int size = Math.max(MIN_BUFFER_SIZE, hint);
+        // Leave room for one byte beyond the limit, so that exceeding it is detected
+        return maxSize > 0 ? (int)Math.min(size, (long)maxSize + 1) : size;
+    }
+
+    private static byte[] grow(byte[] buffer, int maxSize) {
+        long newSize = Math.min((long)buffer.length * 2, Integer.MAX_VALUE - 8);
+        if (maxSize > 0) {
+            newSize = Math.min(newSize, (long)maxSize + 1);
+        }
+        if (newSize <= buffer.length) {
+            throw new OutOfMemoryError("Required buffer size too large");
+        }
+        return Arrays.copyOf(buffer, (int)newSize);
+    }
+}
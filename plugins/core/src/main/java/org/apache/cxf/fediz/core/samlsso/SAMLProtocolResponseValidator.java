@@ -61,6 +61,9 @@ public class SAMLProtocolResponseValidator {
 
     private static final Logger LOG = LoggerFactory.getLogger(SAMLProtocolResponseValidator.class);
 
+    // Only read while validating the Response signature, so one instance serves all requests
+    private static final WSSConfig WSS_CONFIG = WSSConfig.getNewInstance();
+
     // private Validator signatureValidator = new SignatureTrustValidator();
 
     /**
@@ -158,8 +161,7 @@ public class SAMLProtocolResponseValidator {
         FedizContext config
     ) throws WSSecurityException {
         RequestData requestData = new RequestData();
-        WSSConfig wssConfig = WSSConfig.getNewInstance();
-        requestData.setWssConfig(wssConfig);
+        requestData.setWssConfig(WSS_CONFIG);
         requestData.setWsDocInfo(new WSDocInfo(doc));
 
         SAMLKeyInfo samlKeyInfo = null;
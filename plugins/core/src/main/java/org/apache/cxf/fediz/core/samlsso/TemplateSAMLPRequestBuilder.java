@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.joda.time.DateTime;
+import org.opensaml.saml.config.SAMLConfigurationSupport;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+
+/**
+ * A DefaultSAMLPRequestBuilder which in addition can write the serialized AuthnRequest straight from a
+ * precompiled template. The template is created once per issuer by marshalling and serializing an AuthnRequest
+ * of the default builder with placeholder values, the ID, IssueInstant, AssertionConsumerServiceURL and
+ * Destination of a request are spliced into it. The result is byte-identical to serializing the OpenSAML
+ * object, but neither the object tree nor a DOM has to be built for an unauthenticated redirect.
+ *
+ * The class is final, custom builders extending DefaultSAMLPRequestBuilder are processed as before.
+ */
+public final class TemplateSAMLPRequestBuilder extends DefaultSAMLPRequestBuilder {
+
+    private static final int MAX_TEMPLATES = 64;
+
+    private static final int ID = 0;
+    private static final int ISSUE_INSTANT = 1;
+    private static final int ASSERTION_CONSUMER_SERVICE_URL = 2;
+    private static final int DESTINATION = 3;
+
+    private static final DateTime TEMPLATE_ISSUE_INSTANT = new DateTime(0L);
+
+    private final ConcurrentMap<TemplateKey, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Return the UTF-8 encoded AuthnRequest for the given values, or null if the request can't be created
+     * from a template. In this case the AuthnRequest has to be created with createAuthnRequest.
+     * The destination is optional.
+     */
+    public byte[] createAuthnRequestBytes(
+        String issuerId,
+        String assertionConsumerServiceAddress,
+        String destination,
+        String requestId
+    ) throws Exception {
+        return createAuthnRequestBytes(issuerId, assertionConsumerServiceAddress, destination,
+                                       requestId, new DateTime());
+    }
+
+    byte[] createAuthnRequestBytes(
+        String issuerId,
+        String assertionConsumerServiceAddress,
+        String destination,
+        String requestId,
+        DateTime issueInstant
+    ) throws Exception {
+        if (issuerId == null || !isVerbatim(assertionConsumerServiceAddress)
+            || destination != null && !isVerbatim(destination) || !isVerbatim(requestId)) {
+            return null;
+        }
+
+        Template template = getTemplate(issuerId, destination != null);
+        if (template == null) {
+            return null;
+        }
+
+        String[] values = new String[4];
+        values[ID] = requestId;
+        values[ISSUE_INSTANT] = SAMLConfigurationSupport.getSAMLDateFormatter().print(issueInstant);
+        values[ASSERTION_CONSUMER_SERVICE_URL] = assertionConsumerServiceAddress;
+        values[DESTINATION] = destination;
+        return template.apply(values);
+    }
+
+    @Override
+    public void setForceAuthn(boolean forceAuthn) {
+        super.setForceAuthn(forceAuthn);
+        templates.clear();
+    }
+
+    @Override
+    public void setPassive(boolean isPassive) {
+        super.setPassive(isPassive);
+        templates.clear();
+    }
+
+    @Override
+    public void setProtocolBinding(String protocolBinding) {
+        super.setProtocolBinding(protocolBinding);
+        templates.clear();
+    }
+
+    private Template getTemplate(String issuerId, boolean withDestination) throws Exception {
+        TemplateKey key = new TemplateKey(issuerId, withDestination);
+        Template template = templates.get(key);
+        if (template == null) {
+            // The issuer normally is the same for all requests of a context, don't keep templates
+            // for an unbounded number of issuers resolved per request
+            if (templates.size() >= MAX_TEMPLATES) {
+                return null;
+            }
+            template = compile(issuerId, withDestination);
+            templates.putIfAbsent(key, template);
+        }
+        return template.segments == null ? null : template;
+    }
+
+    /**
+     * Serialize an AuthnRequest with unique placeholders and cut the output at the placeholders
+     */
+    private Template compile(String issuerId, boolean withDestination) throws Exception {
+        String marker = UUID.randomUUID().toString();
+        String[] placeholders = new String[4];
+        placeholders[ID] = "_id-" + marker;
+        placeholders[ISSUE_INSTANT] = SAMLConfigurationSupport.getSAMLDateFormatter().print(TEMPLATE_ISSUE_INSTANT);
+        placeholders[ASSERTION_CONSUMER_SERVICE_URL] = "urn:fediz:acs:" + marker;
+        placeholders[DESTINATION] = withDestination ? "urn:fediz:destination:" + marker : null;
+
+        AuthnRequest authnRequest =
+            createAuthnRequest(issuerId, placeholders[ASSERTION_CONSUMER_SERVICE_URL]);
+        authnRequest.setID(placeholders[ID]);
+        authnRequest.setIssueInstant(TEMPLATE_ISSUE_INSTANT);
+        if (withDestination) {
+            authnRequest.setDestination(placeholders[DESTINATION]);
+        }
+
+        // The same steps as SAMLProcessorImpl, the output must not differ from it
+        Document doc = DOMUtils.createDocument();
+        doc.appendChild(doc.createElement("root"));
+        Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
+        String xml = DOM2Writer.nodeToString(authnRequestElement);
+
+        int count = withDestination ? 4 : 3;
+        int[] positions = new int[count];
+        int[] fields = new int[count];
+        for (int i = 0; i < count; i++) {
+            int pos = xml.indexOf(placeholders[i]);
+            if (pos < 0 || xml.indexOf(placeholders[i], pos + 1) >= 0) {
+                // Not found verbatim or not unique, always use the object model
+                return new Template(null, null);
+            }
+            positions[i] = pos;
+            fields[i] = i;
+        }
+
+        // Order the fields by their position in the document
+        for (int i = 1; i < count; i++) {
+            for (int j = i; j > 0 && positions[j - 1] > positions[j]; j--) {
+                int pos = positions[j];
+                positions[j] = positions[j - 1];
+                positions[j - 1] = pos;
+                int field = fields[j];
+                fields[j] = fields[j - 1];
+                fields[j - 1] = field;
+            }
+        }
+
+        byte[][] segments = new byte[count + 1][];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            segments[i] = xml.substring(start, positions[i]).getBytes(StandardCharsets.UTF_8);
+            start = positions[i] + placeholders[fields[i]].length();
+        }
+        segments[count] = xml.substring(start).getBytes(StandardCharsets.UTF_8);
+        return new Template(segments, fields);
+    }
+
+    /**
+     * Whether the value is written unchanged to an attribute, so that it can be copied into the template.
+     * This holds for printable ASCII characters apart from the ones which are escaped in XML.
+     */
+    private static boolean isVerbatim(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7E || c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Template {
+        private final byte[][] segments;
+        private final int[] fields;
+        private final int length;
+
+        Template(byte[][] segments, int[] fields) {
+            this.segments = segments;
+            this.fields = fields;
+            int total = 0;
+            if (segments != null) {
+                for (byte[] segment : segments) {
+                    total += segment.length;
+                }
+            }
+            this.length = total;
+        }
+
+        byte[] apply(String[] values) {
+            // All values are ASCII, so the number of characters is the number of bytes
+            int total = length;
+            for (int field : fields) {
+                total += values[field].length();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(total);
+            for (int i = 0; i < fields.length; i++) {
+                out.write(segments[i], 0, segments[i].length);
+                byte[] value = values[fields[i]].getBytes(StandardCharsets.US_ASCII);
+                out.write(value, 0, value.length);
+            }
+            byte[] last = segments[fields.length];
+            out.write(last, 0, last.length);
+            return out.toByteArray();
+        }
+    }
+
+    private static final class TemplateKey {
+        private final String issuerId;
+        private final boolean withDestination;
+
+        TemplateKey(String issuerId, boolean withDestination) {
+            this.issuerId = issuerId;
+            this.withDestination = withDestination;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey other = (TemplateKey)obj;
+            return withDestination == other.withDestination && issuerId.equals(other.issuerId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuerId, withDestination);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+
+import org.xml.sax.SAXException;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimCollection;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.samlsso.DeflateCodec;
+import org.apache.wss4j.common.util.DOM2Writer;
+
+/**
+ * A compact binary format for the principal, claims and response which end up in a replicated HTTP session.
+ * Compared to default Java serialisation it writes no class descriptors for the claims, numbers as varints
+ * and every string only once per object, with the well-known claim types predefined. Roles are interned when
+ * read, claim types are interned and the login token is written deflated.
+ *
+ * The format starts with a version byte, {@link #VERSION}. The predefined strings are part of the format, a
+ * change to them needs a new version.
+ */
+public final class CompactCodec {
+
+    public static final int VERSION = 1;
+
+    private static final List<URI> PREDEFINED_URIS = Collections.unmodifiableList(Arrays.asList(
+        ClaimTypes.URI_BASE,
+        ClaimTypes.FIRSTNAME,
+        ClaimTypes.LASTNAME,
+        ClaimTypes.EMAILADDRESS,
+        ClaimTypes.STREETADDRESS,
+        ClaimTypes.LOCALITY,
+        ClaimTypes.STATE_PROVINCE,
+        ClaimTypes.POSTALCODE,
+        ClaimTypes.COUNTRY,
+        ClaimTypes.HOMEPHONE,
+        ClaimTypes.OTHERPHONE,
+        ClaimTypes.MOBILEPHONE,
+        ClaimTypes.DATEOFBIRTH,
+        ClaimTypes.GENDER,
+        ClaimTypes.PRIVATE_PERSONAL_IDENTIFIER,
+        ClaimTypes.WEB_PAGE,
+        URI.create("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/role")));
+
+    private static final List<String> DICTIONARY = new ArrayList<>();
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_STRINGS = 2;
+    private static final int VALUE_OBJECT = 3;
+
+    static {
+        for (URI uri : PREDEFINED_URIS) {
+            String s = uri.toString();
+            DICTIONARY.add(s);
+            DICTIONARY_INDEX.put(s, DICTIONARY_INDEX.size());
+        }
+    }
+
+    private CompactCodec() {
+    }
+
+    public static Writer newWriter(ObjectOutput out) {
+        return new Writer(out, true);
+    }
+
+    public static Reader newReader(ObjectInput in) {
+        return new Reader(in, true);
+    }
+
+    /**
+     * @param allowObjects whether claim values other than strings and lists of strings, and claim principals,
+     *        are written with Java serialisation. If not, the writer rejects them.
+     */
+    public static Writer newWriter(ObjectOutput out, boolean allowObjects) {
+        return new Writer(out, allowObjects);
+    }
+
+    /**
+     * @param allowObjects whether claim values and principals written with Java serialisation are read. If not,
+     *        the reader rejects them and never calls readObject, for data from outside of the JVMs of the service.
+     */
+    public static Reader newReader(ObjectInput in, boolean allowObjects) {
+        return new Reader(in, allowObjects);
+    }
+
+    /**
+     * Writes the compact format. The strings written by one writer share a table, so a writer should be used
+     * for one object (graph) and then be dropped.
+     */
+    public static final class Writer {
+        private final ObjectOutput out;
+        private final boolean allowObjects;
+        private final Map<String, Integer> strings = new HashMap<>(DICTIONARY_INDEX);
+
+        private Writer(ObjectOutput out, boolean allowObjects) {
+            this.out = out;
+            this.allowObjects = allowObjects;
+        }
+
+        public void writeVersion() throws IOException {
+            out.writeByte(VERSION);
+        }
+
+        public void writeVarInt(int value) throws IOException {
+            int v = value;
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+
+        public void writeVarLong(long value) throws IOException {
+            long v = value;
+            while ((v & ~0x7FL) != 0L) {
+                out.writeByte((int)(v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte((int)v);
+        }
+
+        public void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(1);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        public void writeUri(URI value) throws IOException {
+            writeString(value == null ? null : value.toString());
+        }
+
+        public void writeStrings(List<String> values) throws IOException {
+            if (values == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(values.size() + 1);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        public void writeInstant(Instant value) throws IOException {
+            if (value == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            long seconds = value.getEpochSecond();
+            writeVarLong((seconds << 1) ^ (seconds >> 63));
+            writeVarInt(value.getNano());
+        }
+
+        public void writeClaims(List<Claim> claims) throws IOException {
+            if (claims == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(claims.size() + 1);
+            for (Claim claim : claims) {
+                writeClaim(claim);
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        public void writeClaim(Claim claim) throws IOException {
+            writeUri(claim.getClaimType());
+            writeUri(claim.getNamespace());
+            writeString(claim.getIssuer());
+            writeString(claim.getOriginalIssuer());
+            writeValue(claim.getValue());
+            Principal principal = claim.getPrincipal();
+            if (principal == null) {
+                out.writeByte(0);
+            } else if (!allowObjects) {
+                throw new NotSerializableException("The principal of the claim " + claim.getClaimType());
+            } else {
+                out.writeByte(1);
+                out.writeObject(principal);
+            }
+        }
+
+        /**
+         * Write a string, a list of strings, or any other serializable object with Java serialisation
+         */
+        public void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(VALUE_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(VALUE_STRING);
+                writeString((String)value);
+            } else if (value instanceof List && isStringList((List<?>)value)) {
+                out.writeByte(VALUE_STRINGS);
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>)value;
+                writeStrings(values);
+            } else if (!allowObjects) {
+                throw new NotSerializableException(value.getClass().getName());
+            } else {
+                out.writeByte(VALUE_OBJECT);
+                out.writeObject(value);
+            }
+        }
+
+        /**
+         * Write the element as deflated XML
+         */
+        public void writeElement(Element element) throws IOException {
+            if (element == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = DeflateCodec.getInstance().deflate(
+                DOM2Writer.nodeToString(element).getBytes(StandardCharsets.UTF_8));
+            writeVarInt(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        private static boolean isStringList(List<?> values) {
+            for (Object value : values) {
+                if (!(value instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the compact format written by a {@link Writer}, one reader per writer.
+     */
+    public static final class Reader {
+        private final ObjectInput in;
+        private final boolean allowObjects;
+        private final List<String> strings = new ArrayList<>(DICTIONARY);
+
+        private Reader(ObjectInput in, boolean allowObjects) {
+            this.in = in;
+            this.allowObjects = allowObjects;
+        }
+
+        public void readVersion() throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("Unsupported format version " + version);
+            }
+        }
+
+        public int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0L;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        public String readString() throws IOException {
+            int tag = readVarInt();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag == 1) {
+                String value = new String(readBytes(readVarInt()), StandardCharsets.UTF_8);
+                strings.add(value);
+                return value;
+            }
+            int index = tag - 2;
+            if (index < 0 || index >= strings.size()) {
+                throw new StreamCorruptedException("Unknown string reference " + index);
+            }
+            return strings.get(index);
+        }
+
+        public URI readUri() throws IOException {
+            String value = readString();
+            if (value == null) {
+                return null;
+            }
+            try {
+                return ClaimCollection.internClaimType(value);
+            } catch (IllegalArgumentException e) {
+                throw new StreamCorruptedException("Invalid URI " + value);
+            }
+        }
+
+        /**
+         * @param intern whether to intern the strings, for values like roles which repeat across sessions
+         */
+        public List<String> readStrings(boolean intern) throws IOException {
+            int size = readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                String value = readString();
+                values.add(intern && value != null ? value.intern() : value);
+            }
+            return values;
+        }
+
+        public Instant readInstant() throws IOException {
+            if (in.readUnsignedByte() == 0) {
+                return null;
+            }
+            long zigzag = readVarLong();
+            long seconds = (zigzag >>> 1) ^ -(zigzag & 1L);
+            return Instant.ofEpochSecond(seconds, readVarInt());
+        }
+
+        public List<Claim> readClaims() throws IOException, ClassNotFoundException {
+            int size = readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            List<Claim> claims = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                claims.add(readClaim());
+            }
+            return claims;
+        }
+
+        @SuppressWarnings("deprecation")
+        public Claim readClaim() throws IOException, ClassNotFoundException {
+            Claim claim = new Claim();
+            claim.setClaimType(readUri());
+            claim.setNamespace(readUri());
+            claim.setIssuer(readString());
+            claim.setOriginalIssuer(readString());
+            claim.setValue(readValue());
+            if (in.readUnsignedByte() != 0) {
+                if (!allowObjects) {
+                    throw new InvalidObjectException("Unexpected principal of the claim " + claim.getClaimType());
+                }
+                claim.setPrincipal((Principal)in.readObject());
+            }
+            return claim;
+        }
+
+        public Object readValue() throws IOException, ClassNotFoundException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return readString();
+            case VALUE_STRINGS:
+                return readStrings(false);
+            case VALUE_OBJECT:
+                if (!allowObjects) {
+                    throw new InvalidObjectException("Unexpected serialized claim value");
+                }
+                return in.readObject();
+            default:
+                throw new StreamCorruptedException("Unknown value type " + type);
+            }
+        }
+
+        public Element readElement() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            try {
+                return DOMUtils.readXml(DeflateCodec.getInstance().inflate(readBytes(length)))
+                    .getDocumentElement();
+            } catch (DataFormatException e) {
+                throw new StreamCorruptedException("Invalid deflated element");
+            } catch (SAXException | ParserConfigurationException e) {
+                InvalidObjectException ex = new InvalidObjectException("Invalid element");
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if (length < 0) {
+                throw new StreamCorruptedException("Negative length");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+}
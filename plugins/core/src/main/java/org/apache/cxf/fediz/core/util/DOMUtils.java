@@ -33,8 +33,11 @@ import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -58,6 +61,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Few simple utils to read DOM. This is originally from the Jakarta Commons Modeler.
  *
+ * The XML machinery (DocumentBuilder, Transformer, XMLInputFactory and XMLOutputFactory) is hardened
+ * and kept per thread, so it should be obtained from here rather than from the JAXP factories. An
+ * instance must not be held on to beyond the current call, as the next caller on the same thread
+ * gets the same instance.
+ *
  * @author Costin Manolache
  */
 public final class DOMUtils {
@@ -83,9 +91,101 @@ public final class DOMUtils {
         }
     }
 
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER =
+        ThreadLocal.withInitial(DOMUtils::createDocumentBuilder);
+
+    private static final ThreadLocal<TransformerFactory> TRANSFORMER_FACTORY =
+        ThreadLocal.withInitial(DOMUtils::createTransformerFactory);
+
+    private static final ThreadLocal<Transformer> TRANSFORMER =
+        ThreadLocal.withInitial(DOMUtils::createTransformer);
+
+    private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+        ThreadLocal.withInitial(DOMUtils::createXMLInputFactory);
+
+    private static final ThreadLocal<XMLOutputFactory> XML_OUTPUT_FACTORY =
+        ThreadLocal.withInitial(XMLOutputFactory::newInstance);
+
     private DOMUtils() {
     }
 
+    /**
+     * Get the namespace aware DocumentBuilder of the current thread, reset to its initial configuration.
+     * DOCTYPE declarations are disallowed.
+     */
+    public static DocumentBuilder getDocumentBuilder() {
+        DocumentBuilder db = DOCUMENT_BUILDER.get();
+        db.reset();
+        return db;
+    }
+
+    /**
+     * Get the identity Transformer of the current thread, reset to its initial configuration.
+     */
+    public static Transformer getTransformer() {
+        Transformer t = TRANSFORMER.get();
+        t.reset();
+        return t;
+    }
+
+    /**
+     * Get the TransformerFactory of the current thread, with secure processing enabled.
+     */
+    public static TransformerFactory getTransformerFactory() {
+        return TRANSFORMER_FACTORY.get();
+    }
+
+    /**
+     * Get the namespace aware XMLInputFactory of the current thread. DTDs and external
+     * entities are not supported.
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        return XML_INPUT_FACTORY.get();
+    }
+
+    /**
+     * Get the XMLOutputFactory of the current thread.
+     */
+    public static XMLOutputFactory getXMLOutputFactory() {
+        return XML_OUTPUT_FACTORY.get();
+    }
+
+    private static DocumentBuilder createDocumentBuilder() {
+        try {
+            synchronized (DBF) {
+                return DBF.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("Couldn't find a DOM parser.", e);
+        }
+    }
+
+    private static TransformerFactory createTransformerFactory() {
+        TransformerFactory tf = TransformerFactory.newInstance();
+        try {
+            tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (TransformerConfigurationException e) {
+            LOG.error("Error configuring TransformerFactory", e);
+        }
+        return tf;
+    }
+
+    private static Transformer createTransformer() {
+        try {
+            return TRANSFORMER_FACTORY.get().newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Couldn't create a Transformer.", e);
+        }
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
     /**
      * This function is much like getAttribute, but returns null, not "", for a nonexistent attribute.
      *
@@ -428,14 +528,12 @@ public final class DOMUtils {
      */
     public static Document readXml(InputStream is) throws SAXException, IOException,
         ParserConfigurationException {
-        DocumentBuilder db = DBF.newDocumentBuilder();
-        return db.parse(is);
+        return getDocumentBuilder().parse(is);
     }
 
     public static Document readXml(Reader is) throws SAXException, IOException, ParserConfigurationException {
         InputSource ips = new InputSource(is);
-        DocumentBuilder db = DBF.newDocumentBuilder();
-        return db.parse(ips);
+        return getDocumentBuilder().parse(ips);
     }
 
     public static Document readXml(StreamSource is) throws SAXException, IOException,
@@ -445,25 +543,18 @@ public final class DOMUtils {
         is2.setByteStream(is.getInputStream());
         is2.setCharacterStream(is.getReader());
 
-        DocumentBuilder db = DBF.newDocumentBuilder();
-        return db.parse(is2);
+        return getDocumentBuilder().parse(is2);
     }
 
     public static void writeXml(Node n, OutputStream os) throws TransformerException {
-        TransformerFactory tf = TransformerFactory.newInstance();
-        tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
         // identity
-        Transformer t = tf.newTransformer();
+        Transformer t = getTransformer();
         t.setOutputProperty(OutputKeys.INDENT, "yes");
         t.transform(new DOMSource(n), new StreamResult(os));
     }
 
     public static Document createDocument() {
-        try {
-            return DBF.newDocumentBuilder().newDocument();
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException("Couldn't find a DOM parser.", e);
-        }
+        return getDocumentBuilder().newDocument();
     }
 
     public static String getPrefixRecursive(Element el, String ns) {
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+
+public class ClaimCollectionTest {
+
+    private static final URI DEPARTMENT = URI.create("http://example.com/claims/department");
+
+    @org.junit.Test
+    public void testLookupByClaimType() {
+        ClaimCollection claims = createClaims();
+
+        Assert.assertEquals("alice@example.com", claims.getFirstValue(ClaimTypes.EMAILADDRESS));
+        Assert.assertEquals("alice@example.com", claims.getFirstValue(ClaimTypes.EMAILADDRESS, String.class));
+        Assert.assertNull(claims.getFirstValue(ClaimTypes.EMAILADDRESS, Integer.class));
+        Assert.assertSame(claims.get(0), claims.getClaim(ClaimTypes.EMAILADDRESS));
+
+        // Values of several claims of the same type are flattened in the order of the collection
+        Assert.assertEquals(2, claims.getClaims(DEPARTMENT).size());
+        Assert.assertEquals(Arrays.asList("Sales", "Marketing", "Finance"), claims.getValues(DEPARTMENT));
+        Assert.assertEquals(Arrays.asList("Sales", "Marketing", "Finance"),
+                            claims.getValues(DEPARTMENT, String.class));
+        Assert.assertTrue(claims.hasValue(DEPARTMENT, "Finance"));
+        Assert.assertFalse(claims.hasValue(DEPARTMENT, "Legal"));
+
+        // Lookups work with an equal claim type which is not the same instance
+        Assert.assertTrue(claims.containsClaimType(URI.create(ClaimTypes.EMAILADDRESS.toString())));
+
+        Assert.assertFalse(claims.containsClaimType(ClaimTypes.COUNTRY));
+        Assert.assertNull(claims.getClaim(ClaimTypes.COUNTRY));
+        Assert.assertNull(claims.getFirstValue(ClaimTypes.COUNTRY));
+        Assert.assertTrue(claims.getClaims(ClaimTypes.COUNTRY).isEmpty());
+        Assert.assertTrue(claims.getValues(ClaimTypes.COUNTRY).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testImmutable() {
+        ClaimCollection claims = createClaims();
+        List<Claim> original = new ArrayList<>(claims);
+
+        assertUnsupported(() -> claims.add(new Claim()));
+        assertUnsupported(() -> claims.remove(0));
+        assertUnsupported(() -> claims.removeIf(c -> true));
+        assertUnsupported(() -> claims.retainAll(Collections.emptyList()));
+        assertUnsupported(() -> claims.replaceAll(c -> null));
+        assertUnsupported(() -> claims.sort(null));
+        assertUnsupported(() -> claims.getClaims(DEPARTMENT).clear());
+        assertUnsupported(() -> claims.getValues(DEPARTMENT).clear());
+
+        Assert.assertEquals(original, claims);
+        Assert.assertEquals(3, claims.getValues(DEPARTMENT).size());
+    }
+
+    @org.junit.Test
+    public void testInternClaimType() {
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, ClaimCollection.internClaimType(ClaimTypes.EMAILADDRESS.toString()));
+        Assert.assertSame(ClaimTypes.EMAILADDRESS,
+                          ClaimCollection.internClaimType(URI.create(ClaimTypes.EMAILADDRESS.toString())));
+
+        URI custom = ClaimCollection.internClaimType(DEPARTMENT.toString());
+        Assert.assertEquals(DEPARTMENT, custom);
+        Assert.assertSame(custom, ClaimCollection.internClaimType(DEPARTMENT.toString()));
+        Assert.assertNull(ClaimCollection.internClaimType((URI)null));
+    }
+
+    @org.junit.Test
+    public void testInvalidClaimType() {
+        try {
+            ClaimCollection.internClaimType("not a uri");
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    private static ClaimCollection createClaims() {
+        List<Claim> claims = new ArrayList<>();
+        claims.add(createClaim(ClaimTypes.EMAILADDRESS, "alice@example.com"));
+        claims.add(createClaim(DEPARTMENT, "Sales"));
+        claims.add(createClaim(ClaimTypes.FIRSTNAME, "Alice"));
+        claims.add(createClaim(DEPARTMENT, Arrays.asList("Marketing", "Finance")));
+        return new ClaimCollection(claims);
+    }
+
+    private static Claim createClaim(URI claimType, Object value) {
+        Claim claim = new Claim();
+        claim.setClaimType(claimType);
+        claim.setValue(value);
+        return claim;
+    }
+
+    private static void assertUnsupported(Runnable operation) {
+        try {
+            operation.run();
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+public class MappedReplayCacheTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fediz-replay-cache", ".bin");
+        // Let the cache create the file
+        Assert.assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @org.junit.Test
+    public void testAddAndContains() {
+        MappedReplayCache cache = new MappedReplayCache(file, 1024, clock::get);
+        try {
+            Assert.assertFalse(cache.contains("id-1"));
+            cache.add("id-1");
+            cache.add("id-2", 60L);
+            Assert.assertTrue(cache.contains("id-1"));
+            Assert.assertTrue(cache.contains("id-2"));
+            Assert.assertFalse(cache.contains("id-3"));
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(1024, cache.getCapacity());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testExpiry() {
+        MappedReplayCache cache = new MappedReplayCache(file, 1024, clock::get);
+        try {
+            cache.add("short", 5L);
+            cache.add("long", 600L);
+
+            clock.addAndGet(4_000L);
+            Assert.assertTrue(cache.contains("short"));
+
+            clock.addAndGet(2_000L);
+            Assert.assertFalse(cache.contains("short"));
+            Assert.assertTrue(cache.contains("long"));
+
+            // The slot of an expired identifier can be used again
+            cache.add("short", 5L);
+            Assert.assertTrue(cache.contains("short"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testSharedFile() {
+        MappedReplayCache cache = new MappedReplayCache(file, 2048, clock::get);
+        MappedReplayCache sibling = new MappedReplayCache(file, 1024, clock::get);
+        cache.add("id");
+        Assert.assertTrue(sibling.contains("id"));
+        // The size of the table is fixed by the first user of the file
+        Assert.assertEquals(2048, sibling.getCapacity());
+        cache.close();
+        sibling.close();
+
+        // The identifiers are kept in the file, e.g. for a JVM which is started later
+        MappedReplayCache reopened = new MappedReplayCache(file, 4096, clock::get);
+        try {
+            Assert.assertTrue(reopened.contains("id"));
+            Assert.assertEquals(2048, reopened.getCapacity());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testFullTable() {
+        MappedReplayCache cache = new MappedReplayCache(file, 1024, clock::get);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                cache.add("id-" + i, 60L + i);
+            }
+            Assert.assertTrue(cache.getEvictionCount() > 0);
+            Assert.assertEquals(1024, cache.size());
+            // The identifiers which expire last are kept
+            Assert.assertTrue(cache.contains("id-1999"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testCompaction() {
+        MappedReplayCache cache = new MappedReplayCache(file, 1024, clock::get);
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 500; i++) {
+                    cache.add(round + "-" + i, 10L);
+                }
+                for (int i = 0; i < 500; i++) {
+                    Assert.assertTrue(cache.contains(round + "-" + i));
+                }
+                clock.addAndGet(11_000L);
+            }
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(0, cache.getEvictionCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testTableSharedAcrossPaths() throws Exception {
+        File parent = file.getParentFile();
+        File dotted = new File(new File(parent, ".." + File.separator + parent.getName()), file.getName());
+        MappedReplayCache cache = new MappedReplayCache(file, 1024, clock::get);
+        MappedReplayCache other = new MappedReplayCache(dotted, 1024, clock::get);
+        File link = new File(parent, "link-" + file.getName());
+        MappedReplayCache linked = null;
+        try {
+            try {
+                Files.createSymbolicLink(link.toPath(), file.toPath());
+                linked = new MappedReplayCache(link, 1024, clock::get);
+            } catch (IOException | UnsupportedOperationException ex) {
+                // No symbolic links on this file system
+            }
+            for (int i = 0; i < 2000; i++) {
+                cache.add("id-" + i, 10L + i);
+            }
+            // The eviction count is kept per table of the JVM
+            Assert.assertTrue(cache.getEvictionCount() > 0);
+            Assert.assertEquals(cache.getEvictionCount(), other.getEvictionCount());
+            if (linked != null) {
+                Assert.assertEquals(cache.getEvictionCount(), linked.getEvictionCount());
+            }
+        } finally {
+            cache.close();
+            other.close();
+            if (linked != null) {
+                linked.close();
+            }
+            link.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testFileRequired() {
+        String previous = System.getProperty(MappedReplayCache.FILE_PROPERTY);
+        System.clearProperty(MappedReplayCache.FILE_PROPERTY);
+        try {
+            new MappedReplayCache();
+            Assert.fail("Failure expected without a replay cache file");
+        } catch (IllegalStateException ex) {
+            // expected
+        } finally {
+            if (previous != null) {
+                System.setProperty(MappedReplayCache.FILE_PROPERTY, previous);
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testFileWritableByOthersRejected() throws Exception {
+        Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(
+            PosixFilePermissions.fromString("rw-------")));
+        try {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+        } catch (UnsupportedOperationException ex) {
+            // No POSIX permissions on this file system
+            return;
+        }
+        try {
+            new MappedReplayCache(file, 1024, clock::get).close();
+            Assert.fail("Failure expected for a file other users can write to");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+        new MappedReplayCache(file, 1024, clock::get).close();
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+
+public class StripedReplayCacheTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    @org.junit.Test
+    public void testAddAndContains() {
+        StripedReplayCache cache = new StripedReplayCache(100, 4, clock::get);
+        Assert.assertFalse(cache.contains("id-1"));
+        cache.add("id-1");
+        cache.add("id-2", 60L);
+        Assert.assertTrue(cache.contains("id-1"));
+        Assert.assertTrue(cache.contains("id-2"));
+        Assert.assertFalse(cache.contains("id-3"));
+        Assert.assertFalse(cache.contains(null));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @org.junit.Test
+    public void testExpiry() {
+        StripedReplayCache cache = new StripedReplayCache(100, 4, clock::get);
+        cache.add("short", 5L);
+        cache.add("long", 600L);
+
+        clock.addAndGet(4_000L);
+        Assert.assertTrue(cache.contains("short"));
+
+        clock.addAndGet(2_000L);
+        Assert.assertFalse(cache.contains("short"));
+        Assert.assertTrue(cache.contains("long"));
+
+        clock.addAndGet(600_000L);
+        Assert.assertFalse(cache.contains("long"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(2, cache.getExpirationCount());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @org.junit.Test
+    public void testInvalidTimeToLive() {
+        StripedReplayCache cache = new StripedReplayCache(100, 1, clock::get);
+        cache.add("negative", -1L);
+        cache.add("too-long", StripedReplayCache.MAX_TTL + 1);
+
+        // Both fall back to the default time to live
+        clock.addAndGet(StripedReplayCache.DEFAULT_TTL * 1000L - 1000L);
+        Assert.assertTrue(cache.contains("negative"));
+        Assert.assertTrue(cache.contains("too-long"));
+
+        clock.addAndGet(2000L);
+        Assert.assertFalse(cache.contains("negative"));
+        Assert.assertFalse(cache.contains("too-long"));
+    }
+
+    @org.junit.Test
+    public void testCapacity() {
+        StripedReplayCache cache = new StripedReplayCache(10, 1, clock::get);
+        for (int i = 0; i < 15; i++) {
+            cache.add("id-" + i);
+        }
+        Assert.assertEquals(10, cache.size());
+        Assert.assertEquals(5, cache.getEvictionCount());
+        // The oldest identifiers are evicted first
+        Assert.assertFalse(cache.contains("id-0"));
+        Assert.assertFalse(cache.contains("id-4"));
+        Assert.assertTrue(cache.contains("id-5"));
+        Assert.assertTrue(cache.contains("id-14"));
+    }
+
+    @org.junit.Test
+    public void testReAdd() {
+        StripedReplayCache cache = new StripedReplayCache(100, 1, clock::get);
+        cache.add("id", 5L);
+        cache.add("id", 100L);
+        Assert.assertEquals(1, cache.size());
+
+        clock.addAndGet(10_000L);
+        Assert.assertTrue(cache.contains("id"));
+    }
+
+    @org.junit.Test
+    public void testClose() {
+        StripedReplayCache cache = new StripedReplayCache(100, 4, clock::get);
+        cache.add("id");
+        cache.close();
+        Assert.assertFalse(cache.contains("id"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testTimerWheelLevels() {
+        long now = 0L;
+        TimerWheel<Long> wheel = new TimerWheel<>(1000L, now);
+        // Expiry times on all levels of the wheel, and beyond its span
+        long[] expiries = {1_000L, 63_000L, 64_000L, 65_000L, 4_095_000L, 4_097_000L, 300_000_000L,
+                           20_000_000_000L};
+        for (long expiry : expiries) {
+            wheel.schedule(expiry, expiry);
+        }
+        TimerWheel.Node<Long> cancelled = wheel.schedule(100_000L, 100_000L);
+        wheel.cancel(cancelled);
+        Assert.assertEquals(expiries.length, wheel.size());
+
+        List<Long> expired = new ArrayList<>();
+        // Turn the wheel in steps of various sizes and check that nothing expires early or late
+        long[] steps = {500L, 1_000L, 61_000L, 999L, 1L, 1_000L, 50_000L, 4_000_000L, 300_000_000L,
+                        20_000_000_000L};
+        for (long step : steps) {
+            now += step;
+            long time = now;
+            wheel.advance(now, expiry -> {
+                Assert.assertTrue("Expired early", expiry <= time);
+                expired.add(expiry);
+            });
+            for (long expiry : expiries) {
+                Assert.assertEquals(expiry <= now, expired.contains(expiry));
+            }
+        }
+        Assert.assertFalse(expired.contains(100_000L));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Properties;
+
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.cxf.fediz.core.saml.TrustDecisionCache;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+public class CryptoCacheTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testKeystoreSharedAcrossContexts() throws Exception {
+        // ROOT and ROOT3 both trust ststrust.jks
+        FedizContext root = loadContext("ROOT");
+        FedizContext root3 = loadContext("ROOT3");
+        Crypto crypto = getCrypto(root, "ststrust.jks");
+        Assert.assertNotNull(crypto);
+        Assert.assertSame(crypto, getCrypto(root3, "ststrust.jks"));
+        Assert.assertSame(root.getCertificateStores(), root.getCertificateStores());
+
+        // Still in use by ROOT3 after ROOT has been closed
+        root.close();
+        FedizContext other = loadContext("ROOT");
+        Assert.assertSame(crypto, getCrypto(other, "ststrust.jks"));
+        other.close();
+        root3.close();
+    }
+
+    @org.junit.Test
+    public void testClosedContextDoesNotLoadKeystores() throws Exception {
+        FedizContext root = loadContext("ROOT");
+        Assert.assertNotNull(getCrypto(root, "ststrust.jks"));
+        root.close();
+        Assert.assertTrue(root.isClosed());
+        try {
+            root.getCertificateStores();
+            Assert.fail("Failure expected on a closed context");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        // Closing again does not release the keystores twice
+        root.close();
+    }
+
+    @org.junit.Test
+    public void testModifiedKeystoreIsReloaded() throws Exception {
+        Properties properties = createKeystoreProperties();
+        File keystore = new File(properties.getProperty(CryptoCache.KEYSTORE_FILE));
+
+        CryptoCache cache = new CryptoCache();
+        cache.setCheckInterval(0L);
+        CryptoCache.CachedCrypto first = cache.acquire(properties);
+        CryptoCache.CachedCrypto second = cache.acquire(properties);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertFalse(first.isModified());
+
+        // Append a byte, so that both the content digest and the length change
+        Files.write(keystore.toPath(), new byte[] {0}, StandardOpenOption.APPEND);
+        Assert.assertTrue(first.isModified());
+
+        cache.release(first);
+        cache.release(second);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testTrustDecisionsDroppedWithKeystore() throws Exception {
+        Properties properties = createKeystoreProperties();
+        CryptoCache cache = new CryptoCache();
+        cache.setCheckInterval(0L);
+        TrustDecisionCache decisions = TrustDecisionCache.getInstance();
+        PublicKey publicKey = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+
+        // Released by the last user
+        CryptoCache.CachedCrypto first = cache.acquire(properties);
+        CryptoCache.CachedCrypto second = cache.acquire(properties);
+        decisions.setTrusted(publicKey, first.getCrypto());
+        cache.release(first);
+        Assert.assertTrue(decisions.isTrusted(publicKey, second.getCrypto()));
+        cache.release(second);
+        Assert.assertFalse(decisions.isTrusted(publicKey, second.getCrypto()));
+
+        // Keystore file modified while still in use
+        CryptoCache.CachedCrypto third = cache.acquire(properties);
+        decisions.setTrusted(publicKey, third.getCrypto());
+        File keystore = new File(properties.getProperty(CryptoCache.KEYSTORE_FILE));
+        Files.write(keystore.toPath(), new byte[] {0}, StandardOpenOption.APPEND);
+        Assert.assertTrue(third.isModified());
+        Assert.assertFalse(decisions.isTrusted(publicKey, third.getCrypto()));
+        cache.release(third);
+    }
+
+    private static Properties createKeystoreProperties() throws Exception {
+        final URL resource = Thread.currentThread().getContextClassLoader().getResource("ststrust.jks");
+        File keystore = File.createTempFile("ststrust", ".jks");
+        keystore.deleteOnExit();
+        Files.copy(new File(resource.toURI()).toPath(), keystore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Properties properties = new Properties();
+        properties.put(CryptoCache.KEYSTORE_FILE, keystore.getAbsolutePath());
+        properties.put(CryptoCache.KEYSTORE_TYPE, "jks");
+        properties.put(CryptoCache.KEYSTORE_PASSWORD, "storepass");
+        return properties;
+    }
+
+    private static Crypto getCrypto(FedizContext context, String storeName) {
+        for (TrustManager tm : context.getCertificateStores()) {
+            if (tm.getName().endsWith(storeName)) {
+                return tm.getCrypto();
+            }
+        }
+        return null;
+    }
+
+    private static FedizContext loadContext(String name) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        final URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        configurator.loadConfig(new File(resource.toURI()));
+        return configurator.getFedizContext(name);
+    }
+
+}
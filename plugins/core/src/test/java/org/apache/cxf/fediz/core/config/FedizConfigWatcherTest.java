@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+public class FedizConfigWatcherTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testReloadOnChange() throws Exception {
+        String content = readConfig();
+        File configFile = writeConfig(content);
+
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(configFile);
+        FedizContext fedContext = configurator.getFedizContext("ROOT");
+        fedContext.setRelativePath("/tmp");
+
+        try (FedizConfigWatcher watcher = new FedizConfigWatcher(configurator, configFile)) {
+            watcher.start();
+            Assert.assertFalse(watcher.checkForChange());
+
+            // Change the audience of the context
+            Files.write(configFile.toPath(), content.replace("http://host_one:port/url", "http://host_two:port/url")
+                        .getBytes(StandardCharsets.UTF_8));
+            configFile.setLastModified(configFile.lastModified() + 10000L);
+            Assert.assertTrue(watcher.checkForChange());
+
+            FedizContext reloadedContext = configurator.getFedizContext("ROOT");
+            Assert.assertNotSame(fedContext, reloadedContext);
+            Assert.assertEquals("http://host_two:port/url", reloadedContext.getAudienceUris().get(0));
+            Assert.assertEquals("/tmp", reloadedContext.getRelativePath());
+            // The replaced context is still usable until it is drained
+            Assert.assertEquals("http://host_one:port/url", fedContext.getAudienceUris().get(0));
+
+            // An invalid configuration keeps the current contexts
+            Files.write(configFile.toPath(), "<FedizConfig>".getBytes(StandardCharsets.UTF_8));
+            configFile.setLastModified(configFile.lastModified() + 20000L);
+            Assert.assertFalse(watcher.checkForChange());
+            Assert.assertSame(reloadedContext, configurator.getFedizContext("ROOT"));
+        }
+    }
+
+    @org.junit.Test
+    public void testRetiredContextClosedWhenReleased() throws Exception {
+        File configFile = writeConfig(readConfig());
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(configFile);
+        FedizContext usedContext = configurator.getFedizContext("ROOT");
+        FedizContext idleContext = configurator.getFedizContext("ROOT3");
+        Assert.assertTrue(usedContext.acquire());
+
+        // Not started, so the replaced contexts are retired when the watcher is closed
+        FedizConfigWatcher watcher = new FedizConfigWatcher(configurator, configFile);
+        Assert.assertTrue(watcher.checkForChange());
+        watcher.close();
+
+        Assert.assertTrue(idleContext.isClosed());
+        Assert.assertFalse(usedContext.isClosed());
+        Assert.assertEquals(1, usedContext.getUsers());
+        Assert.assertEquals("http://host_one:port/url", usedContext.getAudienceUris().get(0));
+
+        usedContext.release();
+        Assert.assertTrue(usedContext.isClosed());
+        Assert.assertFalse(usedContext.acquire());
+
+        FedizContext currentContext = configurator.getFedizContext("ROOT");
+        Assert.assertTrue(currentContext.acquire());
+        currentContext.release();
+        Assert.assertFalse(currentContext.isClosed());
+    }
+
+    private static String readConfig() throws Exception {
+        final URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        return new String(Files.readAllBytes(new File(resource.toURI()).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static File writeConfig(String content) throws Exception {
+        File configFile = File.createTempFile("fediz_config", ".xml");
+        configFile.deleteOnExit();
+        Files.write(configFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return configFile;
+    }
+
+}
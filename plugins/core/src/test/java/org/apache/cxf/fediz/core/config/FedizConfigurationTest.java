@@ -29,6 +29,7 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 
 import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.cxf.fediz.core.cache.StripedReplayCache;
 import org.apache.cxf.fediz.core.config.jaxb.ArgumentType;
 import org.apache.cxf.fediz.core.config.jaxb.AudienceUris;
 import org.apache.cxf.fediz.core.config.jaxb.CallbackType;
@@ -360,6 +361,13 @@ public class FedizConfigurationTest {
         newReplayCache = parseConfigAndReturnTokenReplayCache(config);
         Assert.assertNotNull(newReplayCache);
         Assert.assertTrue(newReplayCache instanceof EHCacheReplayCache);
+
+        // Now test the striped in-memory TokenReplayCache
+        contextConfig.setTokenReplayCache("org.apache.cxf.fediz.core.cache.StripedReplayCache");
+
+        newReplayCache = parseConfigAndReturnTokenReplayCache(config);
+        Assert.assertNotNull(newReplayCache);
+        Assert.assertTrue(newReplayCache instanceof StripedReplayCache);
     }
 
     @org.junit.Test
@@ -412,4 +420,26 @@ public class FedizConfigurationTest {
         Assert.assertFalse(config.isTokenExpirationValidation());
     }
 
-}
\ No newline at end of file
+    @org.junit.Test
+    public void testContextLookup() throws JAXBException {
+        final JAXBContext jaxbContext = JAXBContext.newInstance(FedizConfig.class);
+
+        StringWriter writer = new StringWriter();
+        jaxbContext.createMarshaller().marshal(createConfiguration(true), writer);
+
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(new StringReader(writer.toString()));
+
+        FedizContext fedContext = configurator.getFedizContext(CONFIG_NAME);
+        Assert.assertNotNull(fedContext);
+        Assert.assertSame(configurator.getFedizContextList().get(0), fedContext);
+        Assert.assertSame(fedContext, configurator.getFedizContext(CONFIG_NAME));
+        Assert.assertNotNull(fedContext.getProtocol());
+        Assert.assertNull(configurator.getFedizContext("UNKNOWN"));
+
+        // Loading a configuration again publishes new contexts
+        configurator.loadConfig(new StringReader(writer.toString()));
+        Assert.assertNotSame(fedContext, configurator.getFedizContext(CONFIG_NAME));
+    }
+
+}
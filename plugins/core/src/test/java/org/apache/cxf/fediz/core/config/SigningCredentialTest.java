@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.cxf.fediz.core.config.jaxb.KeyManagersType;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+
+public class SigningCredentialTest {
+
+    private static final byte[] DATA = "SAMLRequest=abc&RelayState=def".getBytes(StandardCharsets.UTF_8);
+
+    @org.junit.Test
+    public void testRSAKey() throws Exception {
+        KeyPair keyPair = generateKeyPair("RSA");
+        Crypto crypto = mockCrypto(keyPair);
+        SigningCredential credential = new SigningCredential(createKeyManager(crypto));
+        Assert.assertEquals(SigningCredential.RSA_SHA1, credential.getDefaultSignatureAlgorithm());
+
+        // The engines are reused, every signature must still be valid
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(verify("SHA1withRSA", keyPair, credential.sign(null, DATA)));
+            Assert.assertTrue(verify("SHA256withRSA", keyPair, credential.sign(SigningCredential.RSA_SHA256, DATA)));
+        }
+        // The private key has been read from the keystore once
+        EasyMock.verify(crypto);
+    }
+
+    @org.junit.Test
+    public void testECKey() throws Exception {
+        KeyPair keyPair = generateKeyPair("EC");
+        SigningCredential credential = new SigningCredential(createKeyManager(mockCrypto(keyPair)));
+        Assert.assertEquals(SigningCredential.ECDSA_SHA256, credential.getDefaultSignatureAlgorithm());
+        Assert.assertTrue(verify("SHA256withECDSA", keyPair, credential.sign(null, DATA)));
+        Assert.assertTrue(verify("SHA384withECDSA", keyPair,
+                                 credential.sign(SigningCredential.ECDSA_SHA384, DATA)));
+    }
+
+    @org.junit.Test
+    public void testUnsupportedAlgorithm() throws Exception {
+        SigningCredential credential =
+            new SigningCredential(createKeyManager(mockCrypto(generateKeyPair("RSA"))));
+        try {
+            credential.sign("http://www.w3.org/2000/09/xmldsig#hmac-sha1", DATA);
+            Assert.fail("GeneralSecurityException expected");
+        } catch (GeneralSecurityException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testConcurrentSigning() throws Exception {
+        KeyPair keyPair = generateKeyPair("RSA");
+        SigningCredential credential = new SigningCredential(createKeyManager(mockCrypto(keyPair)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                byte[] data = ("SAMLRequest=" + i).getBytes(StandardCharsets.UTF_8);
+                Callable<Boolean> task =
+                    () -> verify("SHA256withRSA", keyPair, data, credential.sign(SigningCredential.RSA_SHA256, data));
+                results.add(executor.submit(task));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static KeyPair generateKeyPair(String algorithm) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize("EC".equals(algorithm) ? 256 : 2048);
+        return generator.generateKeyPair();
+    }
+
+    private static Crypto mockCrypto(KeyPair keyPair) throws Exception {
+        Crypto crypto = EasyMock.createMock(Crypto.class);
+        EasyMock.expect(crypto.getPrivateKey("mykey", "keypass")).andReturn(keyPair.getPrivate()).once();
+        EasyMock.replay(crypto);
+        return crypto;
+    }
+
+    private static KeyManager createKeyManager(Crypto crypto) {
+        KeyManagersType keyManagerType = new KeyManagersType();
+        keyManagerType.setKeyAlias("mykey");
+        keyManagerType.setKeyPassword("keypass");
+        KeyManager keyManager = new KeyManager(keyManagerType);
+        keyManager.setCrypto(crypto);
+        return keyManager;
+    }
+
+    private static boolean verify(String jceAlgorithm, KeyPair keyPair, byte[] signatureValue) throws Exception {
+        return verify(jceAlgorithm, keyPair, DATA, signatureValue);
+    }
+
+    private static boolean verify(String jceAlgorithm, KeyPair keyPair, byte[] data, byte[] signatureValue)
+        throws Exception {
+        Signature signature = Signature.getInstance(jceAlgorithm);
+        signature.initVerify(keyPair.getPublic());
+        signature.update(data);
+        return signature.verify(signatureValue);
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+public class TrustIndexTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testCandidatesForKnownCertificate() throws Exception {
+        FedizContext config = loadContext("ROOT2");
+        TrustIndex trustIndex = config.getTrustIndex();
+        Assert.assertEquals(2, trustIndex.getEntries().size());
+
+        X509Certificate cert = getSigningCertificate();
+        List<TrustIndex.Entry> candidates = trustIndex.getCandidates(cert);
+        Assert.assertEquals(1, candidates.size());
+        Assert.assertTrue(candidates.get(0).getTrustManager().getName().endsWith("ststrust.jks"));
+    }
+
+    @org.junit.Test
+    public void testResolvedEntryComesFirst() throws Exception {
+        FedizContext config = loadContext("ROOT2");
+        TrustIndex trustIndex = config.getTrustIndex();
+
+        X509Certificate cert = getSigningCertificate();
+        TrustIndex.Entry first = trustIndex.getEntries().get(0);
+        trustIndex.setResolved(cert, first);
+
+        List<TrustIndex.Entry> candidates = trustIndex.getCandidates(cert);
+        Assert.assertEquals(2, candidates.size());
+        Assert.assertSame(first, candidates.get(0));
+    }
+
+    @org.junit.Test
+    public void testNoCandidatesWithoutCertificate() throws Exception {
+        FedizContext config = loadContext("ROOT2");
+        Assert.assertTrue(config.getTrustIndex().getCandidates(null).isEmpty());
+    }
+
+    private static FedizContext loadContext(String name) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        final URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        configurator.loadConfig(new File(resource.toURI()));
+        return configurator.getFedizContext(name);
+    }
+
+    private static X509Certificate getSigningCertificate() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("signature.properties");
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("mystskey");
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+
+}
@@ -20,9 +20,12 @@
 package org.apache.cxf.fediz.core.federation;
 
 import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URL;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
@@ -33,6 +36,8 @@ import org.apache.cxf.fediz.common.SecurityTestUtil;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metadata.MetadataDocumentHandler;
 import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
 import org.apache.cxf.fediz.core.processor.FedizProcessor;
 import org.apache.cxf.fediz.core.util.DOMUtils;
@@ -143,4 +148,58 @@ public class FederationMetaDataTest {
         }
     }
 
+    @org.junit.Test
+    public void testCachedMetaData() throws Exception {
+
+        FedizContext config = loadConfig("ROOT");
+
+        MetadataCache.CachedMetadata metadata = config.getMetadataCache().getMetadata(null, config);
+        Assert.assertSame(metadata, config.getMetadataCache().getMetadata(null, config));
+        Assert.assertTrue(metadata.getDocument().contains("Signature"));
+
+        config.getMetadataCache().invalidate();
+        MetadataCache.CachedMetadata resigned = config.getMetadataCache().getMetadata(null, config);
+        Assert.assertNotSame(metadata, resigned);
+        Assert.assertNotEquals(metadata.getETag(), resigned.getETag());
+    }
+
+    @org.junit.Test
+    public void testMetaDataNotModified() throws Exception {
+
+        FedizContext config = loadConfig("ROOT");
+        MetadataDocumentHandler handler = new MetadataDocumentHandler(config);
+
+        // First request returns the document
+        HttpServletRequest req = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(req.getRequestURL()).andReturn(new StringBuffer(TEST_REQUEST_URL)).anyTimes();
+        EasyMock.expect(req.getContextPath()).andReturn(CONTEXT_PATH).anyTimes();
+        EasyMock.expect(req.getDateHeader("If-Modified-Since")).andReturn(-1L).anyTimes();
+        EasyMock.replay(req);
+
+        StringWriter body = new StringWriter();
+        HttpServletResponse resp = EasyMock.createNiceMock(HttpServletResponse.class);
+        EasyMock.expect(resp.getWriter()).andReturn(new PrintWriter(body));
+        EasyMock.replay(resp);
+
+        Assert.assertTrue(handler.handleRequest(req, resp));
+        String etag = config.getMetadataCache().getMetadata(req, config).getETag();
+        Assert.assertEquals(config.getMetadataCache().getMetadata(req, config).getDocument(), body.toString());
+
+        // A conditional request with the entity tag is answered with 304
+        req = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(req.getRequestURL()).andReturn(new StringBuffer(TEST_REQUEST_URL)).anyTimes();
+        EasyMock.expect(req.getContextPath()).andReturn(CONTEXT_PATH).anyTimes();
+        EasyMock.expect(req.getHeader("If-None-Match")).andReturn("\"other\", " + etag).anyTimes();
+        EasyMock.replay(req);
+
+        resp = EasyMock.createMock(HttpServletResponse.class);
+        resp.setHeader("ETag", etag);
+        resp.setDateHeader(EasyMock.eq("Last-Modified"), EasyMock.anyLong());
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        EasyMock.replay(resp);
+
+        Assert.assertTrue(handler.handleRequest(req, resp));
+        EasyMock.verify(resp);
+    }
+
 }
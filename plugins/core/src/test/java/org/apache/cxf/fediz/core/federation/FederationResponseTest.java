@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URL;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -43,9 +44,12 @@ import org.apache.cxf.fediz.core.KeystoreCallbackHandler;
 import org.apache.cxf.fediz.core.SAML1CallbackHandler;
 import org.apache.cxf.fediz.core.SAML2CallbackHandler;
 import org.apache.cxf.fediz.core.TokenValidator;
+import org.apache.cxf.fediz.core.config.DecryptionEngine;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.PreValidationCheck;
 import org.apache.cxf.fediz.core.config.Protocol;
+import org.apache.cxf.fediz.core.config.TrustedIssuer;
 import org.apache.cxf.fediz.core.config.jaxb.AudienceUris;
 import org.apache.cxf.fediz.core.config.jaxb.CertificateStores;
 import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
@@ -722,6 +726,73 @@ public class FederationResponseTest {
                             .size());
         assertClaims(wfRes.getClaims(), callbackHandler.getRoleAttributeName());
     }
+    /**
+     * The issuer pre-validation compares the Issuer of the token with the tokenIssuer of the trusted issuers.
+     * A token which passes it fails later on the missing signature.
+     */
+    @org.junit.Test
+    public void testIssuerPreValidation() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer(TEST_RSTR_ISSUER);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(TEST_AUDIENCE);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+
+        String rstr = createSamlToken(assertion, "mystskey", false);
+
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(rstr);
+
+        configurator = null;
+        FedizContext config = getFederationConfigurator().getFedizContext("ROOT");
+        config.setTokenPreValidation(Collections.singletonList(PreValidationCheck.ISSUER));
+        TrustedIssuer trustedIssuer = config.getTrustedIssuers().get(0);
+        // The name is only a label
+        trustedIssuer.setName("The STS");
+
+        FedizProcessor wfProc = new FederationProcessorImpl();
+        trustedIssuer.setTokenIssuer(TEST_RSTR_ISSUER);
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on an unsigned token");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_NO_SIGNATURE.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_NO_SIGNATURE type");
+            }
+        }
+
+        trustedIssuer.setTokenIssuer("OtherSTSIssuer");
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on an untrusted issuer");
+        } catch (ProcessingException ex) {
+            if (!TYPE.ISSUER_NOT_TRUSTED.equals(ex.getType())) {
+                fail("Expected ProcessingException with ISSUER_NOT_TRUSTED type");
+            }
+        }
+
+        // Without a token issuer the check is left to the validation of the signature
+        trustedIssuer.setTokenIssuer(null);
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on an unsigned token");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_NO_SIGNATURE.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_NO_SIGNATURE type");
+            }
+        }
+    }
+
 
     /**
      * Validate SAML 2 token which includes the role attribute with 2 values
@@ -1073,6 +1144,102 @@ public class FederationResponseTest {
         }
     }
 
+    /**
+     * A replayed token is rejected before its signature is verified, so an unsigned token
+     * with a known id fails with TOKEN_REPLAY and not with TOKEN_NO_SIGNATURE
+     */
+    @org.junit.Test
+    public void testReplayedTokenPreValidation() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer(TEST_RSTR_ISSUER);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(TEST_AUDIENCE);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+
+        String rstr = createSamlToken(assertion, "mystskey", false);
+
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(rstr);
+
+        configurator = null;
+        FedizContext config = getFederationConfigurator().getFedizContext("ROOT");
+        config.getTokenReplayCache().add(assertion.getId());
+
+        FedizProcessor wfProc = new FederationProcessorImpl();
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on a replay attack");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_REPLAY.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_REPLAY type");
+            }
+        }
+
+        // Without pre-validation the missing signature is detected first
+        config.setTokenPreValidation(Collections.<PreValidationCheck>emptyList());
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on an unsigned token");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_NO_SIGNATURE.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_NO_SIGNATURE type");
+            }
+        }
+    }
+
+    /**
+     * The audience pre-validation rejects a token which is not for one of the configured audience URIs
+     */
+    @org.junit.Test
+    public void testAudiencePreValidation() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer(TEST_RSTR_ISSUER);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(TEST_AUDIENCE);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+
+        String rstr = createSamlToken(assertion, "mystskey", true);
+
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(rstr);
+
+        configurator = null;
+        FedizContext config = getFederationConfigurator().getFedizContext("ROOT");
+        // The audience URIs of the context don't match with TEST_AUDIENCE
+        config.setTokenPreValidation(
+            Arrays.asList(PreValidationCheck.REPLAY, PreValidationCheck.EXPIRY, PreValidationCheck.AUDIENCE));
+
+        FedizProcessor wfProc = new FederationProcessorImpl();
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on a wrong audience");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_INVALID.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_INVALID type");
+            }
+        }
+    }
+
 
     /**
      * Validate SAML 2 token which includes the role attribute with 2 values
@@ -1374,6 +1541,17 @@ public class FederationResponseTest {
                             .size());
         Assert.assertEquals("Audience wrong", TEST_AUDIENCE, wfRes.getAudience());
         assertClaims(wfRes.getClaims(), callbackHandler.getRoleAttributeName());
+
+        // The decryption key is unwrapped once, the engine is reused for the following tokens
+        DecryptionEngine engine = config.getDecryptionEngine();
+        Assert.assertEquals(1, engine.getPrivateKeyCount());
+        samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        wfReq.setResponseToken(encryptAndSignToken(new SamlAssertionWrapper(samlCallback)));
+        wfRes = wfProc.processRequest(wfReq, config);
+        Assert.assertEquals("Principal name wrong", TEST_USER, wfRes.getUsername());
+        Assert.assertSame(engine, config.getDecryptionEngine());
+        Assert.assertEquals(1, engine.getPrivateKeyCount());
     }
 
     /**
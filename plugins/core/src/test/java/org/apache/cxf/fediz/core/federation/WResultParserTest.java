@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.federation;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.processor.WResultParser;
+import org.junit.Assert;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Some tests for the streaming wresult parser.
+ */
+public class WResultParserTest {
+
+    private static final String WRESULT =
+        "<t:RequestSecurityTokenResponseCollection xmlns:t=\"http://docs.oasis-open.org/ws-sx/ws-trust/200512\""
+        +   " xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\">"
+        +   "<t:RequestSecurityTokenResponse>"
+        +     "<t:Lifetime xmlns:wsu=\"http://docs.oasis-open.org/wss/2004/01/"
+        +       "oasis-200401-wss-wssecurity-utility-1.0.xsd\">"
+        +       "<wsu:Created>2018-01-01T10:00:00.000Z</wsu:Created>"
+        +       "<wsu:Expires>2018-01-01T11:00:00.000Z</wsu:Expires>"
+        +     "</t:Lifetime>"
+        +     "<t:TokenType> urn:oasis:names:tc:SAML:2.0:assertion </t:TokenType>"
+        +     "<t:RequestedSecurityToken>"
+        +       "<saml2:Assertion ID=\"_1\"><saml2:Issuer>STS</saml2:Issuer></saml2:Assertion>"
+        +     "</t:RequestedSecurityToken>"
+        +   "</t:RequestSecurityTokenResponse>"
+        + "</t:RequestSecurityTokenResponseCollection>";
+
+    @org.junit.Test
+    public void testParseWResult() throws Exception {
+        WResultParser.WResult wresult = new WResultParser().parse(WRESULT);
+
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:assertion", wresult.getTokenType());
+        Assert.assertNotNull(wresult.getLifeTime());
+        Assert.assertEquals(3600L, wresult.getLifeTime().getExpires().getEpochSecond()
+                            - wresult.getLifeTime().getCreated().getEpochSecond());
+
+        Element token = wresult.getRequestedSecurityToken();
+        Assert.assertEquals("Assertion", token.getLocalName());
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:assertion", token.getNamespaceURI());
+        // The namespace declared on the envelope must be in scope of the materialised token
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:assertion",
+                            token.getParentNode().lookupNamespaceURI("saml2"));
+        Assert.assertEquals("_1", token.getAttributeNS(null, "ID"));
+    }
+
+    @org.junit.Test
+    public void testUnexpectedRootElement() throws Exception {
+        assertInvalid(new WResultParser(), "<Foo><RequestedSecurityToken/></Foo>");
+    }
+
+    @org.junit.Test
+    public void testMalformedWResult() throws Exception {
+        assertInvalid(new WResultParser(), "<RequestSecurityTokenResponse><Foo></RequestSecurityTokenResponse>");
+    }
+
+    @org.junit.Test
+    public void testDoctypeRejected() throws Exception {
+        assertInvalid(new WResultParser(),
+            "<!DOCTYPE foo [<!ENTITY a \"aaaa\">]><RequestSecurityTokenResponse>&a;</RequestSecurityTokenResponse>");
+    }
+
+    @org.junit.Test
+    public void testLimits() throws Exception {
+        WResultParser parser = new WResultParser();
+        parser.setMaxLength(WRESULT.length() - 1);
+        assertInvalid(parser, WRESULT);
+
+        parser = new WResultParser();
+        parser.setMaxDepth(3);
+        assertInvalid(parser, WRESULT);
+
+        parser = new WResultParser();
+        parser.setMaxElementCount(5);
+        assertInvalid(parser, WRESULT);
+    }
+
+    private static void assertInvalid(WResultParser parser, String wresult) {
+        try {
+            parser.parse(wresult);
+            fail("Failure expected on invalid wresult");
+        } catch (ProcessingException ex) {
+            Assert.assertEquals(TYPE.INVALID_REQUEST, ex.getType());
+        }
+    }
+
+}
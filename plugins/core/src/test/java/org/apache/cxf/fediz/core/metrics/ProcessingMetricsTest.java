@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.common.STSUtil;
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.KeystoreCallbackHandler;
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.config.FedizConfigurator;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
+import org.apache.cxf.fediz.core.processor.FedizRequest;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.saml.bean.AudienceRestrictionBean;
+import org.apache.wss4j.common.saml.bean.ConditionsBean;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+import static org.junit.Assert.fail;
+
+public class ProcessingMetricsTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testPhasesOfSignIn() throws Exception {
+        FedizContext config = loadContext("ROOT");
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        config.addProcessingListener(metrics);
+
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(createSignedToken());
+        new FederationProcessorImpl().processRequest(wfReq, config);
+
+        for (ProcessingPhase phase : new ProcessingPhase[] {ProcessingPhase.SIGN_IN, ProcessingPhase.PARSE,
+            ProcessingPhase.SIGNATURE, ProcessingPhase.TRUST, ProcessingPhase.CLAIMS, ProcessingPhase.REPLAY_CHECK}) {
+            Assert.assertEquals(phase.name(), 1L, metrics.getCount(phase.name()));
+        }
+        Assert.assertEquals(0L, metrics.getCount(ProcessingPhase.DECRYPT.name()));
+        Assert.assertEquals(0L, metrics.getFailures(ProcessingPhase.SIGN_IN.name()));
+        Assert.assertTrue(metrics.getMaxMillis(ProcessingPhase.SIGN_IN.name()) > 0.0);
+
+        // A replayed token fails
+        try {
+            new FederationProcessorImpl().processRequest(wfReq, config);
+            fail("Failure expected on a replayed token");
+        } catch (ProcessingException ex) {
+            // expected
+        }
+        Assert.assertEquals(2L, metrics.getCount(ProcessingPhase.SIGN_IN.name()));
+        Assert.assertEquals(1L, metrics.getFailures(ProcessingPhase.SIGN_IN.name()));
+        Assert.assertEquals(1L, metrics.getCount(ProcessingPhase.REPLAY_CHECK.name()));
+        config.close();
+    }
+
+    @org.junit.Test
+    public void testFailedPhase() throws Exception {
+        FedizContext config = loadContext("ROOT");
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        config.addProcessingListener(metrics);
+
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken("<RequestSecurityTokenResponse");
+        try {
+            new FederationProcessorImpl().processRequest(wfReq, config);
+            fail("Failure expected on a malformed wresult");
+        } catch (ProcessingException ex) {
+            // expected
+        }
+        Assert.assertEquals(1L, metrics.getCount(ProcessingPhase.PARSE.name()));
+        Assert.assertEquals(1L, metrics.getFailures(ProcessingPhase.PARSE.name()));
+        Assert.assertEquals(1L, metrics.getFailures(ProcessingPhase.SIGN_IN.name()));
+        Assert.assertEquals(0L, metrics.getCount(ProcessingPhase.SIGNATURE.name()));
+        config.close();
+    }
+
+    @org.junit.Test
+    public void testHistogram() throws Exception {
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        for (int i = 0; i < 99; i++) {
+            metrics.phaseCompleted(ProcessingPhase.TRUST, null, 200000L, true);
+        }
+        metrics.phaseCompleted(ProcessingPhase.TRUST, null, 30000000L, false);
+
+        String phase = ProcessingPhase.TRUST.name();
+        Assert.assertEquals(100L, metrics.getCount(phase));
+        Assert.assertEquals(1L, metrics.getFailures(phase));
+        Assert.assertEquals(0.25, metrics.getPercentileMillis(phase, 50.0), 0.0);
+        Assert.assertEquals(0.25, metrics.getPercentileMillis(phase, 99.0), 0.0);
+        Assert.assertEquals(30.0, metrics.getPercentileMillis(phase, 100.0), 0.0);
+        Assert.assertEquals(30.0, metrics.getMaxMillis(phase), 0.0);
+        Assert.assertEquals(metrics.getHistogramBoundsMillis().length + 1, metrics.getHistogram(phase).length);
+
+        metrics.reset();
+        Assert.assertEquals(0L, metrics.getCount(phase));
+        Assert.assertEquals(0.0, metrics.getPercentileMillis(phase, 99.0), 0.0);
+    }
+
+    @org.junit.Test
+    public void testJmxRegistration() throws Exception {
+        FedizContext config = loadContext("ROOT2");
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        config.setProcessingListener(metrics);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProcessingMetrics.JMX_DOMAIN
+                                         + ":type=ProcessingMetrics,context=" + ObjectName.quote("ROOT2"));
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertEquals(ProcessingPhase.values().length, ((String[])server.getAttribute(name, "Summary")).length);
+
+        config.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    private static FedizContext loadContext(String name) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        final URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        configurator.loadConfig(new File(resource.toURI()));
+        return configurator.getFedizContext(name);
+    }
+
+    private static String createSignedToken() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer("FedizSTSIssuer");
+        callbackHandler.setSubjectName("alice");
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add("https://localhost/fedizhelloworld");
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+
+        WSPasswordCallback[] cb = {
+            new WSPasswordCallback("mystskey", WSPasswordCallback.SIGNATURE)
+        };
+        new KeystoreCallbackHandler().handle(cb);
+        Crypto crypto = CryptoFactory.getInstance("signature.properties");
+        assertion.signAssertion("mystskey", cb[0].getPassword(), crypto, false);
+
+        Document doc = STSUtil.toSOAPPart(STSUtil.SAMPLE_RSTR_COLL_MSG);
+        Element token = assertion.toDOM(doc);
+        XMLUtils.findElement(doc, "RequestedSecurityToken", FederationConstants.WS_TRUST_13_NS).appendChild(token);
+        return DOM2Writer.nodeToString(doc);
+    }
+
+}
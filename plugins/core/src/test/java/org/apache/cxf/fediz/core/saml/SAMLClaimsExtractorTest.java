@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.saml;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler;
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler.MultiValue;
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.SAML1CallbackHandler;
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.TokenValidator;
+import org.apache.cxf.fediz.core.config.FederationProtocol;
+import org.apache.cxf.fediz.core.config.Protocol;
+import org.apache.cxf.fediz.core.config.SAMLProtocol;
+import org.apache.cxf.fediz.core.config.jaxb.FederationProtocolType;
+import org.apache.cxf.fediz.core.config.jaxb.SamlProtocolType;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.saml.builder.SAML1Constants;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+
+/**
+ * Checks that the claims extracted from the assertion DOM are the same as the ones parsed from the OpenSAML
+ * object model.
+ */
+public class SAMLClaimsExtractorTest {
+
+    private static final String SAML1_ASSERTION =
+        "<saml1:Assertion xmlns:saml1=\"urn:oasis:names:tc:SAML:1.0:assertion\" MajorVersion=\"1\""
+        + " MinorVersion=\"1\" AssertionID=\"_saml1\" Issuer=\" DOMIssuer \""
+        + " IssueInstant=\"2018-01-01T00:00:00.000Z\">"
+        + "<saml1:AttributeStatement>"
+        + "<saml1:Attribute AttributeNamespace=\"http://schemas.xmlsoap.org/ws/2005/05/identity/claims\""
+        + " AttributeName=\"role\">"
+        + "<saml1:AttributeValue>User</saml1:AttributeValue>"
+        + "<saml1:AttributeValue>Admin</saml1:AttributeValue>"
+        + "</saml1:Attribute>"
+        + "<saml1:Attribute AttributeNamespace=\"http://example.com/claims/\" AttributeName=\"department\">"
+        + "<saml1:AttributeValue>Sales</saml1:AttributeValue>"
+        + "</saml1:Attribute>"
+        + "<saml1:Attribute AttributeNamespace=\"http://example.com/ns\""
+        + " AttributeName=\"http://example.com/claims/email\">"
+        + "<saml1:AttributeValue> alice@example.com </saml1:AttributeValue>"
+        + "</saml1:Attribute>"
+        + "<saml1:Attribute AttributeNamespace=\" \" AttributeName=\" urn:example:nickname \">"
+        + "<saml1:AttributeValue>Al<!-- comment -->ice</saml1:AttributeValue>"
+        + "</saml1:Attribute>"
+        + "</saml1:AttributeStatement>"
+        + "<saml1:AttributeStatement>"
+        + "<saml1:Attribute AttributeNamespace=\"http://example.com/claims\" AttributeName=\"department\">"
+        + "<saml1:AttributeValue>Marketing</saml1:AttributeValue>"
+        + "</saml1:Attribute>"
+        + "<saml1:Attribute AttributeNamespace=\"http://example.com/claims\" AttributeName=\"empty\">"
+        + "</saml1:Attribute>"
+        + "</saml1:AttributeStatement>"
+        + "</saml1:Assertion>";
+
+    private static final String SAML2_ASSERTION =
+        "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\""
+        + " xmlns:xs=\"http://www.w3.org/2001/XMLSchema\""
+        + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+        + " ID=\"_saml2\" IssueInstant=\"2018-01-01T00:00:00.000Z\" Version=\"2.0\">"
+        + "<saml2:Issuer NameQualifier=\"urn:example:idp\">DOMIssuer</saml2:Issuer>"
+        + "<saml2:AttributeStatement>"
+        + "<saml2:Attribute Name=\"role\""
+        + " NameFormat=\"http://schemas.xmlsoap.org/ws/2005/05/identity/claims\">"
+        + "<saml2:AttributeValue xsi:type=\"xs:string\">User</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "<saml2:Attribute Name=\"http://example.com/claims/email\""
+        + " NameFormat=\"http://schemas.xmlsoap.org/ws/2005/05/identity/claims\">"
+        + "<saml2:AttributeValue>alice@example.com</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "<saml2:Attribute Name=\"department\""
+        + " NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:unspecified\">"
+        + "<saml2:AttributeValue>Sales</saml2:AttributeValue>"
+        + "<saml2:AttributeValue><child>Mar</child>keting</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "<saml2:Attribute Name=\"empty\"/>"
+        + "</saml2:AttributeStatement>"
+        + "<saml2:AttributeStatement>"
+        + "<saml2:Attribute Name=\" http://schemas.xmlsoap.org/ws/2005/05/identity/claims/role \">"
+        + "<saml2:AttributeValue>Admin</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "<saml2:Attribute Name=\"department\">"
+        + "<saml2:AttributeValue>Finance</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "<saml2:Attribute Name=\"empty\">"
+        + "<saml2:AttributeValue>Last</saml2:AttributeValue>"
+        + "</saml2:Attribute>"
+        + "</saml2:AttributeStatement>"
+        + "</saml2:Assertion>";
+
+    @BeforeClass
+    public static void init() {
+        OpenSAMLUtil.initSamlEngine();
+    }
+
+    @org.junit.Test
+    public void testSAML1() throws Exception {
+        List<Claim> claims = assertSameClaims(parse(SAML1_ASSERTION));
+        Assert.assertEquals(5, claims.size());
+    }
+
+    @org.junit.Test
+    public void testSAML2() throws Exception {
+        List<Claim> claims = assertSameClaims(parse(SAML2_ASSERTION));
+        Assert.assertEquals(4, claims.size());
+    }
+
+    @org.junit.Test
+    public void testSAML1CallbackHandler() throws Exception {
+        for (MultiValue multiValue : MultiValue.values()) {
+            SAML1CallbackHandler callbackHandler = new SAML1CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML1Constants.CONF_BEARER);
+            callbackHandler.setMultiValueType(multiValue);
+            callbackHandler.setUseNameFormatAsNamespace(multiValue == MultiValue.MULTI_ATTR);
+            assertSameClaims(createAssertion(callbackHandler, createGroups(600)));
+        }
+    }
+
+    @org.junit.Test
+    public void testSAML2CallbackHandler() throws Exception {
+        for (MultiValue multiValue : MultiValue.values()) {
+            SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+            callbackHandler.setMultiValueType(multiValue);
+            assertSameClaims(createAssertion(callbackHandler, createGroups(600)));
+        }
+    }
+
+    @org.junit.Test
+    public void testNoAttributeStatement() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setStatement(AbstractSAMLCallbackHandler.Statement.AUTHN);
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        Element token = new SamlAssertionWrapper(samlCallback).toDOM(DOMUtils.createDocument());
+        Assert.assertTrue(assertSameClaims(token).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testOverriddenMergeIsUsed() throws Exception {
+        final List<String> merged = new ArrayList<>();
+        SAMLTokenValidator validator = new SAMLTokenValidator() {
+            @Override
+            protected void mergeClaimToMap(Map<String, Claim> claimsMap, Claim c, List<String> valueList) {
+                merged.add(c.getClaimType().toString());
+                super.mergeClaimToMap(claimsMap, c, valueList);
+            }
+        };
+        Assert.assertNull(validator.getClaimsExtractor());
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(parse(SAML2_ASSERTION));
+        Assert.assertEquals(4, validator.parseClaimsInAssertion(assertion.getSaml2()).size());
+        Assert.assertFalse(merged.isEmpty());
+
+        // The extractor does not merge through the validator
+        merged.clear();
+        validator.setClaimsExtractor(new SAMLClaimsExtractor());
+        Assert.assertEquals(4, validator.parseClaimsInAssertion(assertion.getSaml2()).size());
+        Assert.assertTrue(merged.isEmpty());
+    }
+
+    @org.junit.Test
+    public void testProtocolsUseExtractor() throws Exception {
+        for (Protocol protocol : new Protocol[] {new FederationProtocol(new FederationProtocolType()),
+                                                 new SAMLProtocol(new SamlProtocolType())}) {
+            TokenValidator validator = protocol.getTokenValidators().get(protocol.getTokenValidators().size() - 1);
+            Assert.assertNotNull(((SAMLTokenValidator)validator).getClaimsExtractor());
+        }
+    }
+
+    /**
+     * Compare the claims of the SAMLClaimsExtractor with the ones of the object model walk of the
+     * SAMLTokenValidator, including their order and the type of their values.
+     */
+    private static List<Claim> assertSameClaims(Element token) throws Exception {
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(token);
+        SAMLTokenValidator validator = new SAMLTokenValidator();
+        validator.setClaimsExtractor(null);
+        List<Claim> expected = assertion.getSaml2() != null
+            ? validator.parseClaimsInAssertion(assertion.getSaml2())
+            : validator.parseClaimsInAssertion(assertion.getSaml1());
+
+        List<Claim> actual = new SAMLClaimsExtractor().extractClaims(token);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Claim e = expected.get(i);
+            Claim a = actual.get(i);
+            Assert.assertEquals(e.getClaimType(), a.getClaimType());
+            Assert.assertSame(e.getClaimType(), a.getClaimType());
+            Assert.assertEquals(e.getIssuer(), a.getIssuer());
+            Assert.assertEquals(e.getValue().getClass(), a.getValue().getClass());
+            Assert.assertEquals(e.getValue(), a.getValue());
+        }
+        return actual;
+    }
+
+    private static Element createAssertion(AbstractSAMLCallbackHandler callbackHandler, List<String> roles)
+        throws Exception {
+        callbackHandler.setStatement(AbstractSAMLCallbackHandler.Statement.ATTR);
+        callbackHandler.setIssuer("FedizSTSIssuer");
+        callbackHandler.setSubjectName("alice");
+        callbackHandler.setRoles(roles);
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        return new SamlAssertionWrapper(samlCallback).toDOM(DOMUtils.createDocument());
+    }
+
+    private static List<String> createGroups(int count) {
+        List<String> groups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            groups.add("group-" + i);
+        }
+        return groups;
+    }
+
+    private static Element parse(String xml) throws Exception {
+        Document doc = DOMUtils.readXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        return doc.getDocumentElement();
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.saml;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.validate.Credential;
+import org.junit.Assert;
+
+public class TrustDecisionCacheTest {
+
+    @org.junit.Test
+    public void testPositivePublicKeyDecisionIsCached() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("signature.properties");
+        X509Certificate[] certs = getCertificates(crypto);
+
+        TrustDecisionCache cache = new TrustDecisionCache();
+        FedizSignatureTrustValidator validator = new FedizSignatureTrustValidator();
+        validator.setSignatureTrustType(FedizSignatureTrustValidator.TrustType.PEER_TRUST);
+        validator.setTrustDecisionCache(cache);
+
+        Credential credential = new Credential();
+        credential.setPublicKey(certs[0].getPublicKey());
+        RequestData data = new RequestData();
+        data.setSigVerCrypto(crypto);
+
+        validator.validate(credential, data);
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+
+        validator.validate(credential, data);
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @org.junit.Test
+    public void testKeyIncludesConstraintsAndCrypto() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("signature.properties");
+        Crypto otherCrypto = CryptoFactory.getInstance("signature.properties");
+        X509Certificate[] certs = getCertificates(crypto);
+
+        TrustDecisionCache cache = new TrustDecisionCache();
+        cache.setTrusted(certs, crypto, "CHAIN_TRUST_CONSTRAINTS",
+                         Collections.singletonList(Pattern.compile(".*CN=www.sts.com.*")));
+
+        Assert.assertTrue(cache.isTrusted(certs, crypto, "CHAIN_TRUST_CONSTRAINTS",
+                                          Collections.singletonList(Pattern.compile(".*CN=www.sts.com.*"))));
+        Assert.assertFalse(cache.isTrusted(certs, crypto, "CHAIN_TRUST_CONSTRAINTS",
+                                           Collections.singletonList(Pattern.compile("wrong-issuer-name"))));
+        Assert.assertFalse(cache.isTrusted(certs, otherCrypto, "CHAIN_TRUST_CONSTRAINTS",
+                                           Collections.singletonList(Pattern.compile(".*CN=www.sts.com.*"))));
+
+        cache.invalidate(crypto);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testExpiredDecision() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("signature.properties");
+        X509Certificate[] certs = getCertificates(crypto);
+
+        TrustDecisionCache cache = new TrustDecisionCache();
+        cache.setTtl(1L);
+        cache.setTrusted(certs, crypto, "PEER_TRUST", null);
+        Thread.sleep(10L);
+        Assert.assertFalse(cache.isTrusted(certs, crypto, "PEER_TRUST", null));
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    private static X509Certificate[] getCertificates(Crypto crypto) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("mystskey");
+        return crypto.getX509Certificates(cryptoType);
+    }
+
+}
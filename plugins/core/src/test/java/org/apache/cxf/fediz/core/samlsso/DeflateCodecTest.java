@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Some tests for the pooled DEFLATE codec.
+ */
+public class DeflateCodecTest {
+
+    @org.junit.Test
+    public void testRoundTrip() throws Exception {
+        DeflateCodec codec = new DeflateCodec(1);
+        byte[] message = "<samlp:AuthnRequest ID=\"_1\"/>".getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < 3; i++) {
+            byte[] deflated = codec.deflate(message);
+            Assert.assertArrayEquals(message, readAll(codec.inflate(deflated)));
+        }
+
+        // The output matches a freshly created Deflater
+        Deflater deflater = new Deflater(Deflater.DEFLATED, true);
+        deflater.setInput(message);
+        deflater.finish();
+        byte[] expected = new byte[512];
+        int len = deflater.deflate(expected);
+        deflater.end();
+        Assert.assertArrayEquals(Arrays.copyOf(expected, len), codec.deflate(message));
+
+        codec.clear();
+        Assert.assertArrayEquals(message, readAll(codec.inflate(codec.deflate(message))));
+    }
+
+    @org.junit.Test
+    public void testLargeAndEmptyTokens() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] message = new byte[100000];
+        Arrays.fill(message, (byte)'a');
+        Assert.assertArrayEquals(message, readAll(codec.inflate(codec.deflate(message))));
+
+        Assert.assertEquals(0, readAll(codec.inflate(codec.deflate(new byte[0]))).length);
+    }
+
+    @org.junit.Test
+    public void testMaxInflatedSize() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] bomb = codec.deflate(new byte[10000]);
+
+        codec.setMaxInflatedSize(10000);
+        Assert.assertEquals(10000, readAll(codec.inflate(bomb)).length);
+
+        codec.setMaxInflatedSize(9999);
+        try {
+            codec.inflate(bomb);
+            fail("Failure expected on exceeding the maximum inflated size");
+        } catch (DataFormatException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testTruncatedToken() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] message = "<samlp:Response ID=\"_1\"/>".getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = codec.deflate(message);
+        try {
+            codec.inflate(Arrays.copyOf(deflated, deflated.length / 2));
+            fail("Failure expected on a truncated token");
+        } catch (DataFormatException ex) {
+            // expected
+        }
+        // The Inflater is reset before it is reused
+        Assert.assertArrayEquals(message, readAll(codec.inflate(deflated)));
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+}
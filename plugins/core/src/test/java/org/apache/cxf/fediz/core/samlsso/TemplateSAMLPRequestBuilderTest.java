@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+
+/**
+ * Compare the AuthnRequests written from a template with the ones serialized from the OpenSAML objects
+ */
+public class TemplateSAMLPRequestBuilderTest {
+
+    private static final String ISSUER = "urn:org:apache:cxf:fediz:fedizhelloworld";
+    private static final String ACS = "https://localhost/fedizhelloworld/secure/fedservlet";
+    private static final String DESTINATION = "https://localhost:9443/fediz-idp/saml/up";
+
+    @BeforeClass
+    public static void init() {
+        OpenSAMLUtil.initSamlEngine();
+    }
+
+    @org.junit.Test
+    public void testIdenticalOutput() throws Exception {
+        TemplateSAMLPRequestBuilder builder = new TemplateSAMLPRequestBuilder();
+        assertIdentical(builder, ISSUER, ACS, null);
+        assertIdentical(builder, ISSUER, ACS, DESTINATION);
+        // The templates are reused for other addresses
+        assertIdentical(builder, ISSUER, "https://localhost/other/", null);
+        assertIdentical(builder, ISSUER, "https://localhost/other/", "https://idp.example.com/saml?x=1");
+    }
+
+    @org.junit.Test
+    public void testChangedSettings() throws Exception {
+        TemplateSAMLPRequestBuilder builder = new TemplateSAMLPRequestBuilder();
+        assertIdentical(builder, ISSUER, ACS, DESTINATION);
+
+        builder.setForceAuthn(true);
+        builder.setPassive(true);
+        builder.setProtocolBinding("urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect");
+        assertIdentical(builder, ISSUER, ACS, DESTINATION);
+    }
+
+    @org.junit.Test
+    public void testEscapedValues() throws Exception {
+        TemplateSAMLPRequestBuilder builder = new TemplateSAMLPRequestBuilder();
+        String requestId = UUID.randomUUID().toString();
+
+        // Values which are escaped in the serialized XML are left to the object model
+        Assert.assertNull(builder.createAuthnRequestBytes(ISSUER, "https://localhost/a&b/", null, requestId));
+        Assert.assertNull(builder.createAuthnRequestBytes(ISSUER, ACS, "https://idp/?a=1&b=2", requestId));
+        Assert.assertNull(builder.createAuthnRequestBytes(ISSUER, "https://localhost/\u00e4/", null, requestId));
+        Assert.assertNotNull(builder.createAuthnRequestBytes(ISSUER, ACS, DESTINATION, requestId));
+
+        // The issuer is part of the template
+        assertIdentical(builder, "urn:issuer:a&b<c>", ACS, DESTINATION);
+    }
+
+    private static void assertIdentical(
+        TemplateSAMLPRequestBuilder builder, String issuer, String acs, String destination
+    ) throws Exception {
+        String requestId = UUID.randomUUID().toString();
+        DateTime issueInstant = new DateTime();
+
+        byte[] templateBytes = builder.createAuthnRequestBytes(issuer, acs, destination, requestId, issueInstant);
+        Assert.assertNotNull(templateBytes);
+
+        AuthnRequest authnRequest = builder.createAuthnRequest(issuer, acs);
+        authnRequest.setID(requestId);
+        authnRequest.setIssueInstant(issueInstant);
+        if (destination != null) {
+            authnRequest.setDestination(destination);
+        }
+        Document doc = DOMUtils.createDocument();
+        doc.appendChild(doc.createElement("root"));
+        Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
+        String expected = DOM2Writer.nodeToString(authnRequestElement);
+
+        Assert.assertEquals(expected, new String(templateBytes, StandardCharsets.UTF_8));
+    }
+
+}
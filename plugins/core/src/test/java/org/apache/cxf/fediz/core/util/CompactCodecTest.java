@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimCollection;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.junit.Assert;
+
+public class CompactCodecTest {
+
+    private static final String ISSUER = "FedizSTSIssuer";
+    private static final URI CUSTOM_TYPE = URI.create("http://example.com/claims/department");
+
+    @org.junit.Test
+    public void testFedizResponse() throws Exception {
+        Instant created = Instant.now();
+        Instant expires = created.plusSeconds(3600);
+        FedizResponse response = new FedizResponse("alice", ISSUER, Arrays.asList("User", "Admin"), createClaims(),
+                                                   "https://localhost/fedizhelloworld", created, expires,
+                                                   createToken(), "_token-id");
+
+        FedizResponse copy = roundTrip(response);
+        Assert.assertEquals("alice", copy.getUsername());
+        Assert.assertEquals(ISSUER, copy.getIssuer());
+        Assert.assertEquals("https://localhost/fedizhelloworld", copy.getAudience());
+        Assert.assertEquals("_token-id", copy.getUniqueTokenId());
+        Assert.assertEquals(Arrays.asList("User", "Admin"), copy.getRoles());
+        // Roles are interned
+        Assert.assertSame("Admin", copy.getRoles().get(1));
+        Assert.assertEquals(created, copy.getTokenCreated());
+        Assert.assertEquals(expires, copy.getTokenExpires());
+        assertClaims(copy.getClaims());
+
+        Element token = copy.getToken();
+        Assert.assertEquals("Assertion", token.getLocalName());
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:assertion", token.getNamespaceURI());
+        Assert.assertEquals("_token-id", token.getAttributeNS(null, "ID"));
+    }
+
+    @org.junit.Test
+    public void testEmptyFedizResponse() throws Exception {
+        FedizResponse copy = roundTrip(new FedizResponse(null, null, null, null, null, null, null, null, null));
+        Assert.assertNull(copy.getUsername());
+        Assert.assertNull(copy.getRoles());
+        Assert.assertNull(copy.getClaims());
+        Assert.assertNull(copy.getTokenCreated());
+        Assert.assertNull(copy.getToken());
+    }
+
+    @org.junit.Test
+    public void testClaimCollection() throws Exception {
+        ClaimCollection claims = new ClaimCollection(createClaims());
+        ClaimCollection copy = roundTrip(claims);
+        assertClaims(copy);
+        try {
+            copy.add(new Claim());
+            Assert.fail("ClaimCollection must stay immutable");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+
+        Assert.assertTrue(roundTrip(new ClaimCollection()).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testClaim() throws Exception {
+        Claim claim = roundTrip(createClaims().get(0));
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, claim.getClaimType());
+        Assert.assertEquals("alice@realma.org", claim.getValue());
+        Assert.assertEquals(ISSUER, claim.getIssuer());
+    }
+
+    @org.junit.Test
+    public void testCompactness() throws Exception {
+        List<Claim> claims = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            claims.addAll(createClaims());
+        }
+        ClaimCollection claimCollection = new ClaimCollection(claims);
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(compact)) {
+            out.writeObject(claimCollection);
+        }
+        ByteArrayOutputStream separate = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(separate)) {
+            // Each claim on its own, without a shared string table
+            out.writeObject(new ArrayList<>(claims));
+        }
+        Assert.assertTrue(compact.size() < separate.size() / 2);
+    }
+
+    @org.junit.Test
+    @SuppressWarnings("deprecation")
+    public void testObjectsNotAllowed() throws Exception {
+        List<Claim> stringClaims = createClaims().subList(0, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            CompactCodec.newWriter(out, false).writeClaims(stringClaims);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertClaims(CompactCodec.newReader(in, false).readClaims(), 2);
+        }
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+            CompactCodec.newWriter(out, false).writeClaims(createClaims());
+            Assert.fail("Failure expected on a claim value which is not a string");
+        } catch (NotSerializableException ex) {
+            // expected
+        }
+
+        Claim withPrincipal = createClaims().get(0);
+        withPrincipal.setPrincipal(() -> "alice");
+        try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+            CompactCodec.newWriter(out, false).writeClaim(withPrincipal);
+            Assert.fail("Failure expected on a claim principal");
+        } catch (NotSerializableException ex) {
+            // expected
+        }
+
+        // Serialized objects written by a lenient writer are not read
+        bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            CompactCodec.newWriter(out).writeClaims(createClaims());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            CompactCodec.newReader(in, false).readClaims();
+            Assert.fail("Failure expected on a serialized claim value");
+        } catch (InvalidObjectException ex) {
+            // expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T)in.readObject();
+        }
+    }
+
+    private static List<Claim> createClaims() {
+        Claim email = new Claim();
+        email.setClaimType(ClaimTypes.EMAILADDRESS);
+        email.setIssuer(ISSUER);
+        email.setValue("alice@realma.org");
+
+        Claim department = new Claim();
+        department.setClaimType(CUSTOM_TYPE);
+        department.setIssuer(ISSUER);
+        department.setOriginalIssuer("RealmA");
+        department.setValue(new ArrayList<>(Arrays.asList("Sales", "Marketing")));
+
+        Claim age = new Claim();
+        age.setClaimType(ClaimTypes.DATEOFBIRTH);
+        age.setIssuer(ISSUER);
+        age.setValue(Integer.valueOf(42));
+
+        return Arrays.asList(email, department, age);
+    }
+
+    private static void assertClaims(List<Claim> claims) {
+        assertClaims(claims, 3);
+        Assert.assertEquals(Integer.valueOf(42), claims.get(2).getValue());
+    }
+
+    private static void assertClaims(List<Claim> claims, int size) {
+        Assert.assertEquals(size, claims.size());
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, claims.get(0).getClaimType());
+        Assert.assertEquals("alice@realma.org", claims.get(0).getValue());
+        Assert.assertEquals(ISSUER, claims.get(0).getIssuer());
+        Assert.assertNull(claims.get(0).getOriginalIssuer());
+
+        Assert.assertEquals(CUSTOM_TYPE, claims.get(1).getClaimType());
+        Assert.assertEquals("RealmA", claims.get(1).getOriginalIssuer());
+        Assert.assertEquals(Arrays.asList("Sales", "Marketing"), claims.get(1).getValue());
+    }
+
+    private static Element createToken() throws Exception {
+        Document doc = DOMUtils.createDocument();
+        Element assertion = doc.createElementNS("urn:oasis:names:tc:SAML:2.0:assertion", "saml2:Assertion");
+        assertion.setAttributeNS(null, "ID", "_token-id");
+        Element issuer = doc.createElementNS("urn:oasis:names:tc:SAML:2.0:assertion", "saml2:Issuer");
+        issuer.setTextContent(ISSUER);
+        assertion.appendChild(issuer);
+        doc.appendChild(assertion);
+        return assertion;
+    }
+
+}
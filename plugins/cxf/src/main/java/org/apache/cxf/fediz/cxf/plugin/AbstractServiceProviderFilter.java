@@ -20,10 +20,10 @@ package org.apache.cxf.fediz.cxf.plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.security.Principal;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
@@ -42,9 +42,11 @@ import org.w3c.dom.Element;
 import org.apache.cxf.BusFactory;
 import org.apache.cxf.common.i18n.BundleUtils;
 import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.FedizPrincipal;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
+import org.apache.cxf.fediz.core.config.FedizConfigWatcher;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
@@ -58,7 +60,6 @@ import org.apache.cxf.jaxrs.utils.ExceptionUtils;
 import org.apache.cxf.jaxrs.utils.ResourceUtils;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.security.SecurityContext;
-import org.apache.cxf.staxutils.StaxUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,8 +79,10 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
     private boolean addWebAppContext = true;
     private boolean addEndpointAddressToContext;
 
-    private FedizConfigurator configurator;
+    private volatile FedizConfigurator configurator;
+    private FedizConfigWatcher configWatcher;
     private String configFile;
+    private boolean watchConfigFile;
     private SPStateManager stateManager;
     private long stateTimeToLive = 120000;
     private String webAppDomain;
@@ -92,6 +95,17 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         this.configFile = configFile;
     }
 
+    public boolean isWatchConfigFile() {
+        return watchConfigFile;
+    }
+
+    /**
+     * Reload the Fediz configuration file when it has changed
+     */
+    public void setWatchConfigFile(boolean watchConfigFile) {
+        this.watchConfigFile = watchConfigFile;
+    }
+
     @PostConstruct
     public synchronized void configure() throws JAXBException, IOException {
         if (configurator == null) {
@@ -111,9 +125,20 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
                         f = new File(url.getPath());
                     }
                 }
-                configurator = new FedizConfigurator();
-                configurator.loadConfig(f);
+                FedizConfigurator newConfigurator = new FedizConfigurator();
+                newConfigurator.loadConfig(f);
+                String catalinaBase = System.getProperty("catalina.base");
+                if (catalinaBase != null && catalinaBase.length() > 0) {
+                    for (FedizContext fedContext : newConfigurator.getFedizContextList()) {
+                        fedContext.setRelativePath(catalinaBase);
+                    }
+                }
+                configurator = newConfigurator;
                 LOG.debug("Fediz configuration read from " + f.getAbsolutePath());
+                if (watchConfigFile) {
+                    configWatcher = new FedizConfigWatcher(newConfigurator, f);
+                    configWatcher.start();
+                }
             } catch (JAXBException e) {
                 LOG.error("Error in parsing configuration", e);
                 throw e;
@@ -133,6 +158,10 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
 
     @PreDestroy
     public synchronized void cleanup() throws IOException {
+        if (configWatcher != null) {
+            configWatcher.close();
+            configWatcher = null;
+        }
         if (configurator != null) {
             List<FedizContext> fedContextList = configurator.getFedizContextList();
             if (fedContextList != null) {
@@ -181,9 +210,7 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
 
         // Create SecurityContext
         try {
-            Element token =
-                StaxUtils.read(new StringReader(responseState.getAssertion())).getDocumentElement();
-            setSecurityContext(responseState, m, token);
+            setSecurityContext(responseState, m);
         } catch (Exception ex) {
             reportError("INVALID_RESPONSE_STATE");
             return false;
@@ -205,6 +232,30 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         m.put(SecurityContext.class, context);
     }
 
+    /**
+     * Set the SecurityContext of the response state. It is created once and then reused for the following
+     * requests of the session. Every request parses its own copy of the token, and only when the application
+     * asks for it.
+     */
+    protected void setSecurityContext(ResponseState responseState, Message m) {
+        SecurityContext context = responseState.getSecurityContext();
+        if (context == null) {
+            CXFFedizPrincipal principal =
+                new CXFFedizPrincipal(responseState.getSubject(), responseState.getClaims(),
+                                      responseState.getRoles(), responseState.getAssertion());
+            context = new FedizSecurityContext(principal, responseState.getRoles());
+            responseState.setSecurityContext(context);
+        }
+
+        Principal principal = context.getUserPrincipal();
+        if (principal instanceof FedizPrincipal) {
+            SecurityTokenThreadLocal.setTokenSupplier(((FedizPrincipal)principal)::getLoginToken);
+        } else {
+            SecurityTokenThreadLocal.setToken(null);
+        }
+        m.put(SecurityContext.class, context);
+    }
+
     protected ResponseState getValidResponseState(Cookie securityContextCookie,
                                                   FedizContext fedConfig,
                                                   Message m) {
@@ -241,7 +292,9 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
             reportError("INVALID_RESPONSE_STATE");
             return null;
         }
-        if (responseState.getAssertion() == null) {
+        // Only a state manager which omits the assertion on purpose may return a state without it
+        if (responseState.getAssertion() == null
+            && (!responseState.isAssertionOmitted() || responseState.getSubject() == null)) {
             reportError("INVALID_RESPONSE_STATE");
             return null;
         }
@@ -267,18 +320,30 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         return getContextConfiguration(contextName);
     }
 
-    protected synchronized FedizContext getContextConfiguration(String contextName) {
-        if (configurator == null) {
+    /**
+     * Get the Fediz context of the request and acquire it, so that a reload of the configuration does not close
+     * it while the request is using it. The context must be released with {@link FedizContext#release()}.
+     */
+    protected FedizContext acquireFedizContext(Message message) {
+        for (int i = 0; i < 3; i++) {
+            FedizContext fedContext = getFedizContext(message);
+            if (fedContext.acquire()) {
+                return fedContext;
+            }
+            // Closed after a reload in the meantime, the configurator knows its replacement by now
+        }
+        throw new IllegalStateException("No open Fediz configuration for the request");
+    }
+
+    protected FedizContext getContextConfiguration(String contextName) {
+        FedizConfigurator currentConfigurator = configurator;
+        if (currentConfigurator == null) {
             throw new IllegalStateException("No Fediz configuration available");
         }
-        FedizContext config = configurator.getFedizContext(contextName);
+        FedizContext config = currentConfigurator.getFedizContext(contextName);
         if (config == null) {
             throw new IllegalStateException("No Fediz configuration for context :" + contextName);
         }
-        String catalinaBase = System.getProperty("catalina.base");
-        if (catalinaBase != null && catalinaBase.length() > 0) {
-            config.setRelativePath(catalinaBase);
-        }
 
         return config;
     }
@@ -18,6 +18,7 @@
  */
 package org.apache.cxf.fediz.cxf.plugin;
 
+import java.io.StringReader;
 import java.util.Collections;
 import java.util.List;
 
@@ -26,18 +27,39 @@ import org.w3c.dom.Element;
 import org.apache.cxf.fediz.core.Claim;
 import org.apache.cxf.fediz.core.ClaimCollection;
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CXFFedizPrincipal implements FedizPrincipal {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CXFFedizPrincipal.class);
+
     private final String subject;
-    private final List<Claim> claims;
-    private Element token;
+    private final ClaimCollection claims;
+    private final String assertion;
+    private final Element token;
     private List<String> roles = Collections.emptyList();
 
     public CXFFedizPrincipal(String subject, List<Claim> claims, List<String> roles, Element token) {
         this.subject = subject;
-        this.claims = claims;
+        this.claims = createClaimCollection(claims);
         this.token = token;
+        this.assertion = null;
+        if (roles != null) {
+            this.roles = roles;
+        }
+    }
+
+    /**
+     * Create a principal with the serialized token. Such a principal may be shared by several requests,
+     * getLoginToken parses a new DOM copy of the token on every call.
+     */
+    public CXFFedizPrincipal(String subject, List<Claim> claims, List<String> roles, String assertion) {
+        this.subject = subject;
+        this.claims = createClaimCollection(claims);
+        this.token = null;
+        this.assertion = assertion;
         if (roles != null) {
             this.roles = roles;
         }
@@ -50,12 +72,26 @@ public class CXFFedizPrincipal implements FedizPrincipal {
 
     @Override
     public ClaimCollection getClaims() {
-        return new ClaimCollection(claims);
+        return claims;
+    }
+
+    private static ClaimCollection createClaimCollection(List<Claim> claims) {
+        // Built once, so that the claim type index is kept for all lookups
+        return claims == null ? new ClaimCollection() : new ClaimCollection(claims);
     }
 
     @Override
     public Element getLoginToken() {
-        return token;
+        if (token != null || assertion == null) {
+            return token;
+        }
+        try {
+            return StaxUtils.read(new StringReader(assertion)).getDocumentElement();
+        } catch (Exception ex) {
+            LOG.warn("Failed to parse the login token: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+            return null;
+        }
     }
 
     public List<String> getRoleClaims() {
@@ -24,11 +24,13 @@ import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.Set;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -40,6 +42,7 @@ import javax.ws.rs.container.ContainerResponseFilter;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -60,9 +63,9 @@ import org.apache.cxf.fediz.core.processor.FedizResponse;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.core.util.CookieUtils;
 import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
-import org.apache.cxf.helpers.IOUtils;
 import org.apache.cxf.jaxrs.ext.MessageContext;
 import org.apache.cxf.jaxrs.impl.HttpHeadersImpl;
+import org.apache.cxf.jaxrs.impl.MetadataMap;
 import org.apache.cxf.jaxrs.impl.UriInfoImpl;
 import org.apache.cxf.jaxrs.utils.ExceptionUtils;
 import org.apache.cxf.jaxrs.utils.JAXRSUtils;
@@ -74,17 +77,31 @@ import org.slf4j.LoggerFactory;
 public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
     implements ContainerResponseFilter {
 
+    public static final int DEFAULT_MAX_FORM_SIZE = 2 * 1024 * 1024;
+
     private static final Logger LOG = LoggerFactory.getLogger(FedizRedirectBindingFilter.class);
 
+    private static final Set<String> SIGN_IN_PARAMETERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        FederationConstants.PARAM_ACTION, FederationConstants.PARAM_RESULT, FederationConstants.PARAM_CONTEXT,
+        SAMLSSOConstants.SAML_RESPONSE, SAMLSSOConstants.RELAY_STATE)));
+
     @Context
     private MessageContext messageContext;
 
     private boolean redirectOnInitialSignIn;
+    private int maxFormSize = DEFAULT_MAX_FORM_SIZE;
 
     public void filter(ContainerRequestContext context) {
         Message m = JAXRSUtils.getCurrentMessage();
-        FedizContext fedConfig = getFedizContext(m);
+        FedizContext fedConfig = acquireFedizContext(m);
+        try {
+            filterRequest(context, m, fedConfig);
+        } finally {
+            fedConfig.release();
+        }
+    }
 
+    private void filterRequest(ContainerRequestContext context, Message m, FedizContext fedConfig) {
         // See if it is a Metadata request
         if (isMetadataRequest(context, fedConfig)) {
             return;
@@ -97,8 +114,7 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
             if (HttpMethod.GET.equals(httpMethod)) {
                 params = context.getUriInfo().getQueryParameters();
             } else if (HttpMethod.POST.equals(httpMethod)) {
-                String strForm = IOUtils.toString(context.getEntityStream(), "UTF-8");
-                params = JAXRSUtils.getStructuredParams(strForm, "&", true, false);
+                params = readFormParameters(context);
             }
         } catch (Exception ex) {
             LOG.debug(ex.getMessage(), ex);
@@ -120,6 +136,31 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
         }
     }
 
+    /**
+     * Read the parameters of a sign-in response from a form POST. Other entities are not read, and the entity of
+     * a form is handed on to the application as it was sent.
+     */
+    MultivaluedMap<String, String> readFormParameters(ContainerRequestContext context) throws IOException {
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        if (!MediaType.APPLICATION_FORM_URLENCODED_TYPE.isCompatible(context.getMediaType())) {
+            return params;
+        }
+        if (context.getLength() > maxFormSize) {
+            LOG.debug("Form of {} bytes exceeds maxFormSize, not reading it", context.getLength());
+            return params;
+        }
+
+        FormParameterReader reader = new FormParameterReader(SIGN_IN_PARAMETERS, maxFormSize);
+        context.setEntityStream(reader.read(context.getEntityStream(), params));
+        if (reader.isTruncated()) {
+            LOG.debug("Form exceeds maxFormSize, only the parameters within the limit were read");
+            if (!params.isEmpty()) {
+                LOG.warn("A sign-in response exceeds the maxFormSize of {} bytes", maxFormSize);
+            }
+        }
+        return params;
+    }
+
     private void processSignInRequest(ContainerRequestContext context, FedizContext fedConfig,
                                       Message m, MultivaluedMap<String, String> params) {
         String responseToken = getResponseToken(fedConfig, params);
@@ -142,8 +183,6 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
             validateAudienceRestrictions(wfRes, audienceURIs, request);
 
             // Set the security context
-            String securityContextKey = UUID.randomUUID().toString();
-
             long currentTime = System.currentTimeMillis();
             Instant notOnOrAfter = wfRes.getTokenExpires();
             long expiresAt = 0;
@@ -177,7 +216,7 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
             responseState.setRoles(roles);
             responseState.setIssuer(wfRes.getIssuer());
             responseState.setSubject(wfRes.getUsername());
-            getStateManager().setResponseState(securityContextKey, responseState);
+            String securityContextKey = getStateManager().addResponseState(responseState);
 
             long stateTimeToLive = getStateTimeToLive();
             String contextCookie = CookieUtils.createCookie(SECURITY_CONTEXT_TOKEN,
@@ -514,6 +553,17 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter
         this.redirectOnInitialSignIn = redirectOnInitialSignIn;
     }
 
+    public int getMaxFormSize() {
+        return maxFormSize;
+    }
+
+    /**
+     * The maximum size in bytes of a form POST which is read for a sign-in response, 2 MB by default
+     */
+    public void setMaxFormSize(int maxFormSize) {
+        this.maxFormSize = maxFormSize;
+    }
+
     @Override
     public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
             throws IOException {
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Reads some parameters of an application/x-www-form-urlencoded entity while it streams by, without creating
+ * a String of the whole entity or decoding the parameters nobody asked for. At most maxSize bytes are read.
+ * The bytes read are kept, so that the entity can be handed on to the application unchanged.
+ */
+final class FormParameterReader {
+
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Set<String> names;
+    private final int maxSize;
+    private boolean truncated;
+
+    FormParameterReader(Set<String> names, int maxSize) {
+        this.names = names;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Read the parameters from the entity and add them to params.
+     *
+     * @return a stream with the entity as it was sent, to be used instead of the given one
+     */
+    InputStream read(InputStream entity, MultivaluedMap<String, String> params) throws IOException {
+        ByteArrayOutputStream consumed = new ByteArrayOutputStream(Math.min(maxSize, BUFFER_SIZE));
+        Parser parser = new Parser(params);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int total = 0;
+        while (total < maxSize) {
+            int read = entity.read(buffer, 0, Math.min(buffer.length, maxSize - total));
+            if (read == -1) {
+                break;
+            }
+            consumed.write(buffer, 0, read);
+            total += read;
+            for (int i = 0; i < read; i++) {
+                parser.accept(buffer[i]);
+            }
+        }
+
+        if (total >= maxSize) {
+            int next = entity.read();
+            if (next != -1) {
+                // The parameter at the limit is incomplete and dropped
+                truncated = true;
+                consumed.write(next);
+                return new SequenceInputStream(new ByteArrayInputStream(consumed.toByteArray()), entity);
+            }
+        }
+        parser.finish();
+        return new ByteArrayInputStream(consumed.toByteArray());
+    }
+
+    /**
+     * @return whether the entity was larger than the maximum size, then only the parameters before the limit
+     *         were read
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private final class Parser {
+        private final MultivaluedMap<String, String> params;
+        private final Decoder name = new Decoder();
+        private final Decoder value = new Decoder();
+        private boolean inValue;
+        private boolean wanted;
+
+        Parser(MultivaluedMap<String, String> params) {
+            this.params = params;
+        }
+
+        void accept(byte b) {
+            if (b == '&') {
+                finish();
+            } else if (inValue) {
+                if (wanted) {
+                    value.accept(b);
+                }
+            } else if (b == '=') {
+                inValue = true;
+                wanted = isWanted();
+            } else if (name.length() <= MAX_NAME_LENGTH) {
+                name.accept(b);
+            }
+        }
+
+        /**
+         * Complete the current parameter
+         */
+        void finish() {
+            if (inValue ? wanted : isWanted()) {
+                params.add(name.decode(), value.decode());
+            }
+            name.reset();
+            value.reset();
+            inValue = false;
+            wanted = false;
+        }
+
+        private boolean isWanted() {
+            return name.length() > 0 && name.length() <= MAX_NAME_LENGTH && names.contains(name.decode());
+        }
+    }
+
+    /**
+     * Decodes '+' and percent-encoded octets, an invalid escape is taken literally
+     */
+    private static final class Decoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int escape = -1;
+        private int escapeValue;
+        private byte escapeDigit;
+
+        void accept(byte b) {
+            if (escape >= 0) {
+                int digit = Character.digit(b, 16);
+                if (digit < 0) {
+                    writeEscape();
+                    accept(b);
+                    return;
+                }
+                escapeValue = escapeValue * 16 + digit;
+                escapeDigit = b;
+                if (++escape == 2) {
+                    bytes.write(escapeValue);
+                    escape = -1;
+                }
+            } else if (b == '%') {
+                escape = 0;
+                escapeValue = 0;
+            } else if (b == '+') {
+                bytes.write(' ');
+            } else {
+                bytes.write(b);
+            }
+        }
+
+        int length() {
+            return bytes.size();
+        }
+
+        String decode() {
+            if (escape >= 0) {
+                writeEscape();
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        void reset() {
+            bytes.reset();
+            escape = -1;
+        }
+
+        private void writeEscape() {
+            bytes.write('%');
+            if (escape == 1) {
+                bytes.write(escapeDigit);
+            }
+            escape = -1;
+        }
+    }
+
+}
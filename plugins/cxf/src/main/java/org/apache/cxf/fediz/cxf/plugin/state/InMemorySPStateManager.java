@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.cache.TimerWheel;
+
+/**
+ * An in-memory implementation of the SPStateManager interface without EHCache. The states are kept in
+ * ConcurrentHashMaps, so looking up the response state of a request takes no lock. Adding and removing states
+ * is serialized per map, a hierarchical timer wheel drops the states once their time to live is over.
+ *
+ * The number of states per map is bounded. When a map is full, a state which was not read recently is evicted.
+ * Reads only set a flag on the state, the eviction sweeps over the states like a clock hand and evicts the
+ * first one without the flag, clearing the flags it passes (the CLOCK approximation of LRU).
+ *
+ * Set it with AbstractServiceProviderFilter.setStateManager. The default TTL is 5 minutes, as for the
+ * EHCacheSPStateManager.
+ */
+public class InMemorySPStateManager implements SPStateManager {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final long TICK_MILLIS = 1000L;
+
+    private final Store<RequestState> requestStore;
+    private final Store<ResponseState> responseStore;
+    private final LongSupplier clock;
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long ttl = DEFAULT_TTL;
+
+    public InMemorySPStateManager() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of request states, and of response states
+     */
+    public InMemorySPStateManager(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    InMemorySPStateManager(int capacity, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.requestStore = new Store<>(capacity, now);
+        this.responseStore = new Store<>(capacity, now);
+    }
+
+    /**
+     * Set a new (default) TTL value in seconds
+     * @param newTtl a new (default) TTL value in seconds
+     */
+    public void setTTL(long newTtl) {
+        ttl = newTtl;
+    }
+
+    /**
+     * Get the (default) TTL value in seconds
+     * @return the (default) TTL value in seconds
+     */
+    public long getTTL() {
+        return ttl;
+    }
+
+    public void setRequestState(String relayState, RequestState state) {
+        if (relayState == null || "".equals(relayState)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        requestStore.put(relayState, state, now, now + getTTLMillis());
+    }
+
+    public RequestState removeRequestState(String relayState) {
+        return requestStore.remove(relayState, clock.getAsLong());
+    }
+
+    public ResponseState getResponseState(String securityContextKey) {
+        return responseStore.get(securityContextKey, clock.getAsLong());
+    }
+
+    public ResponseState removeResponseState(String securityContextKey) {
+        return responseStore.remove(securityContextKey, clock.getAsLong());
+    }
+
+    public void setResponseState(String securityContextKey, ResponseState state) {
+        if (securityContextKey == null || "".equals(securityContextKey)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        responseStore.put(securityContextKey, state, now, now + getTTLMillis());
+    }
+
+    public void close() {
+        requestStore.clear();
+        responseStore.clear();
+    }
+
+    /**
+     * @return the number of request states, including expired ones which were not dropped yet
+     */
+    public int getRequestStateCount() {
+        return requestStore.entries.size();
+    }
+
+    /**
+     * @return the number of response states, including expired ones which were not dropped yet
+     */
+    public int getResponseStateCount() {
+        return responseStore.entries.size();
+    }
+
+    /**
+     * @return the number of states which were dropped after their time to live was over
+     */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return the number of states which were evicted before their time to live was over, because there were
+     *         too many states. Users of evicted states have to sign in again.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private long getTTLMillis() {
+        long currentTtl = ttl;
+        if (currentTtl <= 0 || currentTtl > Integer.MAX_VALUE) {
+            // Fall back to the default TTL if it is set incorrectly
+            currentTtl = DEFAULT_TTL;
+        }
+        return currentTtl * 1000L;
+    }
+
+    private static final class Entry<V> {
+        private final String key;
+        private final V value;
+        private final long expiresAt;
+        private volatile boolean referenced;
+        private TimerWheel.Node<Entry<V>> node;
+
+        Entry(String key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The states of one kind. The map is read without a lock, the wheel and the clock hand are guarded by
+     * the lock of the store.
+     */
+    private final class Store<V> {
+        private final int capacity;
+        private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+        private final TimerWheel<Entry<V>> wheel;
+        private Iterator<Entry<V>> hand;
+
+        Store(int capacity, long now) {
+            this.capacity = capacity;
+            this.wheel = new TimerWheel<>(TICK_MILLIS, now);
+        }
+
+        V get(String key, long now) {
+            if (key == null) {
+                return null;
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= now) {
+                // The wheel drops the entry from the map as well, this only hides it before the next tick
+                return null;
+            }
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+
+        V remove(String key, long now) {
+            if (key == null) {
+                return null;
+            }
+            Entry<V> entry = entries.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            synchronized (this) {
+                if (entry.node != null) {
+                    wheel.cancel(entry.node);
+                }
+                expire(now);
+            }
+            return entry.expiresAt > now ? entry.value : null;
+        }
+
+        synchronized void put(String key, V value, long now, long expiresAt) {
+            expire(now);
+            Entry<V> entry = new Entry<>(key, value, expiresAt);
+            entry.node = wheel.schedule(entry, expiresAt);
+            Entry<V> old = entries.put(key, entry);
+            if (old != null && old.node != null) {
+                wheel.cancel(old.node);
+            }
+            while (entries.size() > capacity) {
+                evict();
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            wheel.clear();
+            hand = null;
+        }
+
+        private void expire(long now) {
+            wheel.advance(now, entry -> {
+                if (entries.remove(entry.key, entry)) {
+                    expirations.increment();
+                }
+            });
+        }
+
+        /**
+         * Evict the next entry which was not read since the hand passed it the last time
+         */
+        private void evict() {
+            // Two rounds clear all flags, so an entry is found unless the map is emptied concurrently
+            for (int i = 0; i <= 2 * capacity + 2; i++) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.values().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Entry<V> entry = hand.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (entries.remove(entry.key, entry)) {
+                    if (entry.node != null) {
+                        wheel.cancel(entry.node);
+                    }
+                    evictions.increment();
+                    return;
+                }
+            }
+        }
+    }
+
+}
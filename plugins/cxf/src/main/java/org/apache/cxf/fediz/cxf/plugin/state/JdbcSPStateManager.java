@@ -0,0 +1,684 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.sql.DataSource;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SPStateManager which shares the states of all nodes of a service through a database. The states are
+ * stored in the tables {@value #REQUEST_TABLE} and {@value #RESPONSE_TABLE}. {@link #init()} creates them if
+ * they don't exist, with the serialized states in a BLOB column as H2, HSQLDB, Derby, MySQL and Oracle support
+ * it. For other databases set the data type, e.g. BYTEA on PostgreSQL or VARBINARY(MAX) on SQL Server, or
+ * create the tables up front and set createTables to false.
+ *
+ * Every node keeps the states it stored or read in a near cache, an InMemorySPStateManager, so the database is
+ * only queried for a state which was created on another node. Writes are queued and written in JDBC batches
+ * by a background thread, several writes of the same key are merged. A state written on another node is
+ * therefore visible after the flush interval, and a state removed on another node may still be found in the
+ * near cache until its time there is over. Expired rows are purged periodically with one bulk delete per table.
+ *
+ * The queue is bounded. While the database can't be reached, the writes stay queued and are tried again with
+ * a growing delay, writes which expire in the meantime are dropped. A write which fails on its own, while the
+ * other writes succeed, is dropped after three attempts.
+ *
+ * The default TTL is 5 minutes, as for the EHCacheSPStateManager. It is the time to live of the rows, the
+ * near cache keeps states for at most {@link #setNearCacheTTL(long)} seconds.
+ */
+public class JdbcSPStateManager implements SPStateManager {
+
+    public static final String REQUEST_TABLE = "FEDIZ_REQUEST_STATE";
+    public static final String RESPONSE_TABLE = "FEDIZ_RESPONSE_STATE";
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long DEFAULT_NEAR_CACHE_TTL = 60L;
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 10000;
+    public static final long DEFAULT_FLUSH_INTERVAL = 50L;
+    public static final long DEFAULT_PURGE_INTERVAL = 60000L;
+    public static final int DEFAULT_MAX_PENDING = 100000;
+    public static final String DEFAULT_DATA_TYPE = "BLOB";
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcSPStateManager.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long MAX_RETRY_DELAY = 30000L;
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    private final DataSource dataSource;
+    private final long flushInterval;
+    private final long purgeInterval;
+    private final LongSupplier clock;
+    private final InMemorySPStateManager nearCache;
+    private final Map<PendingKey, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private final LongAdder dropped = new LongAdder();
+    private volatile ScheduledExecutorService executor;
+    private volatile long ttl = DEFAULT_TTL;
+    private volatile boolean closed;
+    private volatile boolean overflowLogged;
+    private volatile int maxPending = DEFAULT_MAX_PENDING;
+    private boolean createTables = true;
+    private String dataType = DEFAULT_DATA_TYPE;
+    // Only used by the writer thread
+    private int failedFlushes;
+    private long nextFlushAt;
+
+    public JdbcSPStateManager(DataSource dataSource) {
+        this(dataSource, DEFAULT_FLUSH_INTERVAL, DEFAULT_PURGE_INTERVAL, System::currentTimeMillis);
+    }
+
+    /**
+     * @param flushInterval the milliseconds between two writes of the queued states
+     * @param purgeInterval the milliseconds between two purges of expired rows
+     */
+    public JdbcSPStateManager(DataSource dataSource, long flushInterval, long purgeInterval) {
+        this(dataSource, flushInterval, purgeInterval, System::currentTimeMillis);
+    }
+
+    JdbcSPStateManager(DataSource dataSource, long flushInterval, long purgeInterval, LongSupplier clock) {
+        if (flushInterval <= 0 || purgeInterval <= 0) {
+            throw new IllegalArgumentException("The flush and purge intervals must be positive");
+        }
+        this.dataSource = Objects.requireNonNull(dataSource, "dataSource");
+        this.flushInterval = flushInterval;
+        this.purgeInterval = purgeInterval;
+        this.clock = clock;
+        this.nearCache = new InMemorySPStateManager(DEFAULT_NEAR_CACHE_SIZE, clock);
+        this.nearCache.setTTL(DEFAULT_NEAR_CACHE_TTL);
+    }
+
+    /**
+     * Create the tables if they don't exist, unless createTables is false, and start the thread which writes
+     * the queued states and purges the expired rows. States can be stored once this is done.
+     */
+    public synchronized void init() {
+        if (executor != null) {
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("The state manager is closed");
+        }
+        if (createTables) {
+            try {
+                createTables();
+            } catch (SQLException ex) {
+                throw new IllegalStateException("Failed to create the state tables", ex);
+            }
+        }
+
+        ScheduledExecutorService newExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fediz-jdbc-state-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        newExecutor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        newExecutor.scheduleWithFixedDelay(this::purgeQuietly, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+        executor = newExecutor;
+    }
+
+    /**
+     * Set a new (default) TTL value in seconds
+     * @param newTtl a new (default) TTL value in seconds
+     */
+    public void setTTL(long newTtl) {
+        ttl = newTtl;
+    }
+
+    /**
+     * Get the (default) TTL value in seconds
+     * @return the (default) TTL value in seconds
+     */
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * Set the time in seconds a node keeps a state in its near cache. A state removed on another node can be
+     * found on this node for that long.
+     */
+    public void setNearCacheTTL(long nearCacheTtl) {
+        nearCache.setTTL(nearCacheTtl);
+    }
+
+    public long getNearCacheTTL() {
+        return nearCache.getTTL();
+    }
+
+    /**
+     * Set the maximum number of queued writes. When the queue is full, for instance because the database is
+     * down, further writes are dropped and their states are only known to the node which stored them.
+     */
+    public void setMaxPending(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("The maximum number of queued writes must be positive");
+        }
+        this.maxPending = maxPending;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Whether init creates the tables if they don't exist, the default is true
+     */
+    public synchronized void setCreateTables(boolean createTables) {
+        this.createTables = createTables;
+    }
+
+    public synchronized boolean isCreateTables() {
+        return createTables;
+    }
+
+    /**
+     * Set the SQL type of the column with the serialized states in the tables created by init, the default is
+     * {@value #DEFAULT_DATA_TYPE}
+     */
+    public synchronized void setDataType(String dataType) {
+        this.dataType = Objects.requireNonNull(dataType, "dataType");
+    }
+
+    public synchronized String getDataType() {
+        return dataType;
+    }
+
+    public void setRequestState(String relayState, RequestState state) {
+        if (relayState == null || "".equals(relayState)) {
+            return;
+        }
+        enqueue(new PendingKey(REQUEST_TABLE, relayState), state);
+        nearCache.setRequestState(relayState, state);
+    }
+
+    public RequestState removeRequestState(String relayState) {
+        if (relayState == null || "".equals(relayState)) {
+            return null;
+        }
+        RequestState state = nearCache.removeRequestState(relayState);
+        PendingKey key = new PendingKey(REQUEST_TABLE, relayState);
+        if (state == null) {
+            state = (RequestState)find(key);
+        }
+        enqueue(key, null);
+        return state;
+    }
+
+    public ResponseState getResponseState(String securityContextKey) {
+        if (securityContextKey == null || "".equals(securityContextKey)) {
+            return null;
+        }
+        ResponseState state = nearCache.getResponseState(securityContextKey);
+        if (state == null) {
+            state = (ResponseState)find(new PendingKey(RESPONSE_TABLE, securityContextKey));
+            if (state != null) {
+                nearCache.setResponseState(securityContextKey, state);
+            }
+        }
+        return state;
+    }
+
+    public ResponseState removeResponseState(String securityContextKey) {
+        if (securityContextKey == null || "".equals(securityContextKey)) {
+            return null;
+        }
+        ResponseState state = nearCache.removeResponseState(securityContextKey);
+        PendingKey key = new PendingKey(RESPONSE_TABLE, securityContextKey);
+        if (state == null) {
+            state = (ResponseState)find(key);
+        }
+        enqueue(key, null);
+        return state;
+    }
+
+    public void setResponseState(String securityContextKey, ResponseState state) {
+        if (securityContextKey == null || "".equals(securityContextKey)) {
+            return;
+        }
+        enqueue(new PendingKey(RESPONSE_TABLE, securityContextKey), state);
+        nearCache.setResponseState(securityContextKey, state);
+    }
+
+    /**
+     * Write the queued states and stop the background thread
+     */
+    public void close() throws IOException {
+        ScheduledExecutorService currentExecutor;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            currentExecutor = executor;
+        }
+        if (currentExecutor != null) {
+            currentExecutor.shutdown();
+            try {
+                currentExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+        } catch (SQLException ex) {
+            throw new IOException("Failed to write the queued states", ex);
+        } finally {
+            nearCache.close();
+        }
+    }
+
+    /**
+     * @return the number of writes which are queued
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of writes which were dropped, because the queue was full, because they failed
+     *         repeatedly or because they expired before they could be written
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write the queued states now. A write which fails while the others succeed stays queued for the next
+     * flush, up to three times.
+     *
+     * @throws SQLException if the database can't be reached, all writes stay queued then
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            List<Map.Entry<PendingKey, Pending>> batch = takeBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+            try (Connection connection = dataSource.getConnection()) {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    writeRows(connection, batch);
+                    written(batch);
+                } catch (SQLException | RuntimeException ex) {
+                    LOG.debug("Failed to write {} states in one batch, writing them one by one: {}",
+                              batch.size(), ex.getMessage());
+                    writeEach(connection, batch);
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            overflowLogged = false;
+        }
+    }
+
+    /**
+     * Delete all rows which expired
+     *
+     * @return the number of deleted rows
+     */
+    public int purge() throws SQLException {
+        long now = clock.getAsLong();
+        int count = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            for (String table : new String[] {REQUEST_TABLE, RESPONSE_TABLE}) {
+                try (PreparedStatement ps =
+                    connection.prepareStatement("DELETE FROM " + table + " WHERE EXPIRES_AT <= ?")) {
+                    ps.setLong(1, now);
+                    count += ps.executeUpdate();
+                }
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        }
+        LOG.debug("Purged {} expired states", count);
+        return count;
+    }
+
+    private void enqueue(PendingKey key, Object state) {
+        if (closed) {
+            throw new IllegalStateException("The state manager is closed");
+        }
+        ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            throw new IllegalStateException("The state manager is not initialized");
+        }
+        byte[] data = null;
+        if (state != null) {
+            try {
+                data = state instanceof RequestState
+                    ? StateCodec.writeRequestState((RequestState)state)
+                    : StateCodec.writeResponseState((ResponseState)state, true);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to serialize the state", ex);
+            }
+        }
+        Pending write = new Pending(state, data, clock.getAsLong() + getTTLMillis());
+        // A write of a queued key replaces the queued write, so only new keys are dropped
+        if (pending.size() >= maxPending && pending.replace(key, write) == null) {
+            dropped.increment();
+            if (!overflowLogged) {
+                overflowLogged = true;
+                LOG.warn("{} writes are queued, further states are only kept on this node until the queued states "
+                    + "are written", pending.size());
+            }
+            return;
+        }
+        pending.put(key, write);
+        if (pending.size() >= BATCH_SIZE && flushRequested.compareAndSet(false, true)) {
+            currentExecutor.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Look the state up in the queue and then in the database
+     */
+    private Object find(PendingKey key) {
+        long now = clock.getAsLong();
+        Pending write = pending.get(key);
+        if (write != null) {
+            return write.expiresAt > now ? write.state : null;
+        }
+        try (Connection connection = dataSource.getConnection();
+            PreparedStatement ps = connection.prepareStatement(
+                "SELECT STATE_DATA FROM " + key.table + " WHERE STATE_KEY = ? AND EXPIRES_AT > ?")) {
+            ps.setString(1, key.key);
+            ps.setLong(2, now);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                byte[] data = rs.getBytes(1);
+                return REQUEST_TABLE.equals(key.table)
+                    ? StateCodec.readRequestState(data) : StateCodec.readResponseState(data);
+            }
+        } catch (SQLException | IOException | ClassNotFoundException ex) {
+            LOG.warn("Failed to read a state from the database: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Take the queued writes, dropping those which expired
+     */
+    private List<Map.Entry<PendingKey, Pending>> takeBatch() {
+        long now = clock.getAsLong();
+        List<Map.Entry<PendingKey, Pending>> batch = new ArrayList<>(pending.size());
+        int expired = 0;
+        for (Map.Entry<PendingKey, Pending> entry : pending.entrySet()) {
+            if (entry.getValue().expiresAt > now) {
+                batch.add(entry);
+            } else if (pending.remove(entry.getKey(), entry.getValue())) {
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            dropped.add(expired);
+            LOG.warn("Dropped {} queued states which expired before they could be written", expired);
+        }
+        return batch;
+    }
+
+    private void writeEach(Connection connection, List<Map.Entry<PendingKey, Pending>> batch)
+        throws SQLException {
+        for (Map.Entry<PendingKey, Pending> entry : batch) {
+            List<Map.Entry<PendingKey, Pending>> single = Collections.singletonList(entry);
+            try {
+                writeRows(connection, single);
+                written(single);
+            } catch (SQLException | RuntimeException ex) {
+                if (!isValid(connection)) {
+                    // The database is gone, not the row
+                    throw ex;
+                }
+                Pending write = entry.getValue();
+                if (++write.attempts < MAX_WRITE_ATTEMPTS) {
+                    LOG.debug("Failed to write a state of {}: {}", entry.getKey().table, ex.getMessage());
+                } else if (pending.remove(entry.getKey(), write)) {
+                    dropped.increment();
+                    LOG.warn("Dropped a state of " + entry.getKey().table + " after " + write.attempts
+                        + " failed writes: " + ex.getMessage());
+                    LOG.debug(ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    private void written(List<Map.Entry<PendingKey, Pending>> batch) {
+        for (Map.Entry<PendingKey, Pending> entry : batch) {
+            // A newer write of the key stays queued
+            pending.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Replace the rows of the keys in one transaction: all keys are deleted and the states re-inserted
+     */
+    private static void writeRows(Connection connection, List<Map.Entry<PendingKey, Pending>> batch)
+        throws SQLException {
+        try {
+            deleteRows(connection, REQUEST_TABLE, batch);
+            deleteRows(connection, RESPONSE_TABLE, batch);
+            insertRows(connection, REQUEST_TABLE, batch);
+            insertRows(connection, RESPONSE_TABLE, batch);
+            connection.commit();
+        } catch (SQLException | RuntimeException ex) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackEx) {
+                ex.addSuppressed(rollbackEx);
+            }
+            throw ex;
+        }
+    }
+
+    private static void deleteRows(Connection connection, String table,
+                                   List<Map.Entry<PendingKey, Pending>> batch) throws SQLException {
+        try (PreparedStatement ps =
+            connection.prepareStatement("DELETE FROM " + table + " WHERE STATE_KEY = ?")) {
+            int count = 0;
+            for (Map.Entry<PendingKey, Pending> entry : batch) {
+                if (table.equals(entry.getKey().table)) {
+                    ps.setString(1, entry.getKey().key);
+                    ps.addBatch();
+                    if (++count % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+            }
+            if (count % BATCH_SIZE != 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private static void insertRows(Connection connection, String table,
+                                   List<Map.Entry<PendingKey, Pending>> batch) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO " + table + " (STATE_KEY, EXPIRES_AT, STATE_DATA) VALUES (?, ?, ?)")) {
+            int count = 0;
+            for (Map.Entry<PendingKey, Pending> entry : batch) {
+                Pending write = entry.getValue();
+                if (write.data == null || !table.equals(entry.getKey().table)) {
+                    continue;
+                }
+                ps.setString(1, entry.getKey().key);
+                ps.setLong(2, write.expiresAt);
+                ps.setBytes(3, write.data);
+                ps.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                }
+            }
+            if (count % BATCH_SIZE != 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private void createTables() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            for (String table : new String[] {REQUEST_TABLE, RESPONSE_TABLE}) {
+                if (tableExists(connection, table)) {
+                    continue;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE " + table + " ("
+                        + "STATE_KEY VARCHAR(255) NOT NULL PRIMARY KEY, "
+                        + "EXPIRES_AT BIGINT NOT NULL, "
+                        + "STATE_DATA " + dataType + " NOT NULL)");
+                }
+                LOG.info("Created the table {}", table);
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[] {table, table.toLowerCase(Locale.ENGLISH)}) {
+            try (ResultSet rs = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void flushQuietly() {
+        long now = clock.getAsLong();
+        if (now < nextFlushAt) {
+            return;
+        }
+        try {
+            flush();
+            failedFlushes = 0;
+            nextFlushAt = 0L;
+        } catch (SQLException | RuntimeException ex) {
+            // The writes stay queued and are tried again after a delay which doubles with every failure
+            failedFlushes++;
+            long delay = Math.min(flushInterval << Math.min(failedFlushes, 20), MAX_RETRY_DELAY);
+            nextFlushAt = now + delay;
+            LOG.warn("Failed to write " + pending.size() + " queued states, trying again in " + delay + " ms: "
+                + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (SQLException | RuntimeException ex) {
+            LOG.warn("Failed to purge the expired states: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private long getTTLMillis() {
+        long currentTtl = ttl;
+        if (currentTtl <= 0 || currentTtl > Integer.MAX_VALUE) {
+            // Fall back to the default TTL if it is set incorrectly
+            currentTtl = DEFAULT_TTL;
+        }
+        return currentTtl * 1000L;
+    }
+
+    /**
+     * A queued write, a null state deletes the row. The attempts are counted under the flush lock.
+     */
+    private static final class Pending {
+        private final Object state;
+        private final byte[] data;
+        private final long expiresAt;
+        private int attempts;
+
+        Pending(Object state, byte[] data, long expiresAt) {
+            this.state = state;
+            this.data = data;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class PendingKey {
+        private final String table;
+        private final String key;
+
+        PendingKey(String table, String key) {
+            this.table = table;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey)obj;
+            return table.equals(other.table) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return table.hashCode() * 31 + key.hashCode();
+        }
+    }
+
+}
@@ -26,6 +26,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.security.SecurityContext;
 
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -43,6 +44,8 @@ public class ResponseState implements Serializable {
     private String issuer;
     private List<Claim> claims;
     private String subject;
+    private boolean assertionOmitted;
+    private transient volatile SecurityContext securityContext;
 
     public ResponseState() {
 
@@ -92,6 +95,7 @@ public class ResponseState implements Serializable {
 
     public void setRoles(List<String> roles) {
         this.roles = roles;
+        this.securityContext = null;
     }
 
     public List<Claim> getClaims() {
@@ -100,6 +104,7 @@ public class ResponseState implements Serializable {
 
     public void setClaims(List<Claim> claims) {
         this.claims = claims;
+        this.securityContext = null;
     }
 
     public String getIssuer() {
@@ -116,5 +121,30 @@ public class ResponseState implements Serializable {
 
     public void setSubject(String subject) {
         this.subject = subject;
+        this.securityContext = null;
+    }
+
+    /**
+     * Whether the state manager left out the assertion on purpose, to keep the stored state small. Such a
+     * state is accepted without an assertion as long as it has a subject, the principal has no login token then.
+     */
+    public boolean isAssertionOmitted() {
+        return assertionOmitted;
+    }
+
+    public void setAssertionOmitted(boolean assertionOmitted) {
+        this.assertionOmitted = assertionOmitted;
+    }
+
+    /**
+     * The SecurityContext created for this state by the service provider filter. It is kept in memory
+     * only, a state manager which serializes the state creates it again after reading the state.
+     */
+    public SecurityContext getSecurityContext() {
+        return securityContext;
+    }
+
+    public void setSecurityContext(SecurityContext securityContext) {
+        this.securityContext = securityContext;
     }
 }
@@ -20,6 +20,7 @@ package org.apache.cxf.fediz.cxf.plugin.state;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.UUID;
 
 import org.apache.cxf.fediz.core.RequestState;
 
@@ -39,6 +40,17 @@ public interface SPStateManager extends Closeable {
     RequestState removeRequestState(String relayState);
 
     void setResponseState(String contextKey, ResponseState state);
+
+    /**
+     * Store the response state and return the value of the security context cookie to look it up with.
+     * By default the state is stored under a random key.
+     */
+    default String addResponseState(ResponseState state) {
+        String contextKey = UUID.randomUUID().toString();
+        setResponseState(contextKey, state);
+        return contextKey;
+    }
+
     ResponseState getResponseState(String contextKey);
     ResponseState removeResponseState(String contextKey);
 
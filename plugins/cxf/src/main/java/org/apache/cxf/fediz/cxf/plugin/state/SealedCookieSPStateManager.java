@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SPStateManager which keeps no response state on the server. The ResponseState is written in a compact
+ * binary format, encrypted and authenticated with AES-GCM and the result is the value of the security context
+ * cookie. Every node which knows the key can open the cookie, so the nodes of a service need neither sticky
+ * sessions nor a shared cache. Opened states are kept in a small in-memory cache, so a cookie is normally
+ * decrypted once per node.
+ *
+ * The first key seals the cookies, all keys open them. To rotate the key, put a new key first and drop the old
+ * one once all cookies sealed with it have expired. The keys are given as base64 encoded AES keys of 16, 24 or
+ * 32 bytes, for instance:
+ * <pre>
+ * &lt;bean class="org.apache.cxf.fediz.cxf.plugin.state.SealedCookieSPStateManager"&gt;
+ *     &lt;constructor-arg value="base64 key 2,base64 key 1"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * The assertion makes up most of the state and easily exceeds the size browsers allow for a cookie, so it is
+ * left out by default and the principal has no login token. With includeAssertion set to true it is sealed
+ * into the cookie as well, unless the cookie gets too large. A state which can't be sealed into a cookie of
+ * at most 4000 characters is rejected.
+ *
+ * Removing a response state, on logout or expiry, only drops it from the cache of this node, a copy of the
+ * cookie stays valid until the state expires. The request states of the sign-in round trip are kept by
+ * another SPStateManager, an InMemorySPStateManager unless one is set. Without sticky sessions for the
+ * sign-in this has to be a shared one.
+ */
+public class SealedCookieSPStateManager implements SPStateManager {
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SealedCookieSPStateManager.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int KEY_ID_LENGTH = 4;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_LENGTH = 1 + KEY_ID_LENGTH;
+    private static final int MAX_COOKIE_LENGTH = 4000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey sealingKey;
+    private final byte[] sealingKeyId;
+    private final Map<ByteBuffer, SecretKey> keys = new HashMap<>();
+    private final InMemorySPStateManager stateCache;
+    private SPStateManager requestStateManager;
+    private boolean includeAssertion;
+
+    /**
+     * @param base64Keys the base64 encoded AES keys, the first one seals the cookies
+     */
+    public SealedCookieSPStateManager(String[] base64Keys) {
+        this(decodeKeys(base64Keys));
+    }
+
+    /**
+     * @param keys the AES keys, the first one seals the cookies
+     */
+    public SealedCookieSPStateManager(List<SecretKey> secretKeys) {
+        if (secretKeys == null || secretKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one key is required");
+        }
+        for (SecretKey key : secretKeys) {
+            byte[] encoded = key.getEncoded();
+            if (!"AES".equalsIgnoreCase(key.getAlgorithm()) || encoded == null
+                || encoded.length != 16 && encoded.length != 24 && encoded.length != 32) {
+                throw new IllegalArgumentException("The keys must be AES keys of 16, 24 or 32 bytes");
+            }
+            if (keys.put(ByteBuffer.wrap(keyId(encoded)), key) != null) {
+                throw new IllegalArgumentException("The keys must be distinct");
+            }
+        }
+        this.sealingKey = secretKeys.get(0);
+        this.sealingKeyId = keyId(sealingKey.getEncoded());
+        this.stateCache = new InMemorySPStateManager(DEFAULT_CACHE_SIZE);
+    }
+
+    private static List<SecretKey> decodeKeys(String[] base64Keys) {
+        if (base64Keys == null) {
+            return Collections.emptyList();
+        }
+        List<SecretKey> keys = new ArrayList<>(base64Keys.length);
+        for (String base64Key : base64Keys) {
+            keys.add(new SecretKeySpec(Base64.getDecoder().decode(base64Key.trim()), "AES"));
+        }
+        return keys;
+    }
+
+    /**
+     * The key id is the start of the SHA-256 digest of the key, so it stays the same when keys are added
+     */
+    private static byte[] keyId(byte[] key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key);
+            byte[] id = new byte[KEY_ID_LENGTH];
+            System.arraycopy(digest, 0, id, 0, KEY_ID_LENGTH);
+            return id;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String addResponseState(ResponseState state) {
+        String cookie = seal(state, includeAssertion);
+        if (cookie.length() > MAX_COOKIE_LENGTH && includeAssertion && state.getAssertion() != null) {
+            LOG.warn("The sealed response state with the assertion has {} characters, the assertion is left out",
+                     cookie.length());
+            cookie = seal(state, false);
+        }
+        if (cookie.length() > MAX_COOKIE_LENGTH) {
+            throw new IllegalStateException("The sealed response state has " + cookie.length()
+                + " characters, browsers drop cookies of more than " + MAX_COOKIE_LENGTH + " characters");
+        }
+        // Cache the state as the other nodes open it, without an omitted assertion
+        stateCache.setResponseState(cookie, open(cookie));
+        return cookie;
+    }
+
+    /**
+     * Keep the state under the given key in the cache of this node. As the key is not a sealed state, only this
+     * node knows the state, and only for the TTL of the cache. Use addResponseState for a state every node can
+     * open.
+     */
+    public void setResponseState(String contextKey, ResponseState state) {
+        if (contextKey == null || contextKey.isEmpty()) {
+            return;
+        }
+        stateCache.setResponseState(contextKey, state);
+    }
+
+    public ResponseState getResponseState(String contextKey) {
+        if (contextKey == null || contextKey.isEmpty()) {
+            return null;
+        }
+        ResponseState state = stateCache.getResponseState(contextKey);
+        if (state == null) {
+            state = open(contextKey);
+            if (state != null) {
+                stateCache.setResponseState(contextKey, state);
+            }
+        }
+        return state;
+    }
+
+    public ResponseState removeResponseState(String contextKey) {
+        if (contextKey == null || contextKey.isEmpty()) {
+            return null;
+        }
+        ResponseState state = stateCache.removeResponseState(contextKey);
+        return state != null ? state : open(contextKey);
+    }
+
+    public void setRequestState(String relayState, RequestState state) {
+        getRequestStateManager().setRequestState(relayState, state);
+    }
+
+    public RequestState removeRequestState(String relayState) {
+        return getRequestStateManager().removeRequestState(relayState);
+    }
+
+    public void close() throws IOException {
+        stateCache.close();
+        if (requestStateManager != null) {
+            requestStateManager.close();
+        }
+    }
+
+    public synchronized SPStateManager getRequestStateManager() {
+        if (requestStateManager == null) {
+            requestStateManager = new InMemorySPStateManager();
+        }
+        return requestStateManager;
+    }
+
+    public synchronized void setRequestStateManager(SPStateManager requestStateManager) {
+        this.requestStateManager = requestStateManager;
+    }
+
+    public boolean isIncludeAssertion() {
+        return includeAssertion;
+    }
+
+    /**
+     * Whether the assertion is part of the sealed state, the default is false
+     */
+    public void setIncludeAssertion(boolean includeAssertion) {
+        this.includeAssertion = includeAssertion;
+    }
+
+    /**
+     * Set the time in seconds an opened state is cached
+     */
+    public void setTTL(long newTtl) {
+        stateCache.setTTL(newTtl);
+    }
+
+    public long getTTL() {
+        return stateCache.getTTL();
+    }
+
+    private String seal(ResponseState state, boolean withAssertion) {
+        try {
+            return seal(StateCodec.writeResponseState(state, withAssertion));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to seal the response state", e);
+        }
+    }
+
+    private String seal(byte[] plaintext) throws GeneralSecurityException {
+        byte[] sealed = new byte[HEADER_LENGTH + IV_LENGTH + plaintext.length + TAG_BITS / 8];
+        sealed[0] = FORMAT_VERSION;
+        System.arraycopy(sealingKeyId, 0, sealed, 1, KEY_ID_LENGTH);
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, sealed, HEADER_LENGTH, IV_LENGTH);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, sealingKey, new GCMParameterSpec(TAG_BITS, iv));
+        // The version and key id are authenticated as well
+        cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, HEADER_LENGTH + IV_LENGTH);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sealed);
+    }
+
+    private ResponseState open(String cookie) {
+        try {
+            byte[] sealed = Base64.getUrlDecoder().decode(cookie);
+            if (sealed.length < HEADER_LENGTH + IV_LENGTH + TAG_BITS / 8 || sealed[0] != FORMAT_VERSION) {
+                LOG.debug("Unsupported sealed response state");
+                return null;
+            }
+            byte[] keyId = new byte[KEY_ID_LENGTH];
+            System.arraycopy(sealed, 1, keyId, 0, KEY_ID_LENGTH);
+            SecretKey key = keys.get(ByteBuffer.wrap(keyId));
+            if (key == null) {
+                LOG.debug("The response state was sealed with an unknown key");
+                return null;
+            }
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, HEADER_LENGTH, IV_LENGTH));
+            cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+            byte[] plaintext = cipher.doFinal(sealed, HEADER_LENGTH + IV_LENGTH,
+                                              sealed.length - HEADER_LENGTH - IV_LENGTH);
+            return StateCodec.readResponseState(plaintext);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            // Not base64 or not authentic
+            LOG.debug("Invalid sealed response state: " + e.getMessage());
+            return null;
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.warn("Failed to read a sealed response state: " + e.getMessage());
+            LOG.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.samlsso.DeflateCodec;
+import org.apache.cxf.fediz.core.util.CompactCodec;
+import org.apache.cxf.helpers.IOUtils;
+
+/**
+ * Writes request and response states field by field in the compact format of CompactCodec, for the state
+ * managers which store states outside of the JVM. Unlike Java serialization the format does not depend on the
+ * classes. The states are read from cookies and database rows, so claim values are restricted to strings and
+ * lists of strings and claims must not have a principal: the codec rejects other values instead of
+ * deserializing them. The assertion is written deflated.
+ */
+final class StateCodec {
+
+    // The length of the deflated assertion is written after one of these markers
+    private static final int NO_ASSERTION = 0;
+    private static final int ASSERTION_OMITTED = 1;
+    private static final int ASSERTION_INCLUDED = 2;
+
+    private StateCodec() {
+    }
+
+    static byte[] writeResponseState(ResponseState state, boolean includeAssertion) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            CompactCodec.Writer writer = CompactCodec.newWriter(out, false);
+            writer.writeVersion();
+            writer.writeString(state.getState());
+            writer.writeString(state.getWebAppContext());
+            writer.writeString(state.getWebAppDomain());
+            writer.writeVarLong(state.getCreatedAt());
+            writer.writeVarLong(state.getExpiresAt());
+            writer.writeString(state.getIssuer());
+            writer.writeString(state.getSubject());
+            writer.writeStrings(state.getRoles());
+            writer.writeClaims(state.getClaims());
+            if (includeAssertion && state.getAssertion() != null) {
+                byte[] assertion = DeflateCodec.getInstance().deflate(
+                    state.getAssertion().getBytes(StandardCharsets.UTF_8));
+                writer.writeVarInt(assertion.length + ASSERTION_INCLUDED);
+                out.write(assertion);
+            } else if (state.getAssertion() != null || state.isAssertionOmitted()) {
+                writer.writeVarInt(ASSERTION_OMITTED);
+            } else {
+                writer.writeVarInt(NO_ASSERTION);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static ResponseState readResponseState(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            CompactCodec.Reader reader = CompactCodec.newReader(in, false);
+            reader.readVersion();
+            String relayState = reader.readString();
+            String webAppContext = reader.readString();
+            String webAppDomain = reader.readString();
+            long createdAt = reader.readVarLong();
+            long expiresAt = reader.readVarLong();
+            String issuer = reader.readString();
+            String subject = reader.readString();
+            List<String> roles = reader.readStrings(true);
+            List<Claim> claims = reader.readClaims();
+
+            String assertion = null;
+            int marker = reader.readVarInt();
+            int length = marker - ASSERTION_INCLUDED;
+            if (length >= 0) {
+                byte[] deflated = new byte[length];
+                in.readFully(deflated);
+                try (InputStream inflated = DeflateCodec.getInstance().inflate(deflated)) {
+                    assertion = IOUtils.toString(inflated, StandardCharsets.UTF_8.name());
+                } catch (DataFormatException e) {
+                    throw new StreamCorruptedException("Invalid deflated assertion");
+                }
+            }
+
+            ResponseState state =
+                new ResponseState(assertion, relayState, webAppContext, webAppDomain, createdAt, expiresAt);
+            state.setIssuer(issuer);
+            state.setSubject(subject);
+            state.setRoles(roles);
+            state.setClaims(claims);
+            state.setAssertionOmitted(marker == ASSERTION_OMITTED);
+            return state;
+        }
+    }
+
+    static byte[] writeRequestState(RequestState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            CompactCodec.Writer writer = CompactCodec.newWriter(out, false);
+            writer.writeVersion();
+            writer.writeString(state.getTargetAddress());
+            writer.writeString(state.getIdpServiceAddress());
+            writer.writeString(state.getRequestId());
+            writer.writeString(state.getIssuerId());
+            writer.writeString(state.getWebAppContext());
+            writer.writeString(state.getState());
+            writer.writeString(state.getWebAppDomain());
+            writer.writeVarLong(state.getCreatedAt());
+        }
+        return bytes.toByteArray();
+    }
+
+    static RequestState readRequestState(byte[] data) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            CompactCodec.Reader reader = CompactCodec.newReader(in, false);
+            reader.readVersion();
+            RequestState state = new RequestState();
+            state.setTargetAddress(reader.readString());
+            state.setIdpServiceAddress(reader.readString());
+            state.setRequestId(reader.readString());
+            state.setIssuerId(reader.readString());
+            state.setWebAppContext(reader.readString());
+            state.setState(reader.readString());
+            state.setWebAppDomain(reader.readString());
+            state.setCreatedAt(reader.readVarLong());
+            return state;
+        }
+    }
+
+}
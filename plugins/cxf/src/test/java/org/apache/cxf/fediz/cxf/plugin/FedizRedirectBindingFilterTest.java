@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
+import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.security.SecurityContext;
+import org.junit.Assert;
+
+public class FedizRedirectBindingFilterTest {
+
+    private static final byte[] FORM =
+        "wa=wsignin1.0&wresult=%3Cr%2F%3E&wctx=ctx&other=x".getBytes(StandardCharsets.UTF_8);
+
+    @org.junit.Test
+    public void testNonFormPostUntouched() throws Exception {
+        RequestContext request = new RequestContext(MediaType.APPLICATION_JSON_TYPE, FORM);
+        MultivaluedMap<String, String> params = new FedizRedirectBindingFilter().readFormParameters(request.proxy);
+
+        Assert.assertTrue(params.isEmpty());
+        Assert.assertFalse(request.calls.contains("getEntityStream"));
+        Assert.assertFalse(request.calls.contains("setEntityStream"));
+        Assert.assertSame(request.entity, request.entityStream);
+    }
+
+    @org.junit.Test
+    public void testPostWithoutMediaTypeUntouched() throws Exception {
+        RequestContext request = new RequestContext(null, FORM);
+        MultivaluedMap<String, String> params = new FedizRedirectBindingFilter().readFormParameters(request.proxy);
+
+        Assert.assertTrue(params.isEmpty());
+        Assert.assertSame(request.entity, request.entityStream);
+    }
+
+    @org.junit.Test
+    public void testFormPost() throws Exception {
+        RequestContext request = new RequestContext(MediaType.APPLICATION_FORM_URLENCODED_TYPE, FORM);
+        MultivaluedMap<String, String> params = new FedizRedirectBindingFilter().readFormParameters(request.proxy);
+
+        Assert.assertEquals("wsignin1.0", params.getFirst("wa"));
+        Assert.assertEquals("<r/>", params.getFirst("wresult"));
+        Assert.assertEquals("ctx", params.getFirst("wctx"));
+        Assert.assertFalse(params.containsKey("other"));
+        // The application reads the form as it was sent
+        Assert.assertNotSame(request.entity, request.entityStream);
+        Assert.assertArrayEquals(FORM, FormParameterReaderTest.readAll(request.entityStream));
+    }
+
+    @org.junit.Test
+    public void testOversizeFormUntouched() throws Exception {
+        RequestContext request = new RequestContext(MediaType.APPLICATION_FORM_URLENCODED_TYPE, FORM);
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter();
+        filter.setMaxFormSize(FORM.length - 1);
+        MultivaluedMap<String, String> params = filter.readFormParameters(request.proxy);
+
+        Assert.assertTrue(params.isEmpty());
+        Assert.assertSame(request.entity, request.entityStream);
+    }
+
+    @org.junit.Test
+    public void testRequestsOfSessionDoNotShareToken() throws Exception {
+        ResponseState state =
+            new ResponseState("<assertion><subject>alice</subject></assertion>", "relay", "/app", null, 0L, 0L);
+        state.setSubject("alice");
+        state.setRoles(Collections.singletonList("User"));
+        state.setClaims(Collections.emptyList());
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter();
+
+        try {
+            Message first = new MessageImpl();
+            filter.setSecurityContext(state, first);
+            Element firstToken = SecurityTokenThreadLocal.getToken();
+            Assert.assertSame(firstToken, SecurityTokenThreadLocal.getToken());
+
+            Message second = new MessageImpl();
+            filter.setSecurityContext(state, second);
+            Element secondToken = SecurityTokenThreadLocal.getToken();
+
+            // The principal is shared, the DOM of the token is not
+            Assert.assertSame(first.get(SecurityContext.class), second.get(SecurityContext.class));
+            Assert.assertEquals("assertion", firstToken.getLocalName());
+            Assert.assertEquals("assertion", secondToken.getLocalName());
+            Assert.assertNotSame(firstToken, secondToken);
+            Assert.assertNotSame(firstToken.getOwnerDocument(), secondToken.getOwnerDocument());
+
+            // So are the claims with their index
+            FedizPrincipal principal = (FedizPrincipal)second.get(SecurityContext.class).getUserPrincipal();
+            Assert.assertSame(principal.getClaims(), principal.getClaims());
+        } finally {
+            SecurityTokenThreadLocal.setToken(null);
+        }
+    }
+
+    /**
+     * A ContainerRequestContext with an entity, which records the methods called on it
+     */
+    private static final class RequestContext {
+        private final List<String> calls = new ArrayList<>();
+        private final InputStream entity;
+        private final ContainerRequestContext proxy;
+        private InputStream entityStream;
+
+        RequestContext(MediaType mediaType, byte[] form) {
+            entity = new ByteArrayInputStream(form);
+            entityStream = entity;
+            proxy = (ContainerRequestContext)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ContainerRequestContext.class}, (object, method, args) -> {
+                    calls.add(method.getName());
+                    switch (method.getName()) {
+                    case "getMethod":
+                        return "POST";
+                    case "getMediaType":
+                        return mediaType;
+                    case "getLength":
+                        return form.length;
+                    case "getEntityStream":
+                        return entityStream;
+                    case "setEntityStream":
+                        entityStream = (InputStream)args[0];
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.cxf.jaxrs.impl.MetadataMap;
+import org.junit.Assert;
+
+public class FormParameterReaderTest {
+
+    private static final Set<String> NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "wa", "wresult", "wctx")));
+
+    @org.junit.Test
+    public void testWantedParameters() throws Exception {
+        MultivaluedMap<String, String> params =
+            read("wa=wsignin1.0&other=ignored&wctx=a&wctx=b&wresult=%3Cr%2F%3E", NAMES, 1024);
+        Assert.assertEquals(3, params.size());
+        Assert.assertEquals("wsignin1.0", params.getFirst("wa"));
+        Assert.assertEquals(Arrays.asList("a", "b"), params.get("wctx"));
+        Assert.assertEquals("<r/>", params.getFirst("wresult"));
+        Assert.assertFalse(params.containsKey("other"));
+    }
+
+    @org.junit.Test
+    public void testPlusAndEscapes() throws Exception {
+        MultivaluedMap<String, String> params =
+            read("wa=a+b%20c%2Bd%25&w%72esult=%7e%7E&wctx=", NAMES, 1024);
+        Assert.assertEquals("a b c+d%", params.getFirst("wa"));
+        // Escapes are decoded in names as well, and in either case
+        Assert.assertEquals("~~", params.getFirst("wresult"));
+        Assert.assertEquals("", params.getFirst("wctx"));
+    }
+
+    @org.junit.Test
+    public void testParameterWithoutValue() throws Exception {
+        MultivaluedMap<String, String> params = read("wa&wctx=&=x&&wresult", NAMES, 1024);
+        Assert.assertEquals("", params.getFirst("wa"));
+        Assert.assertEquals("", params.getFirst("wctx"));
+        Assert.assertEquals("", params.getFirst("wresult"));
+        Assert.assertFalse(params.containsKey(""));
+    }
+
+    @org.junit.Test
+    public void testInvalidEscapes() throws Exception {
+        // An invalid escape is taken literally
+        Assert.assertEquals("%zz", read("wa=%zz", NAMES, 1024).getFirst("wa"));
+        Assert.assertEquals("%4z", read("wa=%4z", NAMES, 1024).getFirst("wa"));
+        Assert.assertEquals("%%41", read("wa=%%%341", NAMES, 1024).getFirst("wa"));
+        Assert.assertEquals("x% y", read("wa=x%+y", NAMES, 1024).getFirst("wa"));
+    }
+
+    @org.junit.Test
+    public void testTrailingEscapes() throws Exception {
+        Assert.assertEquals("a%", read("wa=a%", NAMES, 1024).getFirst("wa"));
+        Assert.assertEquals("a%4", read("wa=a%4", NAMES, 1024).getFirst("wa"));
+        MultivaluedMap<String, String> params = read("wa=a%&wctx=b%4&wresult=c", NAMES, 1024);
+        Assert.assertEquals("a%", params.getFirst("wa"));
+        Assert.assertEquals("b%4", params.getFirst("wctx"));
+        Assert.assertEquals("c", params.getFirst("wresult"));
+    }
+
+    @org.junit.Test
+    public void testMultiByteCharacters() throws Exception {
+        String value = "gr\u00fc\u00dfe \u20ac \ud83d\ude00";
+        // Percent-encoded UTF-8, and raw UTF-8 as some clients send it
+        Assert.assertEquals(value, read("wa=gr%C3%BC%C3%9Fe+%E2%82%AC+%F0%9F%98%80", NAMES, 1024).getFirst("wa"));
+        Assert.assertEquals(value, read("wa=" + value, NAMES, 1024).getFirst("wa"));
+
+        // Characters split across reads of the entity
+        byte[] entity = ("wa=%E2%82%AC" + value).getBytes(StandardCharsets.UTF_8);
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        new FormParameterReader(NAMES, 1024).read(new OneByteInputStream(entity), params);
+        Assert.assertEquals("\u20ac" + value, params.getFirst("wa"));
+    }
+
+    @org.junit.Test
+    public void testLongNames() throws Exception {
+        char[] chars = new char[64];
+        Arrays.fill(chars, 'n');
+        String name64 = new String(chars);
+        String name65 = name64 + "n";
+        Set<String> names = new HashSet<>(Arrays.asList(name64, name65, "wa"));
+
+        MultivaluedMap<String, String> params =
+            read(name65 + "=1&" + name64 + "=2&" + name65 + "nnnnnnnnnn=3&wa=4", names, 1024);
+        Assert.assertEquals("2", params.getFirst(name64));
+        // Names of more than 64 bytes are never wanted, nor mistaken for their prefix
+        Assert.assertFalse(params.containsKey(name65));
+        Assert.assertEquals(Collections.singletonList("2"), params.get(name64));
+        Assert.assertEquals("4", params.getFirst("wa"));
+
+        // The limit is on the decoded bytes
+        String escaped64 = name64.substring(2) + "%6E%6E";
+        Assert.assertEquals("5", read(escaped64 + "=5", names, 1024).getFirst(name64));
+    }
+
+    @org.junit.Test
+    public void testTruncatedAtMaxSize() throws Exception {
+        String form = "wa=wsignin1.0&wctx=abc&wresult=0123456789";
+        byte[] entity = form.getBytes(StandardCharsets.UTF_8);
+        int maxSize = form.indexOf("wresult") + "wresult=01".length();
+
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        FormParameterReader reader = new FormParameterReader(NAMES, maxSize);
+        InputStream replay = reader.read(new ByteArrayInputStream(entity), params);
+        Assert.assertTrue(reader.isTruncated());
+        Assert.assertEquals("wsignin1.0", params.getFirst("wa"));
+        Assert.assertEquals("abc", params.getFirst("wctx"));
+        // The parameter at the limit is incomplete, it is dropped
+        Assert.assertFalse(params.containsKey("wresult"));
+        Assert.assertArrayEquals(entity, readAll(replay));
+    }
+
+    @org.junit.Test
+    public void testEntityOfMaxSize() throws Exception {
+        String form = "wa=wsignin1.0&wresult=0123456789";
+        byte[] entity = form.getBytes(StandardCharsets.UTF_8);
+
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        FormParameterReader reader = new FormParameterReader(NAMES, entity.length);
+        InputStream replay = reader.read(new ByteArrayInputStream(entity), params);
+        Assert.assertFalse(reader.isTruncated());
+        Assert.assertEquals("0123456789", params.getFirst("wresult"));
+        Assert.assertArrayEquals(entity, readAll(replay));
+    }
+
+    @org.junit.Test
+    public void testReplayedEntityUnchanged() throws Exception {
+        ByteArrayOutputStream form = new ByteArrayOutputStream();
+        form.write("other=%FF%00+x&wa=wsignin1.0&wresult=".getBytes(StandardCharsets.UTF_8));
+        // Larger than the buffer of the reader, with every byte value
+        for (int i = 0; i < 20000; i++) {
+            form.write(i % 256);
+        }
+        form.write("&wctx=%zz%".getBytes(StandardCharsets.UTF_8));
+        byte[] entity = form.toByteArray();
+
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        FormParameterReader reader = new FormParameterReader(NAMES, 1024 * 1024);
+        InputStream replay = reader.read(new OneByteInputStream(entity), params);
+        Assert.assertFalse(reader.isTruncated());
+        Assert.assertEquals("wsignin1.0", params.getFirst("wa"));
+        Assert.assertEquals("%zz%", params.getFirst("wctx"));
+        Assert.assertArrayEquals(entity, readAll(replay));
+    }
+
+    private static MultivaluedMap<String, String> read(String form, Set<String> names, int maxSize)
+        throws IOException {
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        byte[] entity = form.getBytes(StandardCharsets.UTF_8);
+        InputStream replay = new FormParameterReader(names, maxSize).read(new ByteArrayInputStream(entity), params);
+        Assert.assertArrayEquals(entity, readAll(replay));
+        return params;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read = in.read(buffer);
+        while (read != -1) {
+            bytes.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns at most one byte per read, like a slow connection
+     */
+    private static final class OneByteInputStream extends FilterInputStream {
+
+        OneByteInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+}
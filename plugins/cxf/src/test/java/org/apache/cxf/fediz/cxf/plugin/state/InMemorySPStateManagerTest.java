@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.junit.Assert;
+
+public class InMemorySPStateManagerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    @org.junit.Test
+    public void testAddAndRemove() {
+        InMemorySPStateManager manager = new InMemorySPStateManager(10, clock::get);
+        RequestState requestState = createRequestState("relay-1");
+        ResponseState responseState = createResponseState();
+
+        manager.setRequestState("relay-1", requestState);
+        manager.setResponseState("context-1", responseState);
+        Assert.assertEquals(1, manager.getRequestStateCount());
+        Assert.assertEquals(1, manager.getResponseStateCount());
+
+        Assert.assertSame(responseState, manager.getResponseState("context-1"));
+        Assert.assertSame(responseState, manager.getResponseState("context-1"));
+        Assert.assertNull(manager.getResponseState("context-2"));
+
+        Assert.assertSame(requestState, manager.removeRequestState("relay-1"));
+        Assert.assertNull(manager.removeRequestState("relay-1"));
+        Assert.assertSame(responseState, manager.removeResponseState("context-1"));
+        Assert.assertNull(manager.getResponseState("context-1"));
+
+        Assert.assertEquals(0, manager.getRequestStateCount());
+        Assert.assertEquals(0, manager.getResponseStateCount());
+        Assert.assertEquals(0L, manager.getExpirationCount());
+        Assert.assertEquals(0L, manager.getEvictionCount());
+    }
+
+    @org.junit.Test
+    public void testExpiry() {
+        InMemorySPStateManager manager = new InMemorySPStateManager(10, clock::get);
+        manager.setTTL(60L);
+        ResponseState responseState = createResponseState();
+        manager.setRequestState("relay-1", createRequestState("relay-1"));
+        manager.setResponseState("context-1", responseState);
+
+        clock.addAndGet(59_000L);
+        Assert.assertSame(responseState, manager.getResponseState("context-1"));
+
+        // Expired states are hidden at once, but only dropped by the next update
+        clock.addAndGet(2_000L);
+        Assert.assertNull(manager.getResponseState("context-1"));
+        Assert.assertEquals(1, manager.getResponseStateCount());
+        Assert.assertEquals(0L, manager.getExpirationCount());
+
+        manager.setResponseState("context-2", createResponseState());
+        Assert.assertEquals(1, manager.getResponseStateCount());
+        Assert.assertEquals(1L, manager.getExpirationCount());
+        Assert.assertNull(manager.getResponseState("context-1"));
+        Assert.assertNotNull(manager.getResponseState("context-2"));
+
+        // An expired request state is not returned when it is removed
+        Assert.assertNull(manager.removeRequestState("relay-1"));
+        Assert.assertEquals(0, manager.getRequestStateCount());
+        Assert.assertEquals(0L, manager.getEvictionCount());
+    }
+
+    @org.junit.Test
+    public void testReplacedStateKeepsNewExpiry() {
+        InMemorySPStateManager manager = new InMemorySPStateManager(10, clock::get);
+        manager.setTTL(60L);
+        manager.setResponseState("context-1", createResponseState());
+
+        clock.addAndGet(30_000L);
+        ResponseState replacement = createResponseState();
+        manager.setResponseState("context-1", replacement);
+
+        // The timer of the replaced state must not drop the replacement
+        clock.addAndGet(45_000L);
+        manager.setResponseState("context-2", createResponseState());
+        Assert.assertSame(replacement, manager.getResponseState("context-1"));
+        Assert.assertEquals(0L, manager.getExpirationCount());
+
+        clock.addAndGet(20_000L);
+        manager.setResponseState("context-3", createResponseState());
+        Assert.assertNull(manager.getResponseState("context-1"));
+        Assert.assertEquals(1L, manager.getExpirationCount());
+    }
+
+    @org.junit.Test
+    public void testEvictionAtCapacity() {
+        InMemorySPStateManager manager = new InMemorySPStateManager(3, clock::get);
+        ResponseState recentlyRead = createResponseState();
+        manager.setResponseState("context-1", recentlyRead);
+        manager.setResponseState("context-2", createResponseState());
+        manager.setResponseState("context-3", createResponseState());
+        Assert.assertEquals(0L, manager.getEvictionCount());
+
+        // Only the read state is flagged, so the hand evicts one of the others
+        Assert.assertSame(recentlyRead, manager.getResponseState("context-1"));
+        manager.setResponseState("context-4", createResponseState());
+        Assert.assertEquals(3, manager.getResponseStateCount());
+        Assert.assertEquals(1L, manager.getEvictionCount());
+        Assert.assertSame(recentlyRead, manager.getResponseState("context-1"));
+
+        for (int i = 5; i < 15; i++) {
+            manager.setResponseState("context-" + i, createResponseState());
+        }
+        Assert.assertEquals(3, manager.getResponseStateCount());
+        Assert.assertEquals(11L, manager.getEvictionCount());
+        Assert.assertEquals(0L, manager.getExpirationCount());
+
+        // Evicted states are no longer in the wheel, they are not counted as expired later on
+        clock.addAndGet((InMemorySPStateManager.DEFAULT_TTL + 1L) * 1000L);
+        manager.setResponseState("context-15", createResponseState());
+        Assert.assertEquals(1, manager.getResponseStateCount());
+        Assert.assertEquals(3L, manager.getExpirationCount());
+        Assert.assertEquals(11L, manager.getEvictionCount());
+    }
+
+    @org.junit.Test
+    public void testCapacityPerKind() {
+        InMemorySPStateManager manager = new InMemorySPStateManager(2, clock::get);
+        for (int i = 0; i < 4; i++) {
+            manager.setRequestState("relay-" + i, createRequestState("relay-" + i));
+        }
+        manager.setResponseState("context-1", createResponseState());
+        manager.setResponseState("context-2", createResponseState());
+
+        Assert.assertEquals(2, manager.getRequestStateCount());
+        Assert.assertEquals(2, manager.getResponseStateCount());
+        Assert.assertEquals(2L, manager.getEvictionCount());
+
+        manager.close();
+        Assert.assertEquals(0, manager.getRequestStateCount());
+        Assert.assertEquals(0, manager.getResponseStateCount());
+    }
+
+    private RequestState createRequestState(String relayState) {
+        return new RequestState("https://localhost/app", "https://localhost/idp", "id-" + relayState,
+                                "urn:issuer", "/app", null, relayState, clock.get());
+    }
+
+    private ResponseState createResponseState() {
+        long now = clock.get();
+        return new ResponseState("<assertion/>", "relay", "/app", null, now,
+                                 now + InMemorySPStateManager.DEFAULT_TTL * 1000L);
+    }
+
+}
@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+public class JdbcSPStateManagerTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    // The tests flush and purge explicitly
+    private static final long INTERVAL = 3600000L;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+    private final List<JdbcSPStateManager> managers = new ArrayList<>();
+    private FailingDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:fediz-state-" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        dataSource = new FailingDataSource(h2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.failing = false;
+        for (JdbcSPStateManager manager : managers) {
+            manager.close();
+        }
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @org.junit.Test
+    public void testWriteBehind() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        JdbcSPStateManager node2 = createManager();
+
+        node1.setResponseState("context-1", createResponseState("alice"));
+        node1.setRequestState("relay-1", createRequestState("relay-1"));
+        Assert.assertEquals(2, node1.getPendingCount());
+        Assert.assertEquals(0, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+        // The node which stored the states finds them before they are written
+        Assert.assertEquals("alice", node1.getResponseState("context-1").getSubject());
+        Assert.assertNull(node2.getResponseState("context-1"));
+
+        node1.flush();
+        Assert.assertEquals(0, node1.getPendingCount());
+        Assert.assertEquals(1, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+        Assert.assertEquals(1, countRows(JdbcSPStateManager.REQUEST_TABLE));
+    }
+
+    @org.junit.Test
+    public void testReadThroughOnAnotherNode() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        ResponseState state = createResponseState("alice");
+        state.setRoles(Arrays.asList("User", "Admin"));
+        node1.setResponseState("context-1", state);
+        node1.setRequestState("relay-1", createRequestState("relay-1"));
+        node1.flush();
+
+        JdbcSPStateManager node2 = createManager();
+        ResponseState read = node2.getResponseState("context-1");
+        Assert.assertNotNull(read);
+        Assert.assertNotSame(state, read);
+        Assert.assertEquals("alice", read.getSubject());
+        Assert.assertEquals("<assertion/>", read.getAssertion());
+        Assert.assertEquals(Arrays.asList("User", "Admin"), read.getRoles());
+        Assert.assertEquals("/app", read.getWebAppContext());
+
+        RequestState requestState = node2.removeRequestState("relay-1");
+        Assert.assertNotNull(requestState);
+        Assert.assertEquals("https://localhost/idp", requestState.getIdpServiceAddress());
+        Assert.assertEquals("relay-1", requestState.getState());
+
+        // The read state is kept in the near cache of the node
+        dataSource.failing = true;
+        Assert.assertSame(read, node2.getResponseState("context-1"));
+        Assert.assertNull(node2.getResponseState("context-2"));
+    }
+
+    @org.junit.Test
+    public void testRemoveAndAddAgain() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        node1.setResponseState("context-1", createResponseState("alice"));
+        node1.flush();
+
+        Assert.assertEquals("alice", node1.removeResponseState("context-1").getSubject());
+        Assert.assertNull(node1.getResponseState("context-1"));
+        node1.flush();
+        Assert.assertEquals(0, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+        Assert.assertNull(createManager().getResponseState("context-1"));
+
+        node1.setResponseState("context-1", createResponseState("bob"));
+        node1.flush();
+        Assert.assertEquals("bob", createManager().getResponseState("context-1").getSubject());
+
+        // The writes of a key between two flushes are merged, the last one wins
+        node1.removeResponseState("context-1");
+        node1.setResponseState("context-1", createResponseState("carol"));
+        Assert.assertEquals(1, node1.getPendingCount());
+        node1.flush();
+        Assert.assertEquals(1, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+        Assert.assertEquals("carol", createManager().getResponseState("context-1").getSubject());
+    }
+
+    @org.junit.Test
+    public void testPurge() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        node1.setTTL(60L);
+        node1.setResponseState("context-1", createResponseState("alice"));
+        node1.setRequestState("relay-1", createRequestState("relay-1"));
+        node1.flush();
+
+        clock.addAndGet(30_000L);
+        Assert.assertEquals(0, node1.purge());
+        node1.setResponseState("context-2", createResponseState("bob"));
+        node1.flush();
+
+        clock.addAndGet(31_000L);
+        // Expired rows are not read, even before they are purged
+        JdbcSPStateManager node2 = createManager();
+        Assert.assertNull(node2.getResponseState("context-1"));
+        Assert.assertEquals("bob", node2.getResponseState("context-2").getSubject());
+
+        Assert.assertEquals(2, node1.purge());
+        Assert.assertEquals(0, countRows(JdbcSPStateManager.REQUEST_TABLE));
+        Assert.assertEquals(1, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+    }
+
+    @org.junit.Test
+    public void testFlushFailure() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        node1.setResponseState("context-1", createResponseState("alice"));
+
+        dataSource.failing = true;
+        try {
+            node1.flush();
+            Assert.fail("Failure expected while the database is down");
+        } catch (SQLException ex) {
+            // expected
+        }
+        Assert.assertEquals(1, node1.getPendingCount());
+        Assert.assertEquals(0L, node1.getDroppedCount());
+
+        dataSource.failing = false;
+        node1.flush();
+        Assert.assertEquals(0, node1.getPendingCount());
+        Assert.assertEquals("alice", createManager().getResponseState("context-1").getSubject());
+    }
+
+    @org.junit.Test
+    public void testExpiredWriteDropped() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        node1.setTTL(60L);
+        node1.setResponseState("context-1", createResponseState("alice"));
+
+        dataSource.failing = true;
+        try {
+            node1.flush();
+            Assert.fail("Failure expected while the database is down");
+        } catch (SQLException ex) {
+            // expected
+        }
+        clock.addAndGet(61_000L);
+        dataSource.failing = false;
+        node1.flush();
+        Assert.assertEquals(0, node1.getPendingCount());
+        Assert.assertEquals(1L, node1.getDroppedCount());
+        Assert.assertEquals(0, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+    }
+
+    @org.junit.Test
+    public void testFailingRowDropped() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        // The key does not fit into the column
+        char[] longKey = new char[300];
+        Arrays.fill(longKey, 'k');
+        node1.setResponseState(new String(longKey), createResponseState("mallory"));
+        node1.setResponseState("context-1", createResponseState("alice"));
+
+        // The other rows are written nevertheless
+        node1.flush();
+        Assert.assertEquals(1, node1.getPendingCount());
+        Assert.assertEquals("alice", createManager().getResponseState("context-1").getSubject());
+
+        node1.flush();
+        Assert.assertEquals(1, node1.getPendingCount());
+        Assert.assertEquals(0L, node1.getDroppedCount());
+        node1.flush();
+        Assert.assertEquals(0, node1.getPendingCount());
+        Assert.assertEquals(1L, node1.getDroppedCount());
+        Assert.assertEquals(1, countRows(JdbcSPStateManager.RESPONSE_TABLE));
+    }
+
+    @org.junit.Test
+    public void testQueueBounded() throws Exception {
+        JdbcSPStateManager node1 = createManager();
+        node1.setMaxPending(2);
+        node1.setResponseState("context-1", createResponseState("alice"));
+        node1.setResponseState("context-2", createResponseState("bob"));
+        node1.setResponseState("context-3", createResponseState("carol"));
+        Assert.assertEquals(2, node1.getPendingCount());
+        Assert.assertEquals(1L, node1.getDroppedCount());
+        // The dropped state is still known to this node
+        Assert.assertEquals("carol", node1.getResponseState("context-3").getSubject());
+
+        // A queued key can still be written
+        node1.setResponseState("context-2", createResponseState("dave"));
+        Assert.assertEquals(1L, node1.getDroppedCount());
+        node1.flush();
+
+        JdbcSPStateManager node2 = createManager();
+        Assert.assertEquals("dave", node2.getResponseState("context-2").getSubject());
+        Assert.assertNull(node2.getResponseState("context-3"));
+    }
+
+    @org.junit.Test
+    public void testInit() throws Exception {
+        JdbcSPStateManager manager = new JdbcSPStateManager(dataSource, INTERVAL, INTERVAL, clock::get);
+        managers.add(manager);
+        manager.setCreateTables(false);
+        try {
+            manager.setResponseState("context-1", createResponseState("alice"));
+            Assert.fail("Failure expected before init");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        manager.init();
+        Assert.assertFalse(tableExists(JdbcSPStateManager.RESPONSE_TABLE));
+
+        JdbcSPStateManager other = new JdbcSPStateManager(dataSource, INTERVAL, INTERVAL, clock::get);
+        managers.add(other);
+        other.setDataType("VARBINARY(65536)");
+        other.init();
+        Assert.assertTrue(tableExists(JdbcSPStateManager.RESPONSE_TABLE));
+        other.setResponseState("context-1", createResponseState("alice"));
+        other.flush();
+        Assert.assertEquals("alice", createManager().getResponseState("context-1").getSubject());
+    }
+
+    private JdbcSPStateManager createManager() {
+        JdbcSPStateManager manager = new JdbcSPStateManager(dataSource, INTERVAL, INTERVAL, clock::get);
+        managers.add(manager);
+        manager.init();
+        return manager;
+    }
+
+    private int countRows(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private boolean tableExists(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+            ResultSet rs = connection.getMetaData().getTables(null, null, table, null)) {
+            return rs.next();
+        }
+    }
+
+    private RequestState createRequestState(String relayState) {
+        return new RequestState("https://localhost/app", "https://localhost/idp", "id-" + relayState,
+                                "urn:issuer", "/app", null, relayState, clock.get());
+    }
+
+    private ResponseState createResponseState(String subject) {
+        long now = clock.get();
+        ResponseState state = new ResponseState("<assertion/>", "relay", "/app", null, now, now + 3600000L);
+        state.setSubject(subject);
+        state.setIssuer("idp");
+        return state;
+    }
+
+    /**
+     * A DataSource which fails to connect while the database is down
+     */
+    private static final class FailingDataSource implements DataSource {
+        private final DataSource delegate;
+        private volatile boolean failing;
+
+        FailingDataSource(DataSource delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (failing) {
+                throw new SQLException("The database is down");
+            }
+            return delegate.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            if (failing) {
+                throw new SQLException("The database is down");
+            }
+            return delegate.getConnection(username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return delegate.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            delegate.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            delegate.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return delegate.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return delegate.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return delegate.isWrapperFor(iface);
+        }
+    }
+
+}
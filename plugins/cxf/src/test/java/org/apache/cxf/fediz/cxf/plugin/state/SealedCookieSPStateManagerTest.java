@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.junit.Assert;
+
+public class SealedCookieSPStateManagerTest {
+
+    private static final String KEY_1 = createKey(1, 16);
+    private static final String KEY_2 = createKey(2, 32);
+
+    @org.junit.Test
+    public void testStateOpenedByAnotherNode() {
+        ResponseState state = createResponseState("<assertion/>");
+        String cookie = new SealedCookieSPStateManager(new String[] {KEY_1}).addResponseState(state);
+
+        ResponseState opened = new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState(cookie);
+        Assert.assertNotNull(opened);
+        Assert.assertEquals("alice", opened.getSubject());
+        Assert.assertEquals("idp", opened.getIssuer());
+        Assert.assertEquals(Arrays.asList("User", "Admin"), opened.getRoles());
+        Assert.assertEquals("alice@example.com", opened.getClaims().get(0).getValue());
+        Assert.assertEquals("relay", opened.getState());
+        Assert.assertEquals("/app", opened.getWebAppContext());
+        Assert.assertNull(opened.getWebAppDomain());
+        Assert.assertEquals(1000L, opened.getCreatedAt());
+        Assert.assertEquals(2000L, opened.getExpiresAt());
+    }
+
+    @org.junit.Test
+    public void testAssertionOmittedByDefault() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        Assert.assertFalse(manager.isIncludeAssertion());
+        String cookie = manager.addResponseState(createResponseState("<assertion/>"));
+
+        // The node which sealed the state sees the same state as the others
+        for (SPStateManager node : Arrays.asList(manager, new SealedCookieSPStateManager(new String[] {KEY_1}))) {
+            ResponseState opened = node.getResponseState(cookie);
+            Assert.assertNull(opened.getAssertion());
+            Assert.assertTrue(opened.isAssertionOmitted());
+        }
+    }
+
+    @org.junit.Test
+    public void testAssertionIncluded() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        manager.setIncludeAssertion(true);
+        String cookie = manager.addResponseState(createResponseState("<assertion/>"));
+
+        ResponseState opened = new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState(cookie);
+        Assert.assertEquals("<assertion/>", opened.getAssertion());
+        Assert.assertFalse(opened.isAssertionOmitted());
+    }
+
+    @org.junit.Test
+    public void testStateWithoutAssertionNotMarkedOmitted() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        String cookie = manager.addResponseState(createResponseState(null));
+
+        ResponseState opened = new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState(cookie);
+        Assert.assertNull(opened.getAssertion());
+        Assert.assertFalse(opened.isAssertionOmitted());
+    }
+
+    @org.junit.Test
+    public void testLargeAssertionLeftOut() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        manager.setIncludeAssertion(true);
+        // Random content does not deflate
+        String cookie = manager.addResponseState(createResponseState("<assertion>" + createKey(3, 6000)
+            + "</assertion>"));
+        Assert.assertTrue(cookie.length() <= 4000);
+
+        ResponseState opened = new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState(cookie);
+        Assert.assertNull(opened.getAssertion());
+        Assert.assertTrue(opened.isAssertionOmitted());
+    }
+
+    @org.junit.Test
+    public void testOversizeStateRejected() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        ResponseState state = createResponseState(null);
+        state.setSubject(createKey(4, 6000));
+        try {
+            manager.addResponseState(state);
+            Assert.fail("Failure expected on a cookie browsers drop");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testKeyRotation() {
+        ResponseState state = createResponseState("<assertion/>");
+        String oldCookie = new SealedCookieSPStateManager(new String[] {KEY_1}).addResponseState(state);
+
+        SealedCookieSPStateManager rotated = new SealedCookieSPStateManager(new String[] {KEY_2, KEY_1});
+        Assert.assertNotNull(rotated.getResponseState(oldCookie));
+
+        String newCookie = rotated.addResponseState(state);
+        Assert.assertNotNull(new SealedCookieSPStateManager(new String[] {KEY_2}).getResponseState(newCookie));
+        Assert.assertNull(new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState(newCookie));
+    }
+
+    @org.junit.Test
+    public void testTamperedCookieRejected() {
+        String cookie = new SealedCookieSPStateManager(new String[] {KEY_1})
+            .addResponseState(createResponseState("<assertion/>"));
+        char[] chars = cookie.toCharArray();
+        chars[40] = chars[40] == 'A' ? 'B' : 'A';
+
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        Assert.assertNull(manager.getResponseState(new String(chars)));
+        Assert.assertNull(manager.getResponseState("not a sealed state"));
+        Assert.assertNull(manager.getResponseState(""));
+    }
+
+    @org.junit.Test
+    public void testSetResponseState() {
+        SealedCookieSPStateManager manager = new SealedCookieSPStateManager(new String[] {KEY_1});
+        ResponseState state = createResponseState("<assertion/>");
+        manager.setResponseState("context-1", state);
+
+        Assert.assertSame(state, manager.getResponseState("context-1"));
+        Assert.assertNull(new SealedCookieSPStateManager(new String[] {KEY_1}).getResponseState("context-1"));
+        Assert.assertSame(state, manager.removeResponseState("context-1"));
+        Assert.assertNull(manager.getResponseState("context-1"));
+    }
+
+    private static ResponseState createResponseState(String assertion) {
+        ResponseState state = new ResponseState(assertion, "relay", "/app", null, 1000L, 2000L);
+        state.setSubject("alice");
+        state.setIssuer("idp");
+        state.setRoles(Arrays.asList("User", "Admin"));
+        Claim claim = new Claim();
+        claim.setClaimType(URI.create("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/emailaddress"));
+        claim.setValue("alice@example.com");
+        state.setClaims(Collections.singletonList(claim));
+        return state;
+    }
+
+    private static String createKey(long seed, int length) {
+        byte[] key = new byte[length];
+        new Random(seed).nextBytes(key);
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+}
@@ -46,6 +46,7 @@ public class FederationAuthenticationToken extends AbstractAuthenticationToken
     private final Object principal;
     private final UserDetails userDetails;
     private final FedizResponse response;
+    private final ClaimCollection claims;
     private List<String> roles = Collections.emptyList();
 
 
@@ -63,6 +64,9 @@ public class FederationAuthenticationToken extends AbstractAuthenticationToken
         this.credentials = credentials;
         this.userDetails = userDetails;
         this.response = response;
+        // Built once, so that the claim type index is kept for all lookups
+        this.claims = response.getClaims() == null
+            ? new ClaimCollection() : new ClaimCollection(response.getClaims());
         setAuthenticated(true);
         if (response.getRoles() != null) {
             this.roles = response.getRoles();
@@ -96,7 +100,7 @@ public class FederationAuthenticationToken extends AbstractAuthenticationToken
 
     @Override
     public ClaimCollection getClaims() {
-        return new ClaimCollection(response.getClaims());
+        return claims;
     }
 
     @Override
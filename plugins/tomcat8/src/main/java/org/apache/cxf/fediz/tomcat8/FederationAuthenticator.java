@@ -44,6 +44,7 @@ import org.apache.catalina.connector.Response;
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.FedizPrincipal;
 import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.config.FedizConfigWatcher;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
@@ -71,6 +72,7 @@ public class FederationAuthenticator extends FormAuthenticator {
      */
     protected static final String INFO = "org.apache.cxf.fediz.tomcat.WsFedAuthenticator/1.0";
     protected static final String TRUSTED_ISSUER = "org.apache.cxf.fediz.tomcat.TRUSTED_ISSUER";
+    protected static final String FEDIZ_CONTEXT_NOTE = "org.apache.cxf.fediz.tomcat.FEDIZ_CONTEXT";
 
     private static final Logger LOG = LoggerFactory.getLogger(FormAuthenticator.class);
 
@@ -80,7 +82,13 @@ public class FederationAuthenticator extends FormAuthenticator {
     protected String configFile;
     protected String encoding = "UTF-8";
 
-    private FedizConfigurator configurator;
+    /**
+     * Reload the Fediz configuration file when it has changed
+     */
+    protected boolean watchConfigFile;
+
+    private volatile FedizConfigurator configurator;
+    private FedizConfigWatcher configWatcher;
 
     public FederationAuthenticator() {
         LOG.debug("WsFedAuthenticator()");
@@ -102,6 +110,14 @@ public class FederationAuthenticator extends FormAuthenticator {
         this.encoding = encoding;
     }
 
+    public boolean isWatchConfigFile() {
+        return watchConfigFile;
+    }
+
+    public void setWatchConfigFile(boolean watchConfigFile) {
+        this.watchConfigFile = watchConfigFile;
+    }
+
     @Override
     protected synchronized void startInternal() throws LifecycleException {
 
@@ -113,9 +129,20 @@ public class FederationAuthenticator extends FormAuthenticator {
                     f = new File(catalinaBase.concat(File.separator + getConfigFile()));
                 }
             }
-            configurator = new FedizConfigurator();
-            configurator.loadConfig(f);
+            FedizConfigurator newConfigurator = new FedizConfigurator();
+            newConfigurator.loadConfig(f);
+            String catalinaBase = System.getProperty("catalina.base");
+            if (catalinaBase != null && catalinaBase.length() > 0) {
+                for (FedizContext fedContext : newConfigurator.getFedizContextList()) {
+                    fedContext.setRelativePath(catalinaBase);
+                }
+            }
+            configurator = newConfigurator;
             LOG.debug("Fediz configuration read from " + f.getAbsolutePath());
+            if (watchConfigFile) {
+                configWatcher = new FedizConfigWatcher(newConfigurator, f);
+                configWatcher.start();
+            }
         } catch (JAXBException | IOException e) {
             throw new LifecycleException("Failed to load Fediz configuration", e);
         }
@@ -125,6 +152,14 @@ public class FederationAuthenticator extends FormAuthenticator {
 
     @Override
     protected synchronized void stopInternal() throws LifecycleException {
+        if (configWatcher != null) {
+            try {
+                configWatcher.close();
+            } catch (IOException ex) {
+                //
+            }
+            configWatcher = null;
+        }
         if (configurator != null) {
             List<FedizContext> fedContextList = configurator.getFedizContextList();
             if (fedContextList != null) {
@@ -140,21 +175,33 @@ public class FederationAuthenticator extends FormAuthenticator {
         super.stopInternal();
     }
 
-    protected synchronized FedizContext getContextConfiguration(String contextName) {
-        if (configurator == null) {
+    protected FedizContext getContextConfiguration(String contextName) {
+        FedizConfigurator currentConfigurator = configurator;
+        if (currentConfigurator == null) {
             throw new IllegalStateException("No Fediz configuration available");
         }
-        FedizContext config = configurator.getFedizContext(contextName);
+        FedizContext config = currentConfigurator.getFedizContext(contextName);
         if (config == null) {
             throw new IllegalStateException("No Fediz configuration for context :" + contextName);
         }
-        String catalinaBase = System.getProperty("catalina.base");
-        if (catalinaBase != null && catalinaBase.length() > 0) {
-            config.setRelativePath(catalinaBase);
-        }
         return config;
     }
 
+    /**
+     * Look up the context configuration and mark it as in use, so that a reload of the configuration file
+     * does not close it before the request is done. The caller must release it.
+     */
+    protected FedizContext acquireContextConfiguration(String contextName) {
+        for (int i = 0; i < 3; i++) {
+            FedizContext config = getContextConfiguration(contextName);
+            if (config.acquire()) {
+                return config;
+            }
+            // Closed after a reload in the meantime, the configurator knows its replacement by now
+        }
+        throw new IllegalStateException("No open Fediz configuration for context :" + contextName);
+    }
+
     @Override
     public void invoke(final Request request, final Response response) throws IOException, ServletException {
 
@@ -165,23 +212,29 @@ public class FederationAuthenticator extends FormAuthenticator {
         if (contextName == null || contextName.isEmpty()) {
             contextName = "/";
         }
-        FedizContext fedConfig = getContextConfiguration(contextName);
+        FedizContext fedConfig = acquireContextConfiguration(contextName);
+        // authenticate uses the same context for this request
+        request.setNote(FEDIZ_CONTEXT_NOTE, fedConfig);
+        try {
+            MetadataDocumentHandler mdHandler = new MetadataDocumentHandler(fedConfig);
+            if (mdHandler.canHandleRequest(request)) {
+                mdHandler.handleRequest(request, response);
+                return;
+            }
 
-        MetadataDocumentHandler mdHandler = new MetadataDocumentHandler(fedConfig);
-        if (mdHandler.canHandleRequest(request)) {
-            mdHandler.handleRequest(request, response);
-            return;
-        }
+            LogoutHandler logoutHandler = new TomcatLogoutHandler(fedConfig, contextName, request);
+            if (logoutHandler.canHandleRequest(request)) {
+                Element token = (Element)request.getSession().getAttribute(SECURITY_TOKEN);
+                logoutHandler.setToken(token);
+                logoutHandler.handleRequest(request, response);
+                return;
+            }
 
-        LogoutHandler logoutHandler = new TomcatLogoutHandler(fedConfig, contextName, request);
-        if (logoutHandler.canHandleRequest(request)) {
-            Element token = (Element)request.getSession().getAttribute(SECURITY_TOKEN);
-            logoutHandler.setToken(token);
-            logoutHandler.handleRequest(request, response);
-            return;
+            super.invoke(request, response);
+        } finally {
+            request.removeNote(FEDIZ_CONTEXT_NOTE);
+            fedConfig.release();
         }
-
-        super.invoke(request, response);
     }
 
     @Override
@@ -189,13 +242,27 @@ public class FederationAuthenticator extends FormAuthenticator {
 
         LOG.debug("authenticate invoked");
 
+        // Use the context acquired by invoke, if any
+        FedizContext fedCtx = (FedizContext)request.getNote(FEDIZ_CONTEXT_NOTE);
+        if (fedCtx != null) {
+            return authenticate(request, response, fedCtx);
+        }
+
         String contextName = request.getServletContext().getContextPath();
         if (contextName == null || contextName.isEmpty()) {
             contextName = "/";
         }
         LOG.debug("reading configuration for context path: {}", contextName);
-        FedizContext fedCtx = getContextConfiguration(contextName);
+        fedCtx = acquireContextConfiguration(contextName);
+        try {
+            return authenticate(request, response, fedCtx);
+        } finally {
+            fedCtx.release();
+        }
+    }
 
+    private boolean authenticate(Request request, HttpServletResponse response, FedizContext fedCtx)
+        throws IOException {
         // Handle Signin requests
         TomcatSigninHandler signinHandler = new TomcatSigninHandler(fedCtx);
         signinHandler.setLandingPage(landingPage);
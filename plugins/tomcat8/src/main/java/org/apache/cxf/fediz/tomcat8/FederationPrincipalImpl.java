@@ -19,6 +19,9 @@
 
 package org.apache.cxf.fediz.tomcat8;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Collections;
 import java.util.List;
 
@@ -28,12 +31,15 @@ import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.cxf.fediz.core.Claim;
 import org.apache.cxf.fediz.core.ClaimCollection;
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.fediz.core.util.CompactCodec;
 
 public class FederationPrincipalImpl extends GenericPrincipal implements FedizPrincipal {
 
+    private static final long serialVersionUID = 1L;
+
     protected ClaimCollection claims;
-    protected Element loginToken;
-    private List<String> roles = Collections.emptyList();
+    protected transient Element loginToken;
+    private transient List<String> roles = Collections.emptyList();
 
     public FederationPrincipalImpl(String username, List<String> roles,
             List<Claim> claims, Element loginToken) {
@@ -57,4 +63,23 @@ public class FederationPrincipalImpl extends GenericPrincipal implements FedizPr
     public List<String> getRoleClaims() {
         return Collections.unmodifiableList(roles);
     }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        CompactCodec.Writer writer = CompactCodec.newWriter(stream);
+        writer.writeVersion();
+        writer.writeStrings(roles);
+        writer.writeElement(loginToken);
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        CompactCodec.Reader reader = CompactCodec.newReader(stream);
+        reader.readVersion();
+        roles = reader.readStrings(true);
+        if (roles == null) {
+            roles = Collections.emptyList();
+        }
+        loginToken = reader.readElement();
+    }
 }
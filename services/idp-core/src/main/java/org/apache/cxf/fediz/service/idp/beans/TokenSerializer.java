@@ -20,16 +20,15 @@ package org.apache.cxf.fediz.service.idp.beans;
 
 import java.io.StringWriter;
 
-import javax.xml.XMLConstants;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Element;
 
+import org.apache.cxf.fediz.core.util.DOMUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -47,9 +46,7 @@ public class TokenSerializer {
         if (rpToken != null) {
             StringWriter sw = new StringWriter();
             try {
-                TransformerFactory tf = TransformerFactory.newInstance();
-                tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-                Transformer t = tf.newTransformer();
+                Transformer t = DOMUtils.getTransformer();
                 t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
                 t.transform(new DOMSource(rpToken), new StreamResult(sw));
             } catch (TransformerException te) {
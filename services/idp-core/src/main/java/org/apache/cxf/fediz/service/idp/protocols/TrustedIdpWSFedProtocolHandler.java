@@ -219,7 +219,7 @@ public class TrustedIdpWSFedProtocolHandler extends AbstractTrustedIdpProtocolHa
             cs = new CertificateStore(Collections.singletonList(cert).toArray(new X509Certificate[0]));
 
             TrustManager tm = new TrustManager(cs);
-            fedContext.getCertificateStores().add(tm);
+            fedContext.addCertificateStore(tm);
         }
 
         fedContext.init();